@@ -0,0 +1,48 @@
+#!/usr/bin/env bash
+# Builds the service, runs it locally with only the LOCAL backend and a throwaway Redis, and drives
+# it with the load generator. Extra arguments go to the generator, e.g.
+#   loadtest/run.sh --steps 50,200,500 --step-seconds 120 --max-p99-ms 500
+# Needs a JDK 17, Maven, FFmpeg and either a local Redis or Docker.
+set -euo pipefail
+
+root="$(cd "$(dirname "$0")/.." && pwd)"
+port="${PORT:-8080}"
+work="$(mktemp -d)"
+app_pid=""
+started_redis=""
+
+cleanup() {
+    [ -n "$app_pid" ] && kill "$app_pid" 2>/dev/null || true
+    [ -n "$started_redis" ] && docker compose -f "$root/loadtest/docker-compose.yml" down >/dev/null 2>&1 || true
+    rm -rf "$work"
+}
+trap cleanup EXIT
+
+if ! (command -v redis-cli >/dev/null && redis-cli ping >/dev/null 2>&1); then
+    echo "Starting Redis stand-in"
+    docker compose -f "$root/loadtest/docker-compose.yml" up -d redis
+    started_redis=1
+fi
+
+mvn -B -q -f "$root/pom.xml" -DskipTests package
+mvn -B -q -f "$root/loadtest/pom.xml" package
+
+echo "Starting stream-segmenter on port $port (logs in $work/app.log)"
+SERVER_PORT="$port" \
+SERVER_URL="http://localhost:$port" \
+STORAGE_TYPE=LOCAL \
+STORAGE_LOCAL_TEMP_PATH="$work/streams" \
+JOURNAL_ENABLED=false \
+CLUSTER_ENABLED=false \
+    java -jar "$root"/target/stream-segmenter-*.jar >"$work/app.log" 2>&1 &
+app_pid=$!
+
+for _ in $(seq 1 60); do
+    if curl -fs "http://localhost:$port/actuator/health/readiness" >/dev/null; then
+        break
+    fi
+    kill -0 "$app_pid" 2>/dev/null || { echo "Service exited during startup"; tail -50 "$work/app.log"; exit 1; }
+    sleep 1
+done
+
+java -jar "$root"/loadtest/target/stream-segmenter-loadtest-*.jar --base-url "http://localhost:$port" "$@"
@@ -0,0 +1,134 @@
+package com.streamsegmenter.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// A live HLS client without a thread of its own: reloads the media playlist, downloads segments it
+// has not seen yet, and reloads again after the target duration, or half of it when nothing was new
+final class HlsPlayer {
+    // Like real players, a new viewer joins three segments behind the live edge
+    private static final int JOIN_BEHIND_EDGE = 3;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient client;
+    private final URI playlistUri;
+    private final ScheduledExecutorService scheduler;
+    private final LatencyRecorder playlistStats;
+    private final LatencyRecorder segmentStats;
+    private volatile boolean running = true;
+    private long lastSequence = -1;
+
+    HlsPlayer(HttpClient client, URI playlistUri, ScheduledExecutorService scheduler,
+              LatencyRecorder playlistStats, LatencyRecorder segmentStats) {
+        this.client = client;
+        this.playlistUri = playlistUri;
+        this.scheduler = scheduler;
+        this.playlistStats = playlistStats;
+        this.segmentStats = segmentStats;
+    }
+
+    void start(long delayMillis) {
+        scheduler.schedule(this::reload, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    private void reload() {
+        if (!running) {
+            return;
+        }
+        long started = System.nanoTime();
+        client.sendAsync(request(playlistUri), HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    if (error != null || response.statusCode() != 200) {
+                        playlistStats.error();
+                        scheduleReload(1000);
+                        return null;
+                    }
+                    playlistStats.success(System.nanoTime() - started, response.body().length());
+                    Playlist playlist = Playlist.parse(response.body());
+                    List<URI> fresh = freshSegments(playlist);
+                    fetchInOrder(fresh, 0).whenComplete((v, e) -> {
+                        long target = playlist.targetDurationSeconds() * 1000L;
+                        scheduleReload(fresh.isEmpty() ? target / 2 : target);
+                    });
+                    return null;
+                });
+    }
+
+    private List<URI> freshSegments(Playlist playlist) {
+        List<URI> fresh = new ArrayList<>();
+        int count = playlist.segments().size();
+        long first = lastSequence < 0
+                ? playlist.mediaSequence() + Math.max(0, count - JOIN_BEHIND_EDGE)
+                : lastSequence + 1;
+        for (int i = 0; i < count; i++) {
+            long sequence = playlist.mediaSequence() + i;
+            if (sequence >= first) {
+                fresh.add(playlistUri.resolve(playlist.segments().get(i)));
+                lastSequence = sequence;
+            }
+        }
+        return fresh;
+    }
+
+    // Sequential, as a player downloads one segment after the other
+    private CompletableFuture<Void> fetchInOrder(List<URI> segments, int index) {
+        if (index >= segments.size() || !running) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long started = System.nanoTime();
+        return client.sendAsync(request(segments.get(index)), HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, error) -> {
+                    if (error != null || response.statusCode() != 200) {
+                        segmentStats.error();
+                    } else {
+                        segmentStats.success(System.nanoTime() - started, response.body().length);
+                    }
+                    return null;
+                })
+                .thenCompose(v -> fetchInOrder(segments, index + 1));
+    }
+
+    private void scheduleReload(long delayMillis) {
+        if (running) {
+            // A little jitter keeps players from drifting into lockstep
+            long jitter = ThreadLocalRandom.current().nextLong(Math.max(1, delayMillis / 10));
+            scheduler.schedule(this::reload, Math.max(100, delayMillis) + jitter, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static HttpRequest request(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(REQUEST_TIMEOUT).GET().build();
+    }
+
+    record Playlist(long mediaSequence, int targetDurationSeconds, List<String> segments) {
+        static Playlist parse(String body) {
+            long mediaSequence = 0;
+            int targetDuration = 5;
+            List<String> segments = new ArrayList<>();
+            for (String line : body.split("\n")) {
+                line = line.trim();
+                if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                    mediaSequence = Long.parseLong(line.substring("#EXT-X-MEDIA-SEQUENCE:".length()));
+                } else if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+                    targetDuration = Integer.parseInt(line.substring("#EXT-X-TARGETDURATION:".length()));
+                } else if (!line.isEmpty() && !line.startsWith("#")) {
+                    segments.add(line);
+                }
+            }
+            return new Playlist(mediaSequence, targetDuration, segments);
+        }
+    }
+}
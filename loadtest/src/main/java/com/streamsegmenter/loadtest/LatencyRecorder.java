@@ -0,0 +1,57 @@
+package com.streamsegmenter.loadtest;
+
+import java.util.Arrays;
+
+// Collects request latencies of one kind for the current step. Thread-safe; snapshots reset it.
+final class LatencyRecorder {
+    private long[] latencies = new long[4096];
+    private int count;
+    private long bytes;
+    private long errors;
+
+    synchronized void success(long latencyNanos, long responseBytes) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+        bytes += responseBytes;
+    }
+
+    synchronized void error() {
+        errors++;
+    }
+
+    synchronized Snapshot snapshotAndReset() {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        Snapshot snapshot = new Snapshot(sorted.length, errors, bytes,
+                percentile(sorted, 0.50), percentile(sorted, 0.99),
+                sorted.length > 0 ? sorted[sorted.length - 1] : 0);
+        count = 0;
+        bytes = 0;
+        errors = 0;
+        return snapshot;
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    record Snapshot(long requests, long errors, long bytes, long p50Nanos, long p99Nanos, long maxNanos) {
+        double p50Millis() {
+            return p50Nanos / 1_000_000.0;
+        }
+
+        double p99Millis() {
+            return p99Nanos / 1_000_000.0;
+        }
+
+        double maxMillis() {
+            return maxNanos / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.streamsegmenter.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Starts one stream on the service under test, then steps up the number of simulated HLS players
+// watching it and reports playlist and segment latency, throughput and errors for every step
+public final class LoadTest {
+    private static final Pattern STREAM_ID = Pattern.compile("\"streamId\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final LoadTestOptions options;
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors())))
+            .build();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final LatencyRecorder playlistStats = new LatencyRecorder();
+    private final LatencyRecorder segmentStats = new LatencyRecorder();
+    private final List<HlsPlayer> players = new ArrayList<>();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    private LoadTest(LoadTestOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            LoadTestOptions.usage();
+            System.exit(2);
+            return;
+        }
+        new LoadTest(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        LocalSource source = options.sourceIsUrl() ? null : LocalSource.start(options);
+        String streamUrl = source != null ? source.url() : options.source;
+        String streamId = null;
+        try {
+            streamId = startStream(streamUrl);
+            String stopId = streamId;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> stopStream(stopId)));
+            URI playlistUri = options.baseUrl.resolve(
+                    String.format("/api/stream/%s/%s/playlist.m3u8", streamId, options.storageType));
+            System.out.printf("Stream %s started from %s, waiting for segments at %s%n", streamId, streamUrl, playlistUri);
+            awaitFirstSegment(playlistUri);
+            runSteps(playlistUri);
+        } finally {
+            players.forEach(HlsPlayer::stop);
+            if (streamId != null) {
+                stopStream(streamId);
+            }
+            if (source != null) {
+                source.close();
+            }
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void runSteps(URI playlistUri) throws InterruptedException {
+        System.out.println();
+        System.out.println(" players | playlist p50/p99 ms | segment p50/p99/max ms |  req/s |  MB/s | errors");
+        System.out.println("---------+---------------------+------------------------+--------+-------+-------");
+        int lastHealthy = 0;
+        for (int target : options.steps) {
+            int added = target - players.size();
+            long spacing = added > 0 ? options.rampDuration.toMillis() / added : 0;
+            for (int i = 0; i < added; i++) {
+                HlsPlayer player = new HlsPlayer(client, playlistUri, scheduler, playlistStats, segmentStats);
+                players.add(player);
+                player.start(i * spacing);
+            }
+            Thread.sleep(options.rampDuration.toMillis());
+            // Ramp-up traffic is not part of the step
+            playlistStats.snapshotAndReset();
+            segmentStats.snapshotAndReset();
+
+            Thread.sleep(options.stepDuration.toMillis());
+            LatencyRecorder.Snapshot playlists = playlistStats.snapshotAndReset();
+            LatencyRecorder.Snapshot segments = segmentStats.snapshotAndReset();
+            double seconds = options.stepDuration.toMillis() / 1000.0;
+            System.out.printf(Locale.ROOT, "%8d | %8.1f / %8.1f | %6.1f / %6.1f / %6.1f | %6.1f | %5.1f | %6d%n",
+                    players.size(), playlists.p50Millis(), playlists.p99Millis(),
+                    segments.p50Millis(), segments.p99Millis(), segments.maxMillis(),
+                    (playlists.requests() + segments.requests()) / seconds,
+                    (playlists.bytes() + segments.bytes()) / seconds / (1024 * 1024),
+                    playlists.errors() + segments.errors());
+
+            if (options.maxP99Millis > 0 && segments.p99Millis() > options.maxP99Millis) {
+                System.out.printf("%nSegment p99 exceeded %d ms at %d players; last step within budget: %d players%n",
+                        options.maxP99Millis, players.size(), lastHealthy);
+                return;
+            }
+            lastHealthy = players.size();
+        }
+    }
+
+    private String startStream(String streamUrl) throws Exception {
+        String body = String.format("{\"streamUrl\":\"%s\",\"storageTypes\":[\"%s\"],\"videoQuality\":\"%s\"}",
+                streamUrl, options.storageType.toUpperCase(Locale.ROOT), options.videoQuality);
+        String credentials = Base64.getEncoder().encodeToString(
+                (options.username + ":" + options.password).getBytes(StandardCharsets.UTF_8));
+        HttpRequest request = HttpRequest.newBuilder(options.baseUrl.resolve("/api/stream/start"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Basic " + credentials)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        Matcher matcher = STREAM_ID.matcher(response.body());
+        if (response.statusCode() / 100 != 2 || !matcher.find()) {
+            throw new IllegalStateException("Could not start stream: " + response.statusCode() + " " + response.body());
+        }
+        return matcher.group(1);
+    }
+
+    private void awaitFirstSegment(URI playlistUri) throws Exception {
+        long deadline = System.nanoTime() + options.startTimeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(playlistUri).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200 && response.body().contains("#EXTINF")) {
+                return;
+            }
+            Thread.sleep(1000);
+        }
+        throw new IllegalStateException("No segment was published within " + options.startTimeout.toSeconds() + " s");
+    }
+
+    // Runs from the finally block and from the shutdown hook on Ctrl-C, whichever comes first
+    private void stopStream(String streamId) {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            client.send(HttpRequest.newBuilder(options.baseUrl.resolve("/api/stream/stop/" + streamId))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+        } catch (Exception e) {
+            System.err.println("Failed to stop stream " + streamId + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.streamsegmenter.loadtest;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Command line: --key value pairs, all optional
+final class LoadTestOptions {
+    URI baseUrl = URI.create("http://localhost:8080");
+    String username = "admin";
+    String password = "password";
+    String storageType = "local";
+    String videoQuality = "LOW";
+    // testsrc, a local media file, or an existing stream URL the service can ingest directly
+    String source = "testsrc";
+    int sourcePort = 9500;
+    String ffmpeg = "ffmpeg";
+    List<Integer> steps = List.of(10, 50, 100, 250, 500);
+    Duration stepDuration = Duration.ofSeconds(60);
+    Duration rampDuration = Duration.ofSeconds(10);
+    Duration startTimeout = Duration.ofSeconds(90);
+    // A step whose segment p99 exceeds this ends the run; 0 runs every step
+    long maxP99Millis = 0;
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (int i = 0; i < args.length; i++) {
+            String key = args[i];
+            if (key.equals("--help") || key.equals("-h")) {
+                usage();
+                System.exit(0);
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + key);
+            }
+            String value = args[++i];
+            switch (key) {
+                case "--base-url" -> options.baseUrl = URI.create(value.replaceAll("/+$", ""));
+                case "--username" -> options.username = value;
+                case "--password" -> options.password = value;
+                case "--storage" -> options.storageType = value.toLowerCase();
+                case "--quality" -> options.videoQuality = value.toUpperCase();
+                case "--source" -> options.source = value;
+                case "--source-port" -> options.sourcePort = Integer.parseInt(value);
+                case "--ffmpeg" -> options.ffmpeg = value;
+                case "--steps" -> options.steps = parseSteps(value);
+                case "--step-seconds" -> options.stepDuration = Duration.ofSeconds(Long.parseLong(value));
+                case "--ramp-seconds" -> options.rampDuration = Duration.ofSeconds(Long.parseLong(value));
+                case "--start-timeout-seconds" -> options.startTimeout = Duration.ofSeconds(Long.parseLong(value));
+                case "--max-p99-ms" -> options.maxP99Millis = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown option " + key);
+            }
+        }
+        return options;
+    }
+
+    boolean sourceIsUrl() {
+        return source.matches("^(rtmp|rtsp|http|https)://.*");
+    }
+
+    Path sourceFile() {
+        return Path.of(source);
+    }
+
+    private static List<Integer> parseSteps(String value) {
+        List<Integer> steps = new ArrayList<>();
+        for (String step : value.split(",")) {
+            steps.add(Integer.parseInt(step.trim()));
+        }
+        return steps;
+    }
+
+    static void usage() {
+        System.out.println("""
+                Usage: java -jar stream-segmenter-loadtest.jar [options]
+                  --base-url URL             service under test (http://localhost:8080)
+                  --username / --password    API credentials for starting the stream (admin / password)
+                  --storage TYPE             backend whose playlist players fetch (local)
+                  --quality QUALITY          video quality of the test stream (LOW)
+                  --source SOURCE            testsrc, a media file, or a stream URL (testsrc)
+                  --source-port PORT         port the local source is served on (9500)
+                  --ffmpeg PATH              ffmpeg binary for local sources (ffmpeg)
+                  --steps N,N,...            concurrent players at each load step (10,50,100,250,500)
+                  --step-seconds S           measured time per step (60)
+                  --ramp-seconds S           time to add a step's new players, not measured (10)
+                  --start-timeout-seconds S  wait for the first published segment (90)
+                  --max-p99-ms MS            stop after the first step whose segment p99 exceeds this
+                """);
+    }
+}
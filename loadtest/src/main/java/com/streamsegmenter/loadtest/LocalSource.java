@@ -0,0 +1,44 @@
+package com.streamsegmenter.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Serves a live MPEG-TS source on localhost with FFmpeg's HTTP listen mode, paced in real time:
+// either the lavfi test pattern or a local file looped forever
+final class LocalSource implements AutoCloseable {
+    private final Process process;
+    private final String url;
+
+    private LocalSource(Process process, String url) {
+        this.process = process;
+        this.url = url;
+    }
+
+    static LocalSource start(LoadTestOptions options) throws IOException {
+        String url = String.format("http://127.0.0.1:%d/source.ts", options.sourcePort);
+        List<String> command = new ArrayList<>(List.of(options.ffmpeg, "-hide_banner", "-loglevel", "error", "-re"));
+        if (options.source.equals("testsrc")) {
+            command.addAll(List.of(
+                    "-f", "lavfi", "-i", "testsrc2=size=1280x720:rate=25",
+                    "-f", "lavfi", "-i", "sine=frequency=1000:sample_rate=48000",
+                    "-c:v", "libx264", "-preset", "ultrafast", "-tune", "zerolatency", "-g", "50",
+                    "-c:a", "aac"));
+        } else {
+            command.addAll(List.of("-stream_loop", "-1", "-i", options.sourceFile().toString(), "-c", "copy"));
+        }
+        // Listen mode serves one client, which is all the service needs: identical requests share an ingest
+        command.addAll(List.of("-f", "mpegts", "-listen", "1", url));
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        return new LocalSource(process, url);
+    }
+
+    String url() {
+        return url;
+    }
+
+    @Override
+    public void close() {
+        process.destroy();
+    }
+}
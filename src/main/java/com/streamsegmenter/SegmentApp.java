@@ -2,12 +2,16 @@ package com.streamsegmenter;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableScheduling
 public class SegmentApp {
     public static void main(String[] args) {
-        SpringApplication.run(SegmentApp.class, args);
+        SpringApplication application = new SpringApplication(SegmentApp.class);
+        // Startup steps are kept for /actuator/startup
+        application.setApplicationStartup(new BufferingApplicationStartup(2048));
+        application.run(args);
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package com.streamsegmenter.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+@Slf4j
+@RequiredArgsConstructor
+public class CacheInvalidationBroadcaster implements MessageListener {
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final String channel;
+    private final String instanceId;
+    private volatile BiConsumer<String, String> localInvalidator = (cache, key) -> { };
+
+    void onInvalidation(BiConsumer<String, String> localInvalidator) {
+        this.localInvalidator = localInvalidator;
+    }
+
+    // A null key invalidates the whole cache; non-string keys are widened to a full clear on remote nodes
+    public void publish(String cacheName, Object key) {
+        try {
+            String wireKey = key instanceof String ? (String) key : null;
+            String payload = objectMapper.writeValueAsString(
+                    new InvalidationMessage(instanceId, cacheName, wireKey));
+            redisTemplate.convertAndSend(channel, payload);
+        } catch (Exception e) {
+            log.warn("Failed to broadcast cache invalidation for {}: {}", cacheName, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            InvalidationMessage invalidation = objectMapper.readValue(
+                    new String(message.getBody(), StandardCharsets.UTF_8), InvalidationMessage.class);
+            if (instanceId.equals(invalidation.origin())) {
+                return;
+            }
+            localInvalidator.accept(invalidation.cache(), invalidation.key());
+        } catch (Exception e) {
+            log.warn("Ignoring malformed cache invalidation message: {}", e.getMessage());
+        }
+    }
+
+    record InvalidationMessage(String origin, String cache, String key) {}
+}
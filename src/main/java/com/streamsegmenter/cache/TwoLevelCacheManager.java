@@ -0,0 +1,54 @@
+package com.streamsegmenter.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class TwoLevelCacheManager implements CacheManager {
+    private final CacheManager remoteCacheManager;
+    private final CacheInvalidationBroadcaster broadcaster;
+    private final long maximumSize;
+    private final Duration localTtl;
+    private final ConcurrentMap<String, TwoLevelCache> caches = new ConcurrentHashMap<>();
+
+    public TwoLevelCacheManager(CacheManager remoteCacheManager, CacheInvalidationBroadcaster broadcaster,
+                                long maximumSize, Duration localTtl) {
+        this.remoteCacheManager = remoteCacheManager;
+        this.broadcaster = broadcaster;
+        this.maximumSize = maximumSize;
+        this.localTtl = localTtl;
+        broadcaster.onInvalidation((cacheName, key) -> {
+            TwoLevelCache cache = caches.get(cacheName);
+            if (cache != null) {
+                cache.invalidateLocal(key);
+            }
+        });
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, n -> {
+            Cache remote = remoteCacheManager.getCache(n);
+            return remote == null ? null : new TwoLevelCache(n,
+                    Caffeine.newBuilder()
+                            .maximumSize(maximumSize)
+                            .expireAfterWrite(localTtl)
+                            .build(),
+                    remote, broadcaster);
+        });
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        Set<String> names = new LinkedHashSet<>(remoteCacheManager.getCacheNames());
+        names.addAll(caches.keySet());
+        return names;
+    }
+}
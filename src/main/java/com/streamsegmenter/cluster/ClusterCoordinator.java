@@ -0,0 +1,347 @@
+package com.streamsegmenter.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.streamsegmenter.config.ClusterConfig;
+import com.streamsegmenter.config.InstanceIdentity;
+import com.streamsegmenter.event.StreamStartedEvent;
+import com.streamsegmenter.event.StreamStoppedEvent;
+import com.streamsegmenter.model.NodeLoad;
+import com.streamsegmenter.model.StreamContext;
+import com.streamsegmenter.model.StreamSpec;
+import com.streamsegmenter.service.M3u8Service;
+import com.streamsegmenter.service.StreamService;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ClusterCoordinator implements MessageListener {
+    // Specs of running streams; a stream listed here fails over through cluster leases only
+    public static final String STREAMS_KEY = "cluster:streams";
+    private static final String SEQUENCES_KEY = "cluster:stream:sequences";
+    // Owned streams scored by lease expiry (epoch ms)
+    private static final String LEASES_KEY = "cluster:stream:leases";
+    private static final String LEASE_KEY_PREFIX = "cluster:stream:lease:";
+    private static final String NODES_KEY = "cluster:nodes";
+
+    private final ClusterConfig clusterConfig;
+    private final InstanceIdentity instanceIdentity;
+    private final StreamService streamService;
+    private final M3u8Service m3u8Service;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+
+    // KEYS: lease, leases  ARGV: id, node, ttl, expiry
+    private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+            if not redis.call('SET', KEYS[1], ARGV[2], 'NX', 'PX', ARGV[3]) then return 0 end
+            redis.call('ZADD', KEYS[2], ARGV[4], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // KEYS: lease, leases  ARGV: id, node, ttl, expiry
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) ~= ARGV[2] then return 0 end
+            redis.call('PEXPIRE', KEYS[1], ARGV[3])
+            redis.call('ZADD', KEYS[2], ARGV[4], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // KEYS: lease, leases, streams, sequences  ARGV: id, node
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+            local owner = redis.call('GET', KEYS[1])
+            if owner and owner ~= ARGV[2] then return 0 end
+            redis.call('DEL', KEYS[1])
+            redis.call('ZREM', KEYS[2], ARGV[1])
+            redis.call('HDEL', KEYS[3], ARGV[1])
+            redis.call('HDEL', KEYS[4], ARGV[1])
+            return 1
+            """, Long.class);
+
+    @PostConstruct
+    void subscribe() {
+        if (clusterConfig.isEnabled()) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(clusterConfig.getCommandChannel()));
+        }
+    }
+
+    public boolean isEnabled() {
+        return clusterConfig.isEnabled();
+    }
+
+    public String getNodeId() {
+        return instanceIdentity.getInstanceId();
+    }
+
+    // Node with the most headroom among fresh load reports; this node when it is the best or nothing is known
+    public String selectNode() {
+        long freshAfter = System.currentTimeMillis() - clusterConfig.getLoadReportTtlMs();
+        return readLoadReports().stream()
+                .filter(load -> load.getReportedAt() >= freshAfter)
+                .max(Comparator.comparingDouble(NodeLoad::getHeadroom))
+                .filter(load -> load.getHeadroom() > localLoad().getHeadroom())
+                .map(NodeLoad::getNodeId)
+                .orElse(getNodeId());
+    }
+
+    // Base URL a node reported with its load, empty while it has not reported yet
+    public Optional<String> nodeUrl(String nodeId) {
+        return readLoadReport(nodeId).map(NodeLoad::getBaseUrl);
+    }
+
+    // Base URL of the node holding the stream's lease, empty when this node or nobody owns it
+    public Optional<String> ownerUrl(String streamId) {
+        if (!clusterConfig.isEnabled()) {
+            return Optional.empty();
+        }
+        String owner = redisTemplate.opsForValue().get(LEASE_KEY_PREFIX + streamId);
+        if (owner == null || owner.equals(getNodeId())) {
+            return Optional.empty();
+        }
+        return nodeUrl(owner);
+    }
+
+    public void assign(String nodeId, StreamSpec spec) {
+        publish(new ClusterCommand(ClusterCommand.START, nodeId, spec.getStreamId(), spec));
+        log.info("Stream {} assigned to node {}", spec.getStreamId(), nodeId);
+    }
+
+    // Ownership is checked before the local stop, which removes the stream from activeStreams
+    public void stopStream(String streamId) {
+        boolean runsHere = streamService.activeStreams.containsKey(streamId);
+        streamService.stopStream(streamId);
+        if (clusterConfig.isEnabled() && !runsHere) {
+            publish(new ClusterCommand(ClusterCommand.STOP, null, streamId, null));
+        }
+    }
+
+    @EventListener
+    public void onStreamStarted(StreamStartedEvent event) {
+        if (!clusterConfig.isEnabled()) {
+            return;
+        }
+        StreamSpec spec = new StreamSpec();
+        spec.setStreamId(event.streamId());
+        spec.setStreamUrl(event.streamUrl());
+        spec.setStorageTypes(event.storageTypes());
+        spec.setVideoQuality(event.quality());
+        spec.setWatermark(event.watermark());
+
+        try {
+            redisTemplate.opsForHash().put(STREAMS_KEY, spec.getStreamId(), objectMapper.writeValueAsString(spec));
+        } catch (Exception e) {
+            log.error("Failed to replicate stream spec for {}: {}", spec.getStreamId(), e.getMessage());
+        }
+        if (!acquire(spec.getStreamId()) && !renew(spec.getStreamId())) {
+            log.warn("Stream {} started locally but is leased by another node", spec.getStreamId());
+        }
+    }
+
+    @EventListener
+    public void onStreamStopped(StreamStoppedEvent event) {
+        if (clusterConfig.isEnabled()) {
+            redisTemplate.execute(RELEASE_SCRIPT,
+                    List.of(LEASE_KEY_PREFIX + event.streamId(), LEASES_KEY, STREAMS_KEY, SEQUENCES_KEY),
+                    event.streamId(), getNodeId());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cluster.heartbeat-interval-ms:3000}")
+    public void heartbeat() {
+        if (!clusterConfig.isEnabled()) {
+            return;
+        }
+
+        Map<String, String> sequences = new HashMap<>();
+        for (Map.Entry<String, StreamContext> entry : streamService.activeStreams.entrySet()) {
+            String streamId = entry.getKey();
+            if (!renew(streamId) && !acquire(streamId)) {
+                // Another node took the stream over (e.g. after a long pause here); hand it back
+                log.warn("Lost lease for stream {}, releasing local ingest", streamId);
+                streamService.releaseStream(streamId);
+                continue;
+            }
+            sequences.put(streamId, String.valueOf(entry.getValue().getSequenceNumber().get()));
+        }
+        if (!sequences.isEmpty()) {
+            redisTemplate.opsForHash().putAll(SEQUENCES_KEY, sequences);
+        }
+
+        try {
+            NodeLoad load = localLoad();
+            redisTemplate.opsForHash().put(NODES_KEY, load.getNodeId(), objectMapper.writeValueAsString(load));
+        } catch (Exception e) {
+            log.warn("Failed to publish load report: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cluster.failover-scan-interval-ms:1000}")
+    public void takeOverExpiredStreams() {
+        if (!clusterConfig.isEnabled()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Set<String> expired = redisTemplate.opsForZSet()
+                .rangeByScore(LEASES_KEY, Double.NEGATIVE_INFINITY, now);
+        if (expired == null) {
+            return;
+        }
+
+        for (String streamId : expired) {
+            if (streamService.activeStreams.size() >= clusterConfig.getMaxStreamsPerNode()) {
+                return;
+            }
+            if (streamService.activeStreams.containsKey(streamId) || !acquire(streamId)) {
+                continue;
+            }
+            Optional<StreamSpec> spec = readSpec(streamId);
+            if (spec.isEmpty()) {
+                // Stopped while the lease was pending
+                redisTemplate.opsForZSet().remove(LEASES_KEY, streamId);
+                redisTemplate.delete(LEASE_KEY_PREFIX + streamId);
+                continue;
+            }
+            int nextSequence = readNextSequence(streamId);
+            if (nextSequence > 0) {
+                // The new encoder restarts timestamps, same as a journal restore
+                m3u8Service.markResumePoint(streamId, nextSequence);
+            }
+            startLocally(spec.get(), nextSequence);
+            log.info("Took over stream {} after its owner lease expired", streamId);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            ClusterCommand command = objectMapper.readValue(
+                    new String(message.getBody(), StandardCharsets.UTF_8), ClusterCommand.class);
+            if (ClusterCommand.START.equals(command.type()) && getNodeId().equals(command.targetNode())) {
+                startLocally(command.spec(), 0);
+            } else if (ClusterCommand.STOP.equals(command.type())
+                    && streamService.activeStreams.containsKey(command.streamId())) {
+                streamService.stopStream(command.streamId());
+            }
+        } catch (Exception e) {
+            log.error("Failed to handle cluster command: {}", e.getMessage());
+        }
+    }
+
+    private void startLocally(StreamSpec spec, int startSequence) {
+        streamService.startStream(spec.getStreamUrl(), spec.getStorageTypes(), spec.getVideoQuality(),
+                        null, spec.getWatermark(), spec.getStreamId(), startSequence)
+                .exceptionally(e -> {
+                    log.error("Failed to start stream {} on this node: {}", spec.getStreamId(), e.getMessage());
+                    return null;
+                });
+    }
+
+    private boolean acquire(String streamId) {
+        return runLeaseScript(ACQUIRE_SCRIPT, streamId);
+    }
+
+    private boolean renew(String streamId) {
+        return runLeaseScript(RENEW_SCRIPT, streamId);
+    }
+
+    private boolean runLeaseScript(RedisScript<Long> script, String streamId) {
+        long ttl = clusterConfig.getLeaseTtlMs();
+        Long result = redisTemplate.execute(script, List.of(LEASE_KEY_PREFIX + streamId, LEASES_KEY),
+                streamId, getNodeId(), String.valueOf(ttl), String.valueOf(System.currentTimeMillis() + ttl));
+        return result != null && result == 1;
+    }
+
+    private Optional<StreamSpec> readSpec(String streamId) {
+        Object json = redisTemplate.opsForHash().get(STREAMS_KEY, streamId);
+        if (json == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue((String) json, StreamSpec.class));
+        } catch (Exception e) {
+            log.error("Unreadable stream spec for {}: {}", streamId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private int readNextSequence(String streamId) {
+        Object value = redisTemplate.opsForHash().get(SEQUENCES_KEY, streamId);
+        // The sequence is recorded once per heartbeat, so skip one segment to avoid reusing a published number
+        return value == null ? 0 : Integer.parseInt((String) value) + 1;
+    }
+
+    private Optional<NodeLoad> readLoadReport(String nodeId) {
+        Object json = redisTemplate.opsForHash().get(NODES_KEY, nodeId);
+        if (json == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue((String) json, NodeLoad.class));
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    private List<NodeLoad> readLoadReports() {
+        return redisTemplate.opsForHash().values(NODES_KEY).stream()
+                .map(json -> {
+                    try {
+                        return objectMapper.readValue((String) json, NodeLoad.class);
+                    } catch (Exception e) {
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    private NodeLoad localLoad() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+
+        NodeLoad load = new NodeLoad();
+        load.setNodeId(getNodeId());
+        load.setActiveStreams(streamService.activeStreams.size());
+        load.setMaxStreams(clusterConfig.getMaxStreamsPerNode());
+        load.setCpuLoad(loadAverage < 0 ? 0.0 : loadAverage / processors);
+        load.setReportedAt(System.currentTimeMillis());
+        load.setBaseUrl(clusterConfig.getAdvertisedUrl());
+        return load;
+    }
+
+    private void publish(ClusterCommand command) {
+        try {
+            redisTemplate.convertAndSend(clusterConfig.getCommandChannel(), objectMapper.writeValueAsString(command));
+        } catch (Exception e) {
+            log.error("Failed to publish cluster command {}: {}", command.type(), e.getMessage());
+        }
+    }
+
+    record ClusterCommand(String type, String targetNode, String streamId, StreamSpec spec) {
+        static final String START = "START";
+        static final String STOP = "STOP";
+    }
+}
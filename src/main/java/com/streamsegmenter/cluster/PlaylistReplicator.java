@@ -0,0 +1,166 @@
+package com.streamsegmenter.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.streamsegmenter.config.ClusterConfig;
+import com.streamsegmenter.config.InstanceIdentity;
+import com.streamsegmenter.model.PlaylistChange;
+import com.streamsegmenter.service.PlaylistPushService;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PlaylistReplicator implements MessageListener {
+    private static final String UPDATES_CHANNEL = "playlist:updates";
+    // Latest playlists per stream, read by nodes that join (or miss) after a version was broadcast
+    private static final String SNAPSHOT_KEY_PREFIX = "playlist:";
+    private static final String VERSION_FIELD = "_version";
+    // Per-stream counter shared by every node, so a takeover continues the sequence whatever the clocks say
+    private static final String VERSION_KEY_PREFIX = "playlist:version:";
+    private static final Duration SNAPSHOT_TTL = Duration.ofMinutes(10);
+
+    private final ClusterConfig clusterConfig;
+    private final InstanceIdentity instanceIdentity;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final PlaylistPushService playlistPushService;
+    private final Map<String, ReplicatedPlaylists> replicas = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void subscribe() {
+        if (clusterConfig.isEnabled()) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(UPDATES_CHANNEL));
+        }
+    }
+
+    public void publish(String streamId, Map<String, String> playlists, PlaylistChange change) {
+        if (!clusterConfig.isEnabled()) {
+            return;
+        }
+        try {
+            Long version = redisTemplate.opsForValue().increment(VERSION_KEY_PREFIX + streamId);
+            if (version == null) {
+                return;
+            }
+            redisTemplate.expire(VERSION_KEY_PREFIX + streamId, SNAPSHOT_TTL);
+            String payload = objectMapper.writeValueAsString(
+                    new PlaylistUpdate(instanceIdentity.getInstanceId(), streamId, version, playlists, change));
+            redisTemplate.convertAndSend(UPDATES_CHANNEL, payload);
+
+            Map<String, String> snapshot = new HashMap<>(playlists);
+            snapshot.put(VERSION_FIELD, String.valueOf(version));
+            redisTemplate.opsForHash().putAll(SNAPSHOT_KEY_PREFIX + streamId, snapshot);
+            redisTemplate.expire(SNAPSHOT_KEY_PREFIX + streamId, SNAPSHOT_TTL);
+        } catch (Exception e) {
+            log.warn("Failed to replicate playlists for stream {}: {}", streamId, e.getMessage());
+        }
+    }
+
+    public void remove(String streamId) {
+        replicas.remove(streamId);
+        if (!clusterConfig.isEnabled()) {
+            return;
+        }
+        try {
+            redisTemplate.delete(List.of(SNAPSHOT_KEY_PREFIX + streamId, VERSION_KEY_PREFIX + streamId));
+            redisTemplate.convertAndSend(UPDATES_CHANNEL, objectMapper.writeValueAsString(
+                    new PlaylistUpdate(instanceIdentity.getInstanceId(), streamId, Long.MAX_VALUE, null, null)));
+        } catch (Exception e) {
+            log.warn("Failed to broadcast playlist removal for stream {}: {}", streamId, e.getMessage());
+        }
+    }
+
+    // Memory read on the hot path; a single HGETALL only the first time a node sees a stream
+    public String getPlaylist(String streamId, String storageType) {
+        if (!clusterConfig.isEnabled()) {
+            return null;
+        }
+        ReplicatedPlaylists replica = replicas.get(streamId);
+        if (replica == null || isStale(replica)) {
+            replica = loadSnapshot(streamId);
+            if (replica == null) {
+                return null;
+            }
+        }
+        return replica.playlists().get(storageType);
+    }
+
+    // A replica no update has reached for a whole lease belongs to a stream that stopped or moved
+    @Scheduled(fixedDelayString = "${cluster.lease-ttl-ms:9000}")
+    public void evictStaleReplicas() {
+        replicas.values().removeIf(this::isStale);
+    }
+
+    private boolean isStale(ReplicatedPlaylists replica) {
+        return System.currentTimeMillis() - replica.receivedAt() > clusterConfig.getLeaseTtlMs();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            PlaylistUpdate update = objectMapper.readValue(
+                    new String(message.getBody(), StandardCharsets.UTF_8), PlaylistUpdate.class);
+            if (instanceIdentity.getInstanceId().equals(update.origin())) {
+                return;
+            }
+            if (update.playlists() == null) {
+                replicas.remove(update.streamId());
+                playlistPushService.close(update.streamId());
+                return;
+            }
+            ReplicatedPlaylists current = apply(update.streamId(), update.version(), update.playlists());
+            // Players attached to this node hear about the change too; edge purges stay with the origin node
+            if (update.change() != null && current.version() == update.version()) {
+                playlistPushService.notifySubscribers(update.change());
+            }
+        } catch (Exception e) {
+            log.warn("Ignoring malformed playlist update: {}", e.getMessage());
+        }
+    }
+
+    private ReplicatedPlaylists apply(String streamId, long version, Map<String, String> playlists) {
+        // Out-of-order deliveries never replace a newer version
+        return replicas.merge(streamId,
+                new ReplicatedPlaylists(version, Map.copyOf(playlists), System.currentTimeMillis()),
+                (current, incoming) -> incoming.version() > current.version() || isStale(current) ? incoming : current);
+    }
+
+    private ReplicatedPlaylists loadSnapshot(String streamId) {
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(SNAPSHOT_KEY_PREFIX + streamId);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Map<String, String> playlists = new HashMap<>();
+        long version = 0;
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            if (VERSION_FIELD.equals(entry.getKey())) {
+                version = Long.parseLong((String) entry.getValue());
+            } else {
+                playlists.put((String) entry.getKey(), (String) entry.getValue());
+            }
+        }
+        return apply(streamId, version, playlists);
+    }
+
+    record PlaylistUpdate(String origin, String streamId, long version, Map<String, String> playlists,
+                          PlaylistChange change) {}
+
+    record ReplicatedPlaylists(long version, Map<String, String> playlists, long receivedAt) {}
+}
@@ -0,0 +1,13 @@
+package com.streamsegmenter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "advertisement.cache")
+public class AdCacheConfig {
+    private boolean enabled = true;
+    private long maxBytes = 2L * 1024 * 1024 * 1024;
+}
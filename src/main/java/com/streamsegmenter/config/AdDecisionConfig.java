@@ -0,0 +1,13 @@
+package com.streamsegmenter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "advertisement.decisions")
+public class AdDecisionConfig {
+    private long maximumSessions = 200000;
+    private long ttlMinutes = 30;
+}
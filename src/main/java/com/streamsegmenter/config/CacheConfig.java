@@ -1,5 +1,8 @@
 package com.streamsegmenter.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.streamsegmenter.cache.CacheInvalidationBroadcaster;
+import com.streamsegmenter.cache.TwoLevelCacheManager;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
@@ -7,6 +10,9 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
@@ -16,9 +22,30 @@ import java.time.Duration;
 @Configuration
 @EnableCaching
 public class CacheConfig {
-    
+
     @Bean
-    public CacheManager cacheManager(RedisConnectionFactory connectionFactory) {
+    public CacheInvalidationBroadcaster cacheInvalidationBroadcaster(StringRedisTemplate stringRedisTemplate,
+                                                                     ObjectMapper objectMapper,
+                                                                     NearCacheConfig nearCacheConfig,
+                                                                     InstanceIdentity instanceIdentity) {
+        return new CacheInvalidationBroadcaster(stringRedisTemplate, objectMapper,
+                nearCacheConfig.getInvalidationChannel(), instanceIdentity.getInstanceId());
+    }
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       CacheInvalidationBroadcaster broadcaster,
+                                                                       NearCacheConfig nearCacheConfig) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(broadcaster, new ChannelTopic(nearCacheConfig.getInvalidationChannel()));
+        return container;
+    }
+
+    @Bean
+    public CacheManager cacheManager(RedisConnectionFactory connectionFactory,
+                                     CacheInvalidationBroadcaster broadcaster,
+                                     NearCacheConfig nearCacheConfig) {
         RedisCacheConfiguration config = RedisCacheConfiguration.defaultCacheConfig()
             .entryTtl(Duration.ofHours(1))
             .serializeKeysWith(
@@ -27,14 +54,19 @@ public class CacheConfig {
                 RedisSerializationContext.SerializationPair.fromSerializer(new GenericJackson2JsonRedisSerializer()))
             .disableCachingNullValues();
 
-        return RedisCacheManager.builder(connectionFactory)
+        RedisCacheManager redisCacheManager = RedisCacheManager.builder(connectionFactory)
             .cacheDefaults(config)
-            .withCacheConfiguration("m3u8Urls", 
-                RedisCacheConfiguration.defaultCacheConfig()
-                    .entryTtl(Duration.ofMinutes(30)))
-            .withCacheConfiguration("segments", 
-                RedisCacheConfiguration.defaultCacheConfig()
-                    .entryTtl(Duration.ofMinutes(10)))
+            .withCacheConfiguration("m3u8Urls", config.entryTtl(Duration.ofMinutes(30)))
+            .withCacheConfiguration("segments", config.entryTtl(Duration.ofMinutes(10)))
             .build();
+        redisCacheManager.afterPropertiesSet();
+
+        if (!nearCacheConfig.isEnabled()) {
+            return redisCacheManager;
+        }
+
+        // Local Caffeine tier in front of Redis; peers drop their local copies via pub/sub
+        return new TwoLevelCacheManager(redisCacheManager, broadcaster,
+                nearCacheConfig.getMaximumSize(), Duration.ofSeconds(nearCacheConfig.getTtlSeconds()));
     }
-}
\ No newline at end of file
+}
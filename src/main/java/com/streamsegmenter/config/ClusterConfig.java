@@ -0,0 +1,20 @@
+package com.streamsegmenter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cluster")
+public class ClusterConfig {
+    private boolean enabled;
+    private long leaseTtlMs = 9000;
+    private long heartbeatIntervalMs = 3000;
+    private long failoverScanIntervalMs = 1000;
+    private long loadReportTtlMs = 10000;
+    private int maxStreamsPerNode = 50;
+    private String commandChannel = "cluster:commands";
+    // Base URL other nodes hand out for streams running here, e.g. in status and event links
+    private String advertisedUrl = "http://localhost:8080";
+}
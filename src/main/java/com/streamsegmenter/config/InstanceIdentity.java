@@ -0,0 +1,21 @@
+package com.streamsegmenter.config;
+
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+@Getter
+@Component
+public class InstanceIdentity {
+    private final String instanceId = generateInstanceId();
+
+    private static String generateInstanceId() {
+        try {
+            return InetAddress.getLocalHost().getHostName() + "-" + UUID.randomUUID().toString();
+        } catch (Exception e) {
+            return "instance-" + UUID.randomUUID().toString();
+        }
+    }
+}
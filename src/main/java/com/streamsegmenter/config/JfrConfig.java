@@ -0,0 +1,16 @@
+package com.streamsegmenter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "jfr")
+public class JfrConfig {
+    private boolean enabled = false; // Start a recording at boot instead of via -XX:StartFlightRecording
+    private String baseSettings = "default"; // JDK profile the segmenter events are layered on: default or profile
+    private int maxAgeMinutes = 60;
+    private long maxSizeBytes = 256L * 1024 * 1024;
+    private String directory = "jfr"; // Under the storage temp directory; the recording is dumped here on exit
+}
@@ -0,0 +1,15 @@
+package com.streamsegmenter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "journal")
+public class JournalConfig {
+    private boolean enabled = true;
+    private int sizeBytes = 64 * 1024 * 1024; // Per journal file; two files alternate on compaction
+    private double compactionThreshold = 0.5; // Fraction of the file in use that triggers compaction
+    private long compactionIntervalMs = 60000;
+}
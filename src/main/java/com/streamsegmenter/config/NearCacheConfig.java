@@ -0,0 +1,15 @@
+package com.streamsegmenter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cache.near")
+public class NearCacheConfig {
+    private boolean enabled = true;
+    private long maximumSize = 10000;
+    private long ttlSeconds = 60;
+    private String invalidationChannel = "cache:invalidation";
+}
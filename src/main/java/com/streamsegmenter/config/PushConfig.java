@@ -0,0 +1,28 @@
+package com.streamsegmenter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "push")
+public class PushConfig {
+    private long sseTimeoutMs = 1800000;
+    private int notifyThreads = 2;
+    private int notifyQueueCapacity = 1000;
+    private EdgePurge edgePurge = new EdgePurge();
+
+    @Data
+    public static class EdgePurge {
+        private boolean enabled;
+        private List<String> webhookUrls = new ArrayList<>();
+        private int batchSize = 100;
+        private long flushIntervalMs = 500;
+        private int maxPending = 10000;
+        private int connectTimeoutMs = 2000;
+        private int readTimeoutMs = 5000;
+    }
+}
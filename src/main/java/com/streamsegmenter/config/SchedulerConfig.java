@@ -0,0 +1,16 @@
+package com.streamsegmenter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "scheduler")
+public class SchedulerConfig {
+    private long pollIntervalMs = 250;
+    private long leaseTtlMs = 15000;
+    private long heartbeatIntervalMs = 5000;
+    private long retryDelayMs = 60000;
+    private int batchSize = 100;
+}
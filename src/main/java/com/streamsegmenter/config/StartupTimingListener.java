@@ -0,0 +1,23 @@
+package com.streamsegmenter.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+
+// Records how long boot took so regressions show up in the performance log
+@Component
+public class StartupTimingListener implements ApplicationListener<ApplicationReadyEvent> {
+    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streamsegmenter.performance");
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        long jvmUptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        long applicationTime = event.getTimeTaken() != null ? event.getTimeTaken().toMillis() : -1;
+        performanceLogger.info("Application ready {} ms after JVM start ({} ms in SpringApplication.run)",
+                jvmUptime, applicationTime);
+    }
+}
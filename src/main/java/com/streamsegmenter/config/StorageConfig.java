@@ -20,6 +20,7 @@ public class StorageConfig {
     private String gcpBucket;
     private String localTempPath;
     private String serverUrl = "http://localhost:8080"; // Default server URL
+    private int uploadConcurrency = 16; // Segment uploads in flight across all backends
 
     public String getEffectiveTempPath() {
         if (System.getProperty("os.name").toLowerCase().contains("win")) {
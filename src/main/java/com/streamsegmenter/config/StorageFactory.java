@@ -3,54 +3,80 @@ package com.streamsegmenter.config;
 import com.streamsegmenter.service.StorageService;
 import com.streamsegmenter.service.impl.*;
 import org.springframework.stereotype.Component;
-import lombok.RequiredArgsConstructor;
 import org.springframework.util.StringUtils;
+import jakarta.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Component
-@RequiredArgsConstructor
 public class StorageFactory {
     private final StorageConfig config;
+    // One bounded pool for every backend, so live and ad uploads together cap outbound concurrency
+    private final ExecutorService uploadExecutor;
+    // Cloud clients are built here side by side, so a slow provider neither serializes nor blocks boot
+    private final ExecutorService initExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "storage-init");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StorageFactory(StorageConfig config) {
+        this.config = config;
+        this.uploadExecutor = Executors.newFixedThreadPool(config.getUploadConcurrency(), r -> {
+            Thread thread = new Thread(r, "segment-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        uploadExecutor.shutdown();
+        initExecutor.shutdown();
+    }
     
     public List<StorageService> getStorageServices(List<String> requestedTypes) {
         List<StorageService> services = new ArrayList<>();
         Set<String> supportedTypes = new HashSet<>();
         
         // Always add LOCAL as base storage
-        services.add(new LocalStorageService(config));
+        services.add(new LocalStorageService(config, uploadExecutor));
         supportedTypes.add("LOCAL");
         
         // Check AWS configuration
         if (StringUtils.hasText(config.getAwsAccessKey()) && 
             StringUtils.hasText(config.getAwsSecretKey()) && 
             StringUtils.hasText(config.getAwsBucket())) {
-            services.add(new AwsStorageService(config));
+            services.add(new LazyStorageService("AWS",
+                    () -> new AwsStorageService(config, uploadExecutor), initExecutor));
             supportedTypes.add("AWS");
         }
         
         // Check Azure configuration
         if (StringUtils.hasText(config.getAzureConnectionString()) && 
             StringUtils.hasText(config.getAzureContainer())) {
-            services.add(new AzureStorageService(config));
+            services.add(new LazyStorageService("AZURE",
+                    () -> new AzureStorageService(config, uploadExecutor), initExecutor));
             supportedTypes.add("AZURE");
         }
         
         // Check GCP configuration
         if (StringUtils.hasText(config.getGcpProjectId()) && 
             StringUtils.hasText(config.getGcpBucket())) {
-            services.add(new GcpStorageService(config));
+            services.add(new LazyStorageService("GCP", () -> {
+                GcpStorageService gcp = new GcpStorageService(config, uploadExecutor);
+                CompletableFuture.runAsync(gcp::configureBucket, initExecutor);
+                return gcp;
+            }, initExecutor));
             supportedTypes.add("GCP");
         }
         
         // Filter services based on requested types if provided
         if (requestedTypes != null && !requestedTypes.isEmpty()) {
             return services.stream()
-                .filter(service -> {
-                    String serviceType = service.getClass().getSimpleName()
-                        .replace("StorageService", "")
-                        .toUpperCase();
-                    return requestedTypes.contains(serviceType);
-                })
+                .filter(service -> requestedTypes.contains(service.getStorageType()))
                 .toList();
         }
         
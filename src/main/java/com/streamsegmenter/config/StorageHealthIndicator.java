@@ -0,0 +1,49 @@
+package com.streamsegmenter.config;
+
+import com.streamsegmenter.service.StorageService;
+import com.streamsegmenter.service.impl.LazyStorageService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+// Exposed as the "storage" health contributor and part of the readiness group: the node is ready
+// once every configured backend has a client, and reports which ones are still coming up
+@Component("storage")
+@RequiredArgsConstructor
+public class StorageHealthIndicator implements HealthIndicator {
+    private final List<StorageService> storageServices;
+
+    @Override
+    public Health health() {
+        Health.Builder builder = Health.up();
+        boolean initializing = false;
+        boolean failed = false;
+        for (StorageService service : storageServices) {
+            if (!(service instanceof LazyStorageService lazy)) {
+                builder.withDetail(service.getStorageType(), "READY");
+                continue;
+            }
+            switch (lazy.getState()) {
+                case READY -> builder.withDetail(lazy.getStorageType(),
+                        "READY since " + Instant.ofEpochMilli(lazy.getReadyAt()));
+                case INITIALIZING -> {
+                    initializing = true;
+                    builder.withDetail(lazy.getStorageType(), "INITIALIZING");
+                }
+                case FAILED -> {
+                    failed = true;
+                    builder.withDetail(lazy.getStorageType(), "FAILED: " + lazy.getFailure().getMessage());
+                }
+            }
+        }
+        if (failed) {
+            return builder.status(Status.DOWN).build();
+        }
+        return initializing ? builder.status(Status.OUT_OF_SERVICE).build() : builder.build();
+    }
+}
@@ -0,0 +1,28 @@
+package com.streamsegmenter.config;
+
+import com.streamsegmenter.model.VideoQuality;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "thumbnails")
+public class ThumbnailConfig {
+    private boolean enabled = true;
+    private int intervalSeconds = 2;
+    private int width = 160;
+    private int columns = 4;
+    private int rows = 4;
+    // Sprites kept in the WebVTT track per stream
+    private int maxSprites = 30;
+
+    // Thumbnails keep the live rendition's aspect ratio; even so the scaler never rounds
+    public int heightFor(VideoQuality quality) {
+        return Math.max(2, (width * quality.getHeight() / quality.getWidth()) & ~1);
+    }
+
+    public int getFramesPerSprite() {
+        return columns * rows;
+    }
+}
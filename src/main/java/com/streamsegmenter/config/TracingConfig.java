@@ -0,0 +1,16 @@
+package com.streamsegmenter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import lombok.Data;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "tracing")
+public class TracingConfig {
+    private boolean enabled = false;
+    private String serviceName = "stream-segmenter";
+    private String endpoint = "http://localhost:4317"; // OTLP/gRPC collector
+    private double samplingRatio = 0.1; // Share of segment traces kept; stream spans are always kept
+    private long exportTimeoutMs = 10000;
+}
@@ -0,0 +1,67 @@
+package com.streamsegmenter.config;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+@Configuration
+@RequiredArgsConstructor
+public class TracingConfiguration {
+    // Start span of each stream's trace, which every segment trace links back to
+    public static final String STREAM_SPAN = "stream";
+
+    private final TracingConfig tracingConfig;
+
+    // Spring closes the SDK on shutdown, which flushes spans still queued in the batch processor
+    @Bean
+    public OpenTelemetry openTelemetry() {
+        if (!tracingConfig.isEnabled()) {
+            return OpenTelemetry.noop();
+        }
+        OtlpGrpcSpanExporter exporter = OtlpGrpcSpanExporter.builder()
+                .setEndpoint(tracingConfig.getEndpoint())
+                .setTimeout(Duration.ofMillis(tracingConfig.getExportTimeoutMs()))
+                .build();
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+                .setResource(Resource.getDefault().merge(Resource.create(
+                        Attributes.of(AttributeKey.stringKey("service.name"), tracingConfig.getServiceName()))))
+                .setSampler(Sampler.parentBased(new StreamAwareSampler(
+                        Sampler.traceIdRatioBased(tracingConfig.getSamplingRatio()))))
+                .addSpanProcessor(BatchSpanProcessor.builder(exporter).build())
+                .build();
+        return OpenTelemetrySdk.builder().setTracerProvider(tracerProvider).build();
+    }
+
+    // Segment traces are sampled by ratio; the one span per stream they link to is always recorded
+    private record StreamAwareSampler(Sampler segmentSampler) implements Sampler {
+        @Override
+        public SamplingResult shouldSample(Context parentContext, String traceId, String name, SpanKind spanKind,
+                                           Attributes attributes, List<LinkData> parentLinks) {
+            if (STREAM_SPAN.equals(name)) {
+                return SamplingResult.recordAndSample();
+            }
+            return segmentSampler.shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
+        }
+
+        @Override
+        public String getDescription() {
+            return "StreamAwareSampler{" + segmentSampler.getDescription() + "}";
+        }
+    }
+}
@@ -24,7 +24,8 @@ public class WebConfig implements WebMvcConfigurer {
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         // Stream segments için mapping
         registry.addResourceHandler("/streams/**")
-                .addResourceLocations("file:" + storageConfig.getEffectiveTempPath() + "/streams/");
+                .addResourceLocations("file:" + storageConfig.getEffectiveTempPath() + "/streams/",
+                        "file:" + storageConfig.getEffectiveTempPath() + "/thumbnails/");
 
         // Advertisement segments için ayrı mapping
         registry.addResourceHandler("/advertisements/**")
@@ -1,13 +1,18 @@
 package com.streamsegmenter.controller;
 
+import com.streamsegmenter.model.AdBroadcastResult;
+import com.streamsegmenter.model.AdBroadcastTarget;
 import com.streamsegmenter.model.AdvertisementRequest;
 import com.streamsegmenter.service.AdvertisementService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.List;
+
 @Slf4j
 @RestController
 @RequestMapping("/api/advertisement")
@@ -41,6 +46,54 @@ public class AdvertisementController {
         }
     }
 
+    // Targets go in a JSON part, e.g. -F 'targets=[{"streamId":"...","startSegment":12}];type=application/json'
+    @PostMapping("/broadcast")
+    public ResponseEntity<?> broadcastAdvertisement(
+            @RequestParam("file") MultipartFile file,
+            @RequestPart("targets") List<AdBroadcastTarget> targets,
+            @RequestParam("duration") Integer duration,
+            @RequestParam(value = "type", defaultValue = "VIDEO") String type) {
+
+        try {
+            List<AdBroadcastResult> results = advertisementService.broadcastAdvertisement(file,
+                    AdvertisementRequest.Type.valueOf(type.toUpperCase()), duration, targets);
+            return ResponseEntity.ok(results);
+        } catch (Exception e) {
+            log.error("Failed to broadcast advertisement", e);
+            return ResponseEntity.internalServerError()
+                    .body("Failed to broadcast advertisement: " + e.getMessage());
+        }
+    }
+
+    // Raw body upload: the creative is encoded while it is still arriving. With the rendition cache
+    // enabled X-Content-SHA256 is required, so a creative that is already cached is not transcoded again
+    @PostMapping("/stream")
+    public ResponseEntity<String> streamAdvertisement(
+            @RequestParam("streamId") String streamId,
+            @RequestParam("startSegment") Integer startSegment,
+            @RequestParam("duration") Integer duration,
+            @RequestParam(value = "type", defaultValue = "VIDEO") String type,
+            @RequestHeader(value = "X-Content-SHA256", required = false) String contentSha256,
+            HttpServletRequest servletRequest) {
+
+        try {
+            AdvertisementRequest request = AdvertisementRequest.builder()
+                    .streamId(streamId)
+                    .startSegment(startSegment)
+                    .duration(duration)
+                    .type(AdvertisementRequest.Type.valueOf(type.toUpperCase()))
+                    .build();
+
+            String result = advertisementService.insertAdvertisementStream(request, contentSha256,
+                    servletRequest.getInputStream());
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            log.error("Failed to insert advertisement", e);
+            return ResponseEntity.internalServerError()
+                    .body("Failed to insert advertisement: " + e.getMessage());
+        }
+    }
+
     @DeleteMapping("/{streamId}/{segmentRange}")
     public ResponseEntity<String> removeAdvertisement(
             @PathVariable String streamId,
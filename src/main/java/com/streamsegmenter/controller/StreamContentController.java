@@ -1,8 +1,13 @@
 package com.streamsegmenter.controller;
 
 import com.streamsegmenter.service.M3u8Service;
+import com.streamsegmenter.service.PlaylistPushService;
+import com.streamsegmenter.service.SegmentTracer;
+import com.streamsegmenter.service.ThumbnailService;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import lombok.RequiredArgsConstructor;
 
 @RestController
@@ -10,13 +15,63 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class StreamContentController {
     private final M3u8Service m3u8Service;
+    private final PlaylistPushService playlistPushService;
+    private final ThumbnailService thumbnailService;
+    private final SegmentTracer segmentTracer;
 
     @GetMapping("/{streamId}/{storageType}/playlist.m3u8")
-    public ResponseEntity<String> getPlaylist(
+    public ResponseEntity<?> getPlaylist(
             @PathVariable String streamId,
-            @PathVariable String storageType) {
+            @PathVariable String storageType,
+            @RequestParam(value = "session", required = false) String session) {
+        segmentTracer.playlistServed(streamId);
+        if (session != null) {
+            // Session playlists carry that viewer's ads and must not be shared by caches
+            byte[] personalized = m3u8Service.renderSessionPlaylist(streamId, storageType, session);
+            if (personalized != null) {
+                return ResponseEntity.ok()
+                        .header("Content-Type", "application/vnd.apple.mpegurl")
+                        .header("Cache-Control", "private, no-store")
+                        .body(personalized);
+            }
+        }
         return ResponseEntity.ok()
                 .header("Content-Type", "application/vnd.apple.mpegurl")
                 .body(m3u8Service.getPlaylistContent(streamId, storageType));
     }
+
+    @GetMapping("/{streamId}/{storageType}/iframes.m3u8")
+    public ResponseEntity<String> getIFramePlaylist(@PathVariable String streamId, @PathVariable String storageType) {
+        return ResponseEntity.ok()
+                .header("Content-Type", "application/vnd.apple.mpegurl")
+                .body(m3u8Service.getIFramePlaylistContent(streamId, storageType));
+    }
+
+    @GetMapping("/{streamId}/{storageType}/master.m3u8")
+    public ResponseEntity<String> getMasterPlaylist(@PathVariable String streamId, @PathVariable String storageType) {
+        String content = m3u8Service.getMasterPlaylistContent(streamId, storageType);
+        if (content == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .header("Content-Type", "application/vnd.apple.mpegurl")
+                .body(content);
+    }
+
+    @GetMapping("/{streamId}/{storageType}/thumbnails.vtt")
+    public ResponseEntity<String> getThumbnails(@PathVariable String streamId, @PathVariable String storageType) {
+        String track = thumbnailService.getThumbnailTrack(streamId, storageType);
+        if (track == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .header("Content-Type", "text/vtt")
+                .body(track);
+    }
+
+    // Pushes the new media sequence and segment URLs so players only refetch the playlist when it changed
+    @GetMapping(value = "/{streamId}/playlist/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter playlistEvents(@PathVariable String streamId) {
+        return playlistPushService.subscribe(streamId);
+    }
 }
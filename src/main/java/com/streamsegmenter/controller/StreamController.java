@@ -1,19 +1,30 @@
 package com.streamsegmenter.controller;
 
+import com.streamsegmenter.cluster.ClusterCoordinator;
 import com.streamsegmenter.model.ScheduledStream;
+import com.streamsegmenter.model.ScheduledStreamStatus;
+import com.streamsegmenter.model.StreamHandle;
+import com.streamsegmenter.model.StreamLifecycleEvent;
 import com.streamsegmenter.model.StreamRequest;
+import com.streamsegmenter.model.StreamSpec;
+import com.streamsegmenter.model.StreamStatus;
 import com.streamsegmenter.model.StreamUpdateRequest;
+import com.streamsegmenter.service.M3u8Service;
+import com.streamsegmenter.service.StreamLifecycleService;
 import com.streamsegmenter.service.StreamSchedulerService;
 import com.streamsegmenter.service.StreamService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import java.net.URI;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.UUID;
 
 @Slf4j
 @RestController
@@ -22,6 +33,10 @@ import java.util.concurrent.TimeUnit;
 public class StreamController {
     private final StreamService streamService;
     private final StreamSchedulerService schedulerService;
+    private final ClusterCoordinator clusterCoordinator;
+    private final StreamLifecycleService lifecycleService;
+    private final M3u8Service m3u8Service;
+    private static final int MAX_PAGE_SIZE = 500;
 
     @PostMapping("/start")
     public ResponseEntity<?> startStream(@RequestBody StreamRequest request) {
@@ -37,17 +52,41 @@ public class StreamController {
             return ResponseEntity.accepted().body("Stream scheduled for " + request.getStartTime());
         }
 
+        String streamId = UUID.randomUUID().toString();
+        if (clusterCoordinator.isEnabled()) {
+            String nodeId = clusterCoordinator.selectNode();
+            if (!nodeId.equals(clusterCoordinator.getNodeId())) {
+                StreamSpec spec = new StreamSpec();
+                spec.setStreamId(streamId);
+                spec.setStreamUrl(request.getStreamUrl());
+                spec.setStorageTypes(request.getStorageTypes());
+                spec.setVideoQuality(request.getVideoQuality());
+                spec.setWatermark(request.getWatermark());
+
+                clusterCoordinator.assign(nodeId, spec);
+                // Lifecycle state lives on the node running the stream; playlists are replicated to every node
+                return ResponseEntity.accepted().body(buildHandle(streamId, clusterCoordinator.nodeUrl(nodeId).orElse(""),
+                        request.getStorageTypes().stream()
+                                .map(type -> String.format("/api/stream/%s/%s/playlist.m3u8", streamId, type.toLowerCase()))
+                                .toList()));
+            }
+        }
+
         try {
-            List<String> urls = streamService.startStream(
+            // Ingest spins up in the background; progress is reported through the status and events endpoints
+            streamService.startStream(
                     request.getStreamUrl(),
                     request.getStorageTypes(),
                     request.getVideoQuality(),
                     null,
                     request.getWatermark(),
-                    null
-            ).get(30, TimeUnit.SECONDS);
+                    streamId
+            ).exceptionally(e -> {
+                log.error("Stream {} failed to start: {}", streamId, e.getMessage());
+                return null;
+            });
 
-            return ResponseEntity.ok().body(urls);
+            return ResponseEntity.accepted().body(buildHandle(streamId, "", m3u8Service.getM3u8Urls(streamId)));
         } catch (Exception e) {
             log.error("Failed to start stream", e);
             return ResponseEntity.internalServerError()
@@ -55,10 +94,58 @@ public class StreamController {
         }
     }
 
+    @GetMapping("/{streamId}/status")
+    public ResponseEntity<Map<String, Object>> getStreamStatus(@PathVariable String streamId) {
+        StreamLifecycleEvent current = lifecycleService.getStatus(streamId);
+        if (current == null) {
+            // After a failover the handle may point at the previous owner
+            return redirectToOwner(streamId, String.format("/api/stream/%s/status", streamId));
+        }
+        return ResponseEntity.ok(Map.of(
+                "current", current,
+                "history", lifecycleService.getHistory(streamId)));
+    }
+
+    @GetMapping(value = "/{streamId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamEvents(@PathVariable String streamId) {
+        if (lifecycleService.getStatus(streamId) == null) {
+            ResponseEntity<SseEmitter> redirect =
+                    redirectToOwner(streamId, String.format("/api/stream/%s/events", streamId));
+            if (redirect.getStatusCode().is3xxRedirection()) {
+                return redirect;
+            }
+        }
+        return ResponseEntity.ok(lifecycleService.subscribe(streamId));
+    }
+
+    private <T> ResponseEntity<T> redirectToOwner(String streamId, String path) {
+        return clusterCoordinator.ownerUrl(streamId)
+                .<ResponseEntity<T>>map(baseUrl -> ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
+                        .location(URI.create(baseUrl + path))
+                        .build())
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    private StreamHandle buildHandle(String streamId, String baseUrl, List<String> playlistUrls) {
+        StreamLifecycleEvent current = lifecycleService.getStatus(streamId);
+        return StreamHandle.builder()
+                .streamId(streamId)
+                .status(current != null ? current.getStatus() : StreamStatus.PROBING)
+                .statusUrl(String.format("%s/api/stream/%s/status", baseUrl, streamId))
+                .eventsUrl(String.format("%s/api/stream/%s/events", baseUrl, streamId))
+                .playlistUrls(playlistUrls)
+                .build();
+    }
+
     @GetMapping("/active")
-    public ResponseEntity<Map<String, Object>> getActiveAndScheduledStreams() {
+    public ResponseEntity<Map<String, Object>> getActiveAndScheduledStreams(
+            @RequestParam(value = "activeCursor", required = false) String activeCursor,
+            @RequestParam(value = "scheduledCursor", required = false) String scheduledCursor,
+            @RequestParam(value = "status", required = false) ScheduledStreamStatus status,
+            @RequestParam(value = "size", defaultValue = "100") int size) {
         try {
-            Map<String, Object> streams = schedulerService.getActiveAndScheduledStreams();
+            Map<String, Object> streams = schedulerService.getActiveAndScheduledStreams(
+                    activeCursor, scheduledCursor, status, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
             return ResponseEntity.ok(streams);
         } catch (Exception e) {
             log.error("Failed to get active and scheduled streams", e);
@@ -101,7 +188,7 @@ public class StreamController {
     @PostMapping("/stop/{streamId}")
     public ResponseEntity<String> stopStream(@PathVariable String streamId) {
         try {
-            streamService.stopStream(streamId);
+            clusterCoordinator.stopStream(streamId);
             schedulerService.removeScheduledStream(streamId);
             return ResponseEntity.ok("Stream stopped successfully");
         } catch (Exception e) {
@@ -0,0 +1,3 @@
+package com.streamsegmenter.event;
+
+public record SegmentPublishedEvent(String streamId, String segmentName, int sequence) {}
@@ -0,0 +1,10 @@
+package com.streamsegmenter.event;
+
+import com.streamsegmenter.model.StreamRequest;
+import com.streamsegmenter.model.VideoQuality;
+
+import java.util.List;
+
+public record StreamStartedEvent(String streamId, String streamUrl, List<String> storageTypes,
+                                 VideoQuality quality, StreamRequest.Watermark watermark,
+                                 int startSequence) {}
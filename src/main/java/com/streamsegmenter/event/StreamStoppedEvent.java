@@ -0,0 +1,3 @@
+package com.streamsegmenter.event;
+
+public record StreamStoppedEvent(String streamId) {}
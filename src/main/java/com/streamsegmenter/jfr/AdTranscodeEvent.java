@@ -0,0 +1,30 @@
+package com.streamsegmenter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// streamId is the directory the ad is written to: the stream, or the rendition hash of a shared ad
+@Name("com.streamsegmenter.AdTranscode")
+@Label("Ad Transcode")
+@Description("An advertisement was converted to TS segments")
+@Category({"Stream Segmenter", "Advertisements"})
+@StackTrace(false)
+public class AdTranscodeEvent extends StreamEvent {
+    @Label("Source Type")
+    public String sourceType;
+
+    @Label("Start Segment")
+    public int startSegment;
+
+    @Label("Duration Seconds")
+    public int durationSeconds;
+
+    @Label("Quality")
+    public String quality;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,25 @@
+package com.streamsegmenter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Begins when the process is spawned, so the event duration is the process lifetime
+@Name("com.streamsegmenter.FFmpegExited")
+@Label("FFmpeg Exited")
+@Description("An FFmpeg process ended")
+@Category({"Stream Segmenter", "FFmpeg"})
+@StackTrace(false)
+public class FFmpegExitedEvent extends StreamEvent {
+    @Label("Purpose")
+    public String purpose;
+
+    @Label("Process Id")
+    public long pid;
+
+    @Label("Exit Code")
+    @Description("-1 when the process could not be waited for")
+    public int exitCode;
+}
@@ -0,0 +1,21 @@
+package com.streamsegmenter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.streamsegmenter.FFmpegSpawned")
+@Label("FFmpeg Spawned")
+@Description("An FFmpeg process was started")
+@Category({"Stream Segmenter", "FFmpeg"})
+@StackTrace(false)
+public class FFmpegSpawnedEvent extends StreamEvent {
+    @Label("Purpose")
+    @Description("live, ad-image, ad-video or ad-chunk")
+    public String purpose;
+
+    @Label("Process Id")
+    public long pid;
+}
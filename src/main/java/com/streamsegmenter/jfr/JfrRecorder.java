@@ -0,0 +1,95 @@
+package com.streamsegmenter.jfr;
+
+import com.streamsegmenter.config.JfrConfig;
+import com.streamsegmenter.config.StorageConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Registers the segmenter events and, when enabled, keeps a continuous recording with the shipped
+// settings layered over a JDK profile, so GC and lock events line up with segment events
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class JfrRecorder {
+    public static final String SETTINGS_RESOURCE = "/jfr/stream-segmenter.jfc";
+    private static final List<Class<? extends StreamEvent>> EVENTS = List.of(
+            SegmentDetectedEvent.class, SegmentUploadStartedEvent.class, SegmentUploadEvent.class,
+            PlaylistRenderedEvent.class, FFmpegSpawnedEvent.class, FFmpegExitedEvent.class,
+            AdTranscodeEvent.class);
+
+    private final JfrConfig jfrConfig;
+    private final StorageConfig storageConfig;
+    private Recording recording;
+
+    @PostConstruct
+    public void start() {
+        if (!FlightRecorder.isAvailable()) {
+            return;
+        }
+        // Registered up front so recordings started with jcmd list them before the first segment
+        EVENTS.forEach(FlightRecorder::register);
+        if (!jfrConfig.isEnabled()) {
+            return;
+        }
+        try {
+            Map<String, String> settings = new HashMap<>(
+                    Configuration.getConfiguration(jfrConfig.getBaseSettings()).getSettings());
+            settings.putAll(segmenterSettings().getSettings());
+
+            Path directory = storageConfig.resolvePath(jfrConfig.getDirectory());
+            Files.createDirectories(directory);
+            Path destination = directory.resolve("stream-segmenter-"
+                    + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".jfr");
+
+            recording = new Recording(settings);
+            recording.setName("stream-segmenter");
+            recording.setToDisk(true);
+            recording.setMaxAge(Duration.ofMinutes(jfrConfig.getMaxAgeMinutes()));
+            recording.setMaxSize(jfrConfig.getMaxSizeBytes());
+            recording.setDumpOnExit(true);
+            recording.setDestination(destination);
+            recording.start();
+            log.info("JFR recording started with {} settings, dumping to {}", jfrConfig.getBaseSettings(), destination);
+        } catch (Exception e) {
+            log.warn("Could not start JFR recording: {}", e.getMessage());
+            recording = null;
+        }
+    }
+
+    public static Configuration segmenterSettings() throws Exception {
+        try (InputStream in = JfrRecorder.class.getResourceAsStream(SETTINGS_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException(SETTINGS_RESOURCE + " is missing from the classpath");
+            }
+            return Configuration.create(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recording != null) {
+            // Stopping writes the recording to its destination
+            recording.stop();
+            recording.close();
+            recording = null;
+        }
+    }
+}
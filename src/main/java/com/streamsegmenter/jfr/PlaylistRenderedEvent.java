@@ -0,0 +1,28 @@
+package com.streamsegmenter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.streamsegmenter.PlaylistRendered")
+@Label("Playlist Rendered")
+@Description("A stream's media playlist was rebuilt for one storage backend")
+@Category({"Stream Segmenter", "Playlists"})
+@StackTrace(false)
+public class PlaylistRenderedEvent extends StreamEvent {
+    @Label("Storage Type")
+    public String storageType;
+
+    @Label("Media Sequence")
+    public int mediaSequence;
+
+    @Label("Latest Sequence")
+    public int latestSequence;
+
+    @Label("Size")
+    @DataAmount
+    public long sizeBytes;
+}
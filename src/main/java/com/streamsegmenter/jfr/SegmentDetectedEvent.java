@@ -0,0 +1,25 @@
+package com.streamsegmenter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.streamsegmenter.SegmentDetected")
+@Label("Segment Detected")
+@Description("FFmpeg finished a live segment and the segmenter picked it up")
+@Category({"Stream Segmenter", "Segments"})
+@StackTrace(false)
+public class SegmentDetectedEvent extends StreamEvent {
+    @Label("Segment")
+    public String segment;
+
+    @Label("Sequence")
+    public int sequence;
+
+    @Label("Size")
+    @DataAmount
+    public long sizeBytes;
+}
@@ -0,0 +1,29 @@
+package com.streamsegmenter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Spans from hand-off to completion; committed on whichever thread completed the upload
+@Name("com.streamsegmenter.SegmentUpload")
+@Label("Segment Upload")
+@Description("Upload of one file to one storage backend, from start to finish")
+@Category({"Stream Segmenter", "Storage"})
+@StackTrace(false)
+public class SegmentUploadEvent extends StreamEvent {
+    @Label("Segment")
+    public String segment;
+
+    @Label("Backend")
+    public String backend;
+
+    @Label("Size")
+    @DataAmount
+    public long sizeBytes;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,20 @@
+package com.streamsegmenter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.streamsegmenter.SegmentUploadStarted")
+@Label("Segment Upload Started")
+@Description("A file was handed to a storage backend")
+@Category({"Stream Segmenter", "Storage"})
+@StackTrace(false)
+public class SegmentUploadStartedEvent extends StreamEvent {
+    @Label("Segment")
+    public String segment;
+
+    @Label("Backend")
+    public String backend;
+}
@@ -0,0 +1,10 @@
+package com.streamsegmenter.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+// Every segmenter event carries the stream, so recordings can be filtered down to one stream
+public abstract class StreamEvent extends Event {
+    @Label("Stream Id")
+    public String streamId;
+}
@@ -0,0 +1,19 @@
+package com.streamsegmenter.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class AdBroadcastResult {
+    private String streamId;
+    private Integer startSegment;
+    private Status status;
+    private String message;
+
+    public enum Status {
+        INSERTED,
+        REJECTED,
+        FAILED
+    }
+}
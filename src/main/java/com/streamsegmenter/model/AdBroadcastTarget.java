@@ -0,0 +1,9 @@
+package com.streamsegmenter.model;
+
+import lombok.Data;
+
+@Data
+public class AdBroadcastTarget {
+    private String streamId;
+    private Integer startSegment;
+}
@@ -8,4 +8,8 @@ public class AdvertisementInfo {
     private final int duration;
     private final String segmentName;
     private final boolean processed;
+    // Storage prefix of a shared rendition; null when the segments live under the stream itself
+    private final String storagePrefix;
+    // First segment of the break this segment belongs to
+    private final int breakStart;
 }
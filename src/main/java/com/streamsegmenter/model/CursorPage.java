@@ -0,0 +1,11 @@
+package com.streamsegmenter.model;
+
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class CursorPage<T> {
+    private final List<T> items;
+    // null when there are no more pages
+    private final String nextCursor;
+}
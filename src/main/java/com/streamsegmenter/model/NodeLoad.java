@@ -0,0 +1,20 @@
+package com.streamsegmenter.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+@Data
+public class NodeLoad {
+    private String nodeId;
+    private int activeStreams;
+    private int maxStreams;
+    private double cpuLoad; // load average per core, 1.0 = saturated
+    private long reportedAt;
+    private String baseUrl;
+
+    @JsonIgnore
+    public double getHeadroom() {
+        double streamHeadroom = maxStreams > 0 ? 1.0 - (double) activeStreams / maxStreams : 0.0;
+        return Math.min(streamHeadroom, 1.0 - Math.min(cpuLoad, 1.0));
+    }
+}
@@ -0,0 +1,19 @@
+package com.streamsegmenter.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlaylistChange {
+    private String streamId;
+    private int mediaSequence;
+    private int latestSequence;
+    // Storage type -> URL of the segment that was just appended
+    private Map<String, String> segmentUrls;
+    private long timestamp;
+}
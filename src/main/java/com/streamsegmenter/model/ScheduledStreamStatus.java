@@ -0,0 +1,14 @@
+package com.streamsegmenter.model;
+
+public enum ScheduledStreamStatus {
+    PENDING,
+    CLAIMED,
+    PROCESSED;
+
+    public static ScheduledStreamStatus of(ScheduledStream stream) {
+        if (stream.isProcessed()) {
+            return PROCESSED;
+        }
+        return stream.getProcessingInstance() != null ? CLAIMED : PENDING;
+    }
+}
@@ -0,0 +1,23 @@
+package com.streamsegmenter.model;
+
+import lombok.Data;
+
+@Data
+public class SegmentInfo {
+    private boolean valid;
+    private long sizeBytes;
+    private int packetCount;
+    private long firstPts = -1; // 90 kHz ticks
+    private long lastPts = -1;
+    private double durationSeconds;
+    private long bitrate; // bits per second
+    private int continuityErrors;
+    private int pcrErrors;
+    // Bytes from the start of the file through the PMT, i.e. what a player needs before any keyframe
+    private int initSectionLength;
+    // Byte offsets of the TS packets that start a keyframe (random access point), the length up to the
+    // next video PES and the keyframe's time from the start of the segment
+    private long[] keyframeOffsets = new long[0];
+    private long[] keyframeLengths = new long[0];
+    private double[] keyframeTimes = new double[0];
+}
@@ -1,6 +1,7 @@
 package com.streamsegmenter.model;
 
 import lombok.Data;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -9,6 +10,9 @@ public class StreamContext {
     private final String streamUrl;
     private final AtomicBoolean active = new AtomicBoolean(true);
     private final AtomicInteger sequenceNumber = new AtomicInteger(0);
+    // Resolved once the first segment is published; listings read it instead of recomputing URLs
+    private volatile List<String> playlistUrls = List.of();
+    private volatile VideoQuality quality;
     
     public StreamContext(String streamUrl) {
         this.streamUrl = streamUrl;
@@ -0,0 +1,15 @@
+package com.streamsegmenter.model;
+
+import lombok.Builder;
+import lombok.Data;
+import java.util.List;
+
+@Data
+@Builder
+public class StreamHandle {
+    private String streamId;
+    private StreamStatus status;
+    private String statusUrl;
+    private String eventsUrl;
+    private List<String> playlistUrls;
+}
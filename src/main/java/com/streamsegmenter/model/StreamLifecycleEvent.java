@@ -0,0 +1,12 @@
+package com.streamsegmenter.model;
+
+import lombok.Data;
+import java.time.Instant;
+
+@Data
+public class StreamLifecycleEvent {
+    private final String streamId;
+    private final StreamStatus status;
+    private final Instant timestamp;
+    private final String detail;
+}
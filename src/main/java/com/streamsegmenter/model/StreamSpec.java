@@ -0,0 +1,13 @@
+package com.streamsegmenter.model;
+
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class StreamSpec {
+    private String streamId;
+    private String streamUrl;
+    private List<String> storageTypes;
+    private VideoQuality videoQuality;
+    private StreamRequest.Watermark watermark;
+}
@@ -0,0 +1,10 @@
+package com.streamsegmenter.model;
+
+public enum StreamStatus {
+    PROBING,
+    ENCODING,
+    FIRST_SEGMENT_READY,
+    PUBLISHED,
+    DEGRADED,
+    STOPPED
+}
@@ -0,0 +1,206 @@
+package com.streamsegmenter.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.streamsegmenter.model.CursorPage;
+import com.streamsegmenter.model.ScheduledStream;
+import com.streamsegmenter.model.ScheduledStreamStatus;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class ScheduledStreamRepository {
+    public static final String SCHEDULED_STREAMS_KEY = "scheduled_streams";
+    // Secondary indexes: one sorted set per status (scored by start time), one set per owning instance
+    private static final String STATUS_KEY_PREFIX = "scheduled_streams:status:";
+    private static final String INSTANCE_KEY_PREFIX = "scheduled_streams:instance:";
+    private static final String START_CURSOR = "0";
+
+    private final RedisTemplate<String, ScheduledStream> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ObjectMapper objectMapper;
+
+    // KEYS: hash  ARGV: cursor, count. Returns {nextCursor, json...}
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> HSCAN_PAGE_SCRIPT = new DefaultRedisScript<>("""
+            local r = redis.call('HSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[2])
+            local out = {r[1]}
+            for i = 2, #r[2], 2 do out[#out + 1] = r[2][i] end
+            return out
+            """, List.class);
+
+    // KEYS: index zset, hash  ARGV: cursor, count. Returns {nextCursor, json...}
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ZSCAN_PAGE_SCRIPT = new DefaultRedisScript<>("""
+            local r = redis.call('ZSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[2])
+            local out = {r[1]}
+            local ids = {}
+            for i = 1, #r[2], 2 do ids[#ids + 1] = r[2][i] end
+            if #ids > 0 then
+                for _, v in ipairs(redis.call('HMGET', KEYS[2], unpack(ids))) do
+                    if v then out[#out + 1] = v end
+                end
+            end
+            return out
+            """, List.class);
+
+    // The previous value, the hash write and the index moves happen in one round trip, so a concurrent
+    // save can never leave an id indexed under a status or instance it no longer has. The id is dropped
+    // from every status index but the current one; the old instance is read from the stored JSON.
+    // KEYS: hash, current status zset, all status zsets...  ARGV: id, json, score, instance prefix, instance
+    private static final RedisScript<Long> SAVE_SCRIPT = new DefaultRedisScript<>("""
+            local previous = redis.call('HGET', KEYS[1], ARGV[1])
+            if previous then
+                local instance = cjson.decode(previous)['processingInstance']
+                if type(instance) == 'string' and instance ~= ARGV[5] then
+                    redis.call('SREM', ARGV[4] .. instance, ARGV[1])
+                end
+            end
+            for i = 3, #KEYS do
+                if KEYS[i] ~= KEYS[2] then redis.call('ZREM', KEYS[i], ARGV[1]) end
+            end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('ZADD', KEYS[2], ARGV[3], ARGV[1])
+            if ARGV[5] ~= '' then redis.call('SADD', ARGV[4] .. ARGV[5], ARGV[1]) end
+            return previous and 1 or 0
+            """, Long.class);
+
+    // KEYS: hash, all status zsets...  ARGV: id, instance prefix. Returns 1 when the id existed
+    private static final RedisScript<Long> DELETE_SCRIPT = new DefaultRedisScript<>("""
+            local previous = redis.call('HGET', KEYS[1], ARGV[1])
+            if not previous then return 0 end
+            redis.call('HDEL', KEYS[1], ARGV[1])
+            for i = 2, #KEYS do redis.call('ZREM', KEYS[i], ARGV[1]) end
+            local instance = cjson.decode(previous)['processingInstance']
+            if type(instance) == 'string' then redis.call('SREM', ARGV[2] .. instance, ARGV[1]) end
+            return 1
+            """, Long.class);
+
+    public ScheduledStream findById(String id) {
+        return (ScheduledStream) redisTemplate.opsForHash().get(SCHEDULED_STREAMS_KEY, id);
+    }
+
+    public void save(ScheduledStream stream) {
+        List<String> keys = new ArrayList<>();
+        keys.add(SCHEDULED_STREAMS_KEY);
+        keys.add(statusKey(ScheduledStreamStatus.of(stream)));
+        keys.addAll(allStatusKeys());
+        String instance = stream.getProcessingInstance();
+        stringRedisTemplate.execute(SAVE_SCRIPT, keys, stream.getId(), toJson(stream),
+                String.valueOf(toEpochMillis(stream.getStartTime())), INSTANCE_KEY_PREFIX,
+                instance != null ? instance : "");
+    }
+
+    public boolean delete(String id) {
+        List<String> keys = new ArrayList<>();
+        keys.add(SCHEDULED_STREAMS_KEY);
+        keys.addAll(allStatusKeys());
+        Long deleted = stringRedisTemplate.execute(DELETE_SCRIPT, keys, id, INSTANCE_KEY_PREFIX);
+        return deleted != null && deleted == 1L;
+    }
+
+    public Set<String> findIdsByInstance(String instanceId) {
+        return stringRedisTemplate.opsForSet().members(INSTANCE_KEY_PREFIX + instanceId);
+    }
+
+    public List<ScheduledStream> findByIds(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return List.of();
+        }
+        List<Object> values = redisTemplate.opsForHash().multiGet(SCHEDULED_STREAMS_KEY, new ArrayList<>(ids));
+        return values.stream()
+                .filter(Objects::nonNull)
+                .map(ScheduledStream.class::cast)
+                .toList();
+    }
+
+    public List<ScheduledStream> findByStatusStartingBetween(ScheduledStreamStatus status,
+                                                             LocalDateTime from, LocalDateTime to) {
+        Set<String> ids = stringRedisTemplate.opsForZSet()
+                .rangeByScore(statusKey(status), toEpochMillis(from), toEpochMillis(to));
+        return ids == null ? List.of() : findByIds(ids);
+    }
+
+    public CursorPage<ScheduledStream> findPage(ScheduledStreamStatus status, String cursor, int count) {
+        String start = cursor != null ? cursor : START_CURSOR;
+        List<?> reply = status == null
+                ? stringRedisTemplate.execute(HSCAN_PAGE_SCRIPT, List.of(SCHEDULED_STREAMS_KEY),
+                        start, String.valueOf(count))
+                : stringRedisTemplate.execute(ZSCAN_PAGE_SCRIPT, List.of(statusKey(status), SCHEDULED_STREAMS_KEY),
+                        start, String.valueOf(count));
+
+        if (reply == null || reply.isEmpty()) {
+            return new CursorPage<>(List.of(), null);
+        }
+
+        List<ScheduledStream> items = new ArrayList<>(reply.size() - 1);
+        for (int i = 1; i < reply.size(); i++) {
+            try {
+                items.add(objectMapper.readValue((String) reply.get(i), ScheduledStream.class));
+            } catch (Exception e) {
+                log.warn("Skipping unreadable scheduled stream entry: {}", e.getMessage());
+            }
+        }
+        String next = (String) reply.get(0);
+        return new CursorPage<>(items, START_CURSOR.equals(next) ? null : next);
+    }
+
+    // Walks the whole hash incrementally; only meant for maintenance work such as index rebuilds at boot
+    public void scanAll(BiConsumer<String, ScheduledStream> consumer) {
+        ScanOptions options = ScanOptions.scanOptions().count(500).build();
+        try (Cursor<Map.Entry<Object, Object>> cursor =
+                     redisTemplate.opsForHash().scan(SCHEDULED_STREAMS_KEY, options)) {
+            cursor.forEachRemaining(entry ->
+                    consumer.accept((String) entry.getKey(), (ScheduledStream) entry.getValue()));
+        }
+    }
+
+    // Adds a scanned entry to its indexes without rewriting the hash, so a concurrent save is not undone
+    public void reindex(ScheduledStream stream) {
+        stringRedisTemplate.opsForZSet().add(statusKey(ScheduledStreamStatus.of(stream)), stream.getId(),
+                toEpochMillis(stream.getStartTime()));
+        if (stream.getProcessingInstance() != null) {
+            stringRedisTemplate.opsForSet().add(INSTANCE_KEY_PREFIX + stream.getProcessingInstance(), stream.getId());
+        }
+    }
+
+    // Same encoding the hash values are read back with through redisTemplate
+    @SuppressWarnings("unchecked")
+    private String toJson(ScheduledStream stream) {
+        byte[] json = ((RedisSerializer<ScheduledStream>) redisTemplate.getHashValueSerializer()).serialize(stream);
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    private List<String> allStatusKeys() {
+        return Arrays.stream(ScheduledStreamStatus.values()).map(this::statusKey).toList();
+    }
+
+    private String statusKey(ScheduledStreamStatus status) {
+        return STATUS_KEY_PREFIX + status.name().toLowerCase();
+    }
+
+    public static long toEpochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
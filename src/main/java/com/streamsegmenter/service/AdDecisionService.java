@@ -0,0 +1,85 @@
+package com.streamsegmenter.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.streamsegmenter.config.AdDecisionConfig;
+import com.streamsegmenter.event.StreamStoppedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@Slf4j
+@Service
+public class AdDecisionService {
+    // Stream -> break start segment -> creatives that may fill that break
+    private final Map<String, Map<Integer, List<AdCandidate>>> candidates = new ConcurrentHashMap<>();
+    // "streamId/sessionId" -> break start -> chosen creative; keeps a viewer's ads stable across polls
+    private final Cache<String, Map<Integer, AdCandidate>> decisions;
+
+    public record AdCandidate(String id, String storagePrefix, int duration) {}
+
+    public AdDecisionService(AdDecisionConfig config) {
+        this.decisions = Caffeine.newBuilder()
+                .maximumSize(config.getMaximumSessions())
+                .expireAfterAccess(Duration.ofMinutes(config.getTtlMinutes()))
+                .build();
+    }
+
+    // Creatives in one break must share its duration so they map onto the same sequence numbers
+    public boolean addCandidate(String streamId, int breakStart, AdCandidate candidate) {
+        List<AdCandidate> pool = candidates.computeIfAbsent(streamId, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(breakStart, k -> new CopyOnWriteArrayList<>());
+        synchronized (pool) {
+            if (!pool.isEmpty() && pool.get(0).duration() != candidate.duration()) {
+                log.warn("Ignoring creative {} for stream {} break {}: duration {}s does not match {}s",
+                        candidate.id(), streamId, breakStart, candidate.duration(), pool.get(0).duration());
+                return false;
+            }
+            if (pool.stream().noneMatch(existing -> existing.id().equals(candidate.id()))) {
+                pool.add(candidate);
+            }
+        }
+        return true;
+    }
+
+    public void removeBreak(String streamId, int breakStart) {
+        Map<Integer, List<AdCandidate>> breaks = candidates.get(streamId);
+        if (breaks != null) {
+            breaks.remove(breakStart);
+        }
+        // Long-lived sessions would otherwise keep a decision for every break they ever saw
+        String sessionPrefix = streamId + "/";
+        decisions.asMap().forEach((key, session) -> {
+            if (key.startsWith(sessionPrefix)) {
+                session.remove(breakStart);
+            }
+        });
+    }
+
+    public AdCandidate decide(String streamId, String sessionId, int breakStart) {
+        Map<Integer, List<AdCandidate>> breaks = candidates.get(streamId);
+        List<AdCandidate> pool = breaks != null ? breaks.get(breakStart) : null;
+        if (pool == null || pool.isEmpty()) {
+            return null;
+        }
+        Map<Integer, AdCandidate> session = decisions.get(streamId + "/" + sessionId, k -> new ConcurrentHashMap<>());
+        return session.computeIfAbsent(breakStart, b -> choose(sessionId, b, pool));
+    }
+
+    // Spreads sessions evenly and deterministically over the creatives booked for the break
+    private AdCandidate choose(String sessionId, int breakStart, List<AdCandidate> pool) {
+        return pool.get(Math.floorMod(Objects.hash(sessionId, breakStart), pool.size()));
+    }
+
+    @EventListener
+    public void onStreamStopped(StreamStoppedEvent event) {
+        candidates.remove(event.streamId());
+    }
+}
@@ -0,0 +1,364 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.config.AdCacheConfig;
+import com.streamsegmenter.config.StorageConfig;
+import com.streamsegmenter.event.StreamStoppedEvent;
+import com.streamsegmenter.model.AdvertisementRequest;
+import com.streamsegmenter.model.VideoQuality;
+import com.streamsegmenter.service.impl.LocalStorageService;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AdRenditionCache {
+    private static final String ADS_DIR = "ads";
+    private static final String STAGING_PREFIX = ".staging-";
+    // Storage types that already hold a rendition; shared by every node so each backend gets it once
+    private static final String UPLOADED_KEY_PREFIX = "ads:uploaded:";
+
+    private final AdCacheConfig cacheConfig;
+    private final StorageConfig storageConfig;
+    private final StringRedisTemplate redisTemplate;
+    private final StorageManager storageManager;
+
+    // Access-ordered so iteration starts from the least recently used rendition
+    private final LinkedHashMap<String, Long> renditionSizes = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Rendition>> inflight = new ConcurrentHashMap<>();
+    // Pins per rendition and stream: one for every break or candidate that references it, plus one
+    // for each insert still staging it
+    private final Map<String, Map<String, Integer>> users = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Void>> inflightUploads = new ConcurrentHashMap<>();
+    private long totalBytes;
+
+    @FunctionalInterface
+    public interface Transcoder {
+        void transcode(Path outputPath) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface StreamingTranscoder {
+        void transcode(InputStream input, Path outputPath) throws Exception;
+    }
+
+    public record Rendition(String hash, Path directory) {
+        public String storagePrefix() {
+            return ADS_DIR + "/" + hash;
+        }
+    }
+
+    public boolean isEnabled() {
+        return cacheConfig.isEnabled();
+    }
+
+    @PostConstruct
+    void loadExisting() {
+        Path root = storageConfig.resolvePath("streams", ADS_DIR);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (Stream<Path> dirs = Files.list(root)) {
+            dirs.filter(Files::isDirectory)
+                    .sorted(Comparator.comparingLong(this::lastModified))
+                    .forEach(dir -> {
+                        String name = dir.getFileName().toString();
+                        if (name.startsWith(STAGING_PREFIX)) {
+                            deleteDirectory(dir);
+                        } else {
+                            register(name, directorySize(dir));
+                        }
+                    });
+            log.info("Loaded {} cached advertisement renditions ({} bytes)", renditionSizes.size(), totalBytes);
+        } catch (IOException e) {
+            log.warn("Failed to load advertisement rendition cache: {}", e.getMessage());
+        }
+    }
+
+    // Returns the cached rendition for this creative, transcoding it only on the first request
+    // The rendition comes back pinned once for streamId; the caller releases that pin when done staging
+    public Rendition resolve(Path source, AdvertisementRequest.Type type, int duration, VideoQuality quality,
+                             String streamId, Transcoder transcoder) throws IOException {
+        String hash = renditionKey(contentHash(source), type, duration, quality);
+        retain(hash, streamId);
+        Rendition cached = findCached(hash);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Rendition> future = new CompletableFuture<>();
+        CompletableFuture<Rendition> existing = inflight.putIfAbsent(hash, future);
+        if (existing != null) {
+            // Same creative is being transcoded for another stream right now
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                release(hash, streamId);
+                throw new IOException("Failed to build advertisement rendition " + hash, e.getCause());
+            }
+        }
+
+        try {
+            Path staging = createStaging(hash);
+            try {
+                transcoder.transcode(staging.resolve("advertisement_0.ts"));
+            } catch (Exception e) {
+                deleteDirectory(staging);
+                throw e;
+            }
+            Rendition rendition = commit(hash, staging);
+            future.complete(rendition);
+            return rendition;
+        } catch (Exception e) {
+            release(hash, streamId);
+            future.completeExceptionally(e);
+            throw new IOException("Failed to build advertisement rendition " + hash, e);
+        } finally {
+            inflight.remove(hash);
+        }
+    }
+
+    // Lets a client that sends the content digest up front skip the upload for a known creative
+    public Rendition lookup(String contentSha256, AdvertisementRequest.Type type, int duration, VideoQuality quality,
+                            String streamId) {
+        String hash = renditionKey(contentSha256.toLowerCase(), type, duration, quality);
+        retain(hash, streamId);
+        Rendition cached = findCached(hash);
+        if (cached == null) {
+            release(hash, streamId);
+        }
+        return cached;
+    }
+
+    // The body is transcoded as it arrives and digested on the way; a body that does not match the
+    // digest the client announced is dropped so a wrong header cannot poison the cache
+    public Rendition ingest(InputStream body, String contentSha256, AdvertisementRequest.Type type, int duration,
+                            VideoQuality quality, String streamId, StreamingTranscoder transcoder) throws IOException {
+        Path staging = createStaging("ingest");
+        String hash = null;
+        try {
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(body, digest)) {
+                transcoder.transcode(in, staging.resolve("advertisement_0.ts"));
+            }
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+            if (!contentHash.equalsIgnoreCase(contentSha256)) {
+                throw new IOException("Advertisement body does not match X-Content-SHA256 " + contentSha256);
+            }
+            hash = renditionKey(contentHash, type, duration, quality);
+            retain(hash, streamId);
+
+            Rendition cached = findCached(hash);
+            if (cached != null) {
+                deleteDirectory(staging);
+                return cached;
+            }
+            return commit(hash, staging);
+        } catch (Exception e) {
+            deleteDirectory(staging);
+            if (hash != null) {
+                release(hash, streamId);
+            }
+            throw new IOException("Failed to ingest advertisement rendition", e);
+        }
+    }
+
+    private Rendition findCached(String hash) {
+        Path directory = storageConfig.resolvePath("streams", ADS_DIR, hash);
+        synchronized (renditionSizes) {
+            if (!Files.isDirectory(directory)) {
+                return null;
+            }
+            if (renditionSizes.get(hash) == null) {
+                register(hash, directorySize(directory));
+            }
+        }
+        log.info("Advertisement rendition cache hit: {}", hash);
+        return new Rendition(hash, directory);
+    }
+
+    private Path createStaging(String name) throws IOException {
+        Path staging = storageConfig.resolvePath("streams", ADS_DIR, STAGING_PREFIX + name + "-" + System.nanoTime());
+        Files.createDirectories(staging);
+        return staging;
+    }
+
+    private Rendition commit(String hash, Path staging) throws IOException {
+        Path directory = storageConfig.resolvePath("streams", ADS_DIR, hash);
+        synchronized (renditionSizes) {
+            if (Files.isDirectory(directory)) {
+                // Another ingest of the same creative finished first
+                deleteDirectory(staging);
+            } else {
+                Files.move(staging, directory, StandardCopyOption.ATOMIC_MOVE);
+            }
+            register(hash, directorySize(directory));
+            evict();
+        }
+        return new Rendition(hash, directory);
+    }
+
+    // Uploads to every backend that lacks the rendition at once, all segments in flight together
+    public void ensureUploaded(Rendition rendition, List<StorageService> services) {
+        List<Path> segments = listSegments(rendition.directory());
+        if (segments.isEmpty()) {
+            log.warn("Advertisement rendition {} has no segments to upload", rendition.hash());
+            return;
+        }
+        String uploadedKey = UPLOADED_KEY_PREFIX + rendition.hash();
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (StorageService service : services) {
+            if (service instanceof LocalStorageService) {
+                continue; // Served straight from the cache directory
+            }
+            String storageType = service.getStorageType();
+            if (Boolean.TRUE.equals(redisTemplate.opsForSet().isMember(uploadedKey, storageType))) {
+                continue;
+            }
+            // A concurrent insert of the same creative waits on the upload already running
+            String uploadKey = rendition.hash() + ":" + storageType;
+            CompletableFuture<Void> upload = inflightUploads.computeIfAbsent(uploadKey, k ->
+                    storageManager.uploadAll(segments, rendition.storagePrefix(), List.of(service))
+                            .thenRun(() -> {
+                                redisTemplate.opsForSet().add(uploadedKey, storageType);
+                                log.info("Advertisement rendition {} uploaded to storage: {}",
+                                        rendition.hash(), storageType);
+                            }));
+            // Attached outside the mapping function: an already completed upload would otherwise
+            // remove itself from the map while computeIfAbsent is still running
+            upload.whenComplete((v, e) -> inflightUploads.remove(uploadKey, upload));
+            pending.add(upload.whenComplete((v, e) -> {
+                if (e != null) {
+                    log.error("Failed to upload advertisement rendition {} to storage {}: {}",
+                            rendition.hash(), storageType, e.getMessage());
+                }
+            }));
+        }
+        // Fails if any backend is missing the rendition, so no break is committed over absent segments
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    public void retain(String hash, String streamId) {
+        users.compute(hash, (k, streams) -> {
+            Map<String, Integer> pins = streams != null ? streams : new HashMap<>();
+            pins.merge(streamId, 1, Integer::sum);
+            return pins;
+        });
+    }
+
+    public void release(String hash, String streamId) {
+        users.computeIfPresent(hash, (k, streams) -> {
+            streams.computeIfPresent(streamId, (id, count) -> count > 1 ? count - 1 : null);
+            return streams.isEmpty() ? null : streams;
+        });
+    }
+
+    @EventListener
+    public void onStreamStopped(StreamStoppedEvent event) {
+        users.keySet().forEach(hash -> users.computeIfPresent(hash, (k, streams) -> {
+            streams.remove(event.streamId());
+            return streams.isEmpty() ? null : streams;
+        }));
+    }
+
+    private void register(String hash, long size) {
+        Long previous = renditionSizes.put(hash, size);
+        totalBytes += size - (previous != null ? previous : 0);
+    }
+
+    // Caller holds the renditionSizes lock. Renditions still referenced by a live playlist are kept
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = renditionSizes.entrySet().iterator();
+        while (totalBytes > cacheConfig.getMaxBytes() && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (users.containsKey(entry.getKey())) {
+                continue;
+            }
+            deleteDirectory(storageConfig.resolvePath("streams", ADS_DIR, entry.getKey()));
+            totalBytes -= entry.getValue();
+            iterator.remove();
+            log.info("Evicted advertisement rendition {} ({} bytes)", entry.getKey(), entry.getValue());
+        }
+    }
+
+    private String contentHash(Path source) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String renditionKey(String contentHash, AdvertisementRequest.Type type, int duration,
+                                VideoQuality quality) {
+        MessageDigest digest = sha256();
+        digest.update(String.format("%s|%s|%d|%s", contentHash, type, duration, quality != null ? quality : "SOURCE")
+                .getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<Path> listSegments(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".ts")).sorted().toList();
+        } catch (IOException e) {
+            log.warn("Failed to list advertisement rendition {}: {}", directory, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private long directorySize(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long lastModified(Path path) {
+        return path.toFile().lastModified();
+    }
+
+    private void deleteDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Failed to delete advertisement rendition {}: {}", directory, e.getMessage());
+        }
+    }
+}
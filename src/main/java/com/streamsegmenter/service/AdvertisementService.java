@@ -1,21 +1,38 @@
 package com.streamsegmenter.service;
 
 import com.streamsegmenter.config.StorageConfig;
+import com.streamsegmenter.event.SegmentPublishedEvent;
+import com.streamsegmenter.event.StreamStoppedEvent;
+import com.streamsegmenter.model.AdBroadcastResult;
+import com.streamsegmenter.model.AdBroadcastTarget;
 import com.streamsegmenter.model.AdvertisementRequest;
 import com.streamsegmenter.model.ScheduledStream;
+import com.streamsegmenter.model.StreamContext;
+import com.streamsegmenter.model.VideoQuality;
 import com.streamsegmenter.service.impl.LocalStorageService;
+import com.streamsegmenter.util.IntObjectMap;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 @Slf4j
 @Service
@@ -27,53 +44,87 @@ public class AdvertisementService {
     private final StorageManager storageManager;
     private final StreamService streamService;
     private final StreamSchedulerService streamSchedulerService;
-    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, String>> streamAdvertisements = new ConcurrentHashMap<>();
+    private final AdRenditionCache adRenditionCache;
+    private final AdDecisionService adDecisionService;
+    // Stream -> start segment -> local ad segments; both maps are pruned once a break leaves the playlist window
+    private final ConcurrentHashMap<String, IntObjectMap<AdBreak>> streamAdvertisements = new ConcurrentHashMap<>();
+    // Stream -> start segment -> shared renditions the break pins
+    private final ConcurrentHashMap<String, IntObjectMap<AdBreak>> sharedAdvertisements = new ConcurrentHashMap<>();
     private static final String ADVERTISEMENT_PREFIX = "advertisement";
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-fA-F]{64}");
 
     public String insertAdvertisement(AdvertisementRequest request) {
         long startTime = System.currentTimeMillis();
         try {
-            if(!(checkStreamActive(request.getStreamId()) || checkStreamScheduled(request.getStreamId()))) {
-                return "Advertisement didn't insert, because there is no scheduled or active stream with this id.";
+            String rejection = validateInsert(request.getStreamId(), request.getStartSegment());
+            if (rejection != null) {
+                return rejection;
             }
 
             Path tempFile = Files.createTempFile("ad-", getExtension(request.getFile().getOriginalFilename()));
             request.getFile().transferTo(tempFile.toFile());
+            insertFromFile(request, tempFile, startTime);
+        } catch (Exception e) {
+            log.error("Failed to insert advertisement", e);
+            throw new RuntimeException("Advertisement insertion failed", e);
+        }
+        return "Advertisement inserted successfully";
+    }
 
-            Path outputDir = config.resolvePath("streams", request.getStreamId());
-            Files.createDirectories(outputDir);
+    // Raw request body ingest: video is piped into FFmpeg and TS written straight to the segment,
+    // so encoding overlaps the upload and the body never lands in a temp file first
+    public String insertAdvertisementStream(AdvertisementRequest request, String contentSha256, InputStream body) {
+        long startTime = System.currentTimeMillis();
+        String streamId = request.getStreamId();
+        try {
+            String rejection = validateInsert(streamId, request.getStartSegment());
+            if (rejection != null) {
+                return rejection;
+            }
 
-            CompletableFuture<Void> processingFuture;
-            Path outputPath = outputDir.resolve(ADVERTISEMENT_PREFIX + "_" + request.getStartSegment() + ".ts");
+            if (request.getType() == AdvertisementRequest.Type.IMAGE) {
+                // A still image is looped by FFmpeg, which needs a seekable file
+                Path tempFile = Files.createTempFile("ad-", ".img");
+                Files.copy(body, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                insertFromFile(request, tempFile, startTime);
+                return "Advertisement inserted successfully";
+            }
 
-            switch (request.getType()) {
-                case IMAGE:
-                    processingFuture = processImage(tempFile, outputPath, request);
-                    break;
-                case VIDEO:
-                    processingFuture = processVideo(tempFile, outputPath, request);
-                    break;
-                case TS_FILE:
-                    processingFuture = processTs(tempFile, outputPath, request);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unsupported advertisement type");
-            }
-
-            processingFuture.thenRun(() -> {
-                try {
-                    uploadAdvertisementToStorages(request.getStreamId(), outputDir, request.getStartSegment());
-                    registerAdvertisement(request.getStreamId(), request.getStartSegment(), outputDir.toString(), request.getDuration());
-                    long duration = System.currentTimeMillis() - startTime;
-                    log.info("Advertisement processing completed in {} ms", duration);
-                } catch (Exception e) {
-                    log.error("Failed to upload advertisement", e);
+            VideoQuality quality = resolveQuality(streamId);
+            if (adRenditionCache.isEnabled()) {
+                // A pipe cannot be hashed before it is transcoded, so the digest has to come up front
+                // or every repeat of a creative would be encoded again just to find the cache hit
+                if (contentSha256 == null || !SHA256_HEX.matcher(contentSha256).matches()) {
+                    return "Advertisement didn't insert, because streamed uploads need an X-Content-SHA256 header " +
+                            "while the rendition cache is enabled.";
+                }
+                AdRenditionCache.Rendition rendition = adRenditionCache.lookup(contentSha256, request.getType(),
+                        request.getDuration(), quality, streamId);
+                if (rendition == null) {
+                    rendition = adRenditionCache.ingest(body, contentSha256, request.getType(), request.getDuration(),
+                            quality, streamId, (input, outputPath) -> ingest(request.getType(), input, outputPath, 0,
+                                    request.getDuration(), quality));
                 }
+                AdRenditionCache.Rendition staged = rendition;
+                CompletableFuture.runAsync(() -> publishSharedAdvertisement(request, staged, startTime));
+                return "Advertisement inserted successfully";
+            }
+
+            Path outputDir = config.resolvePath("streams", streamId);
+            Files.createDirectories(outputDir);
+            Path outputPath = outputDir.resolve(ADVERTISEMENT_PREFIX + "_" + request.getStartSegment() + ".ts");
+            ingest(request.getType(), body, outputPath, request.getStartSegment(), request.getDuration(), quality);
+
+            CompletableFuture.runAsync(() -> {
+                List<Path> segments = uploadAdvertisementToStorages(streamId, outputDir, request.getStartSegment());
+                registerAdvertisement(streamId, request.getStartSegment(), outputDir.toString(), segments,
+                        request.getDuration());
+                long duration = System.currentTimeMillis() - startTime;
+                log.info("Advertisement processing completed in {} ms", duration);
             }).exceptionally(e -> {
-                log.error("Failed to process advertisement", e);
+                log.error("Failed to upload advertisement", e);
                 return null;
             });
-
         } catch (Exception e) {
             log.error("Failed to insert advertisement", e);
             throw new RuntimeException("Advertisement insertion failed", e);
@@ -81,6 +132,274 @@ public class AdvertisementService {
         return "Advertisement inserted successfully";
     }
 
+    private String validateInsert(String streamId, int startSegment) {
+        if(!(checkStreamActive(streamId) || checkStreamScheduled(streamId))) {
+            return "Advertisement didn't insert, because there is no scheduled or active stream with this id.";
+        }
+        int liveEdge = m3u8Service.getLatestSequence(streamId);
+        if (startSegment <= liveEdge) {
+            return String.format("Advertisement didn't insert, because segment %d is already published (live edge: %d).",
+                    startSegment, liveEdge);
+        }
+        return null;
+    }
+
+    private void ingest(AdvertisementRequest.Type type, InputStream input, Path outputPath, int startSegment,
+                        int duration, VideoQuality quality) throws IOException {
+        if (type == AdvertisementRequest.Type.TS_FILE) {
+            Files.copy(input, outputPath, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            ffmpegService.convertVideoStream(input, outputPath, startSegment, duration, quality);
+        }
+    }
+
+    private void insertFromFile(AdvertisementRequest request, Path tempFile, long startTime) throws IOException {
+        VideoQuality quality = resolveQuality(request.getStreamId());
+        if (adRenditionCache.isEnabled()) {
+            insertSharedAdvertisement(request, tempFile, quality, startTime);
+            return;
+        }
+
+        Path outputDir = config.resolvePath("streams", request.getStreamId());
+        Files.createDirectories(outputDir);
+
+        CompletableFuture<Void> processingFuture;
+        Path outputPath = outputDir.resolve(ADVERTISEMENT_PREFIX + "_" + request.getStartSegment() + ".ts");
+
+        switch (request.getType()) {
+            case IMAGE:
+                processingFuture = processImage(tempFile, outputPath, request, quality);
+                break;
+            case VIDEO:
+                processingFuture = processVideo(tempFile, outputPath, request, quality);
+                break;
+            case TS_FILE:
+                processingFuture = processTs(tempFile, outputPath, request);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported advertisement type");
+        }
+
+        processingFuture.thenRun(() -> {
+            try {
+                List<Path> segments = uploadAdvertisementToStorages(request.getStreamId(), outputDir,
+                        request.getStartSegment());
+                registerAdvertisement(request.getStreamId(), request.getStartSegment(), outputDir.toString(), segments,
+                        request.getDuration());
+                long duration = System.currentTimeMillis() - startTime;
+                log.info("Advertisement processing completed in {} ms", duration);
+            } catch (Exception e) {
+                log.error("Failed to upload advertisement", e);
+            }
+        }).exceptionally(e -> {
+            log.error("Failed to process advertisement", e);
+            return null;
+        });
+    }
+
+    private void insertSharedAdvertisement(AdvertisementRequest request, Path tempFile, VideoQuality quality,
+                                           long startTime) {
+        String streamId = request.getStreamId();
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                AdRenditionCache.Rendition rendition = adRenditionCache.resolve(tempFile, request.getType(),
+                        request.getDuration(), quality, streamId,
+                        outputPath -> transcode(request.getType(), tempFile, outputPath, request.getDuration(), quality));
+                publishSharedAdvertisement(request, rendition, startTime);
+            } catch (Exception e) {
+                log.error("Failed to process advertisement", e);
+            } finally {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (Exception e) {
+                    log.warn("Failed to delete advertisement upload {}: {}", tempFile, e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void publishSharedAdvertisement(AdvertisementRequest request, AdRenditionCache.Rendition rendition,
+                                            long startTime) {
+        String streamId = request.getStreamId();
+        try {
+            adRenditionCache.ensureUploaded(rendition, storageManager.getStoragesForStream(streamId));
+            if (!commitSharedAdvertisement(streamId, request.getStartSegment(), rendition, request.getDuration())) {
+                return;
+            }
+        } catch (Exception e) {
+            log.error("Advertisement for stream {} not committed, rendition upload failed: {}",
+                    streamId, e.getMessage());
+            return;
+        } finally {
+            // The committed break holds its own pin
+            adRenditionCache.release(rendition.hash(), streamId);
+        }
+
+        long duration = System.currentTimeMillis() - startTime;
+        log.info("Advertisement processing completed in {} ms", duration);
+    }
+
+    // Each break or candidate pins its rendition once, so the pin outlives any other break that uses it
+    private boolean commitSharedAdvertisement(String streamId, int startSegment, AdRenditionCache.Rendition rendition,
+                                              int duration) {
+        String hash = rendition.hash();
+        AdDecisionService.AdCandidate candidate =
+                new AdDecisionService.AdCandidate(hash, rendition.storagePrefix(), duration);
+        IntObjectMap<AdBreak> sharedAds = sharedAdvertisements.computeIfAbsent(streamId, k -> new IntObjectMap<>());
+        synchronized (sharedAds) {
+            AdBreak existing = sharedAds.get(startSegment);
+            if (existing != null) {
+                // The committed break stays in the playlist; another creative only competes in ad decisions
+                if (existing.renditions().contains(hash)) {
+                    return true;
+                }
+                if (!adDecisionService.addCandidate(streamId, startSegment, candidate)) {
+                    return false;
+                }
+                adRenditionCache.retain(hash, streamId);
+                List<String> renditions = new ArrayList<>(existing.renditions());
+                renditions.add(hash);
+                sharedAds.put(startSegment, new AdBreak(renditions, existing.files(), existing.lastSegment()));
+                return true;
+            }
+
+            adRenditionCache.retain(hash, streamId);
+            if (!m3u8Service.registerSharedAdvertisement(streamId, startSegment,
+                    rendition.storagePrefix(), rendition.directory().toString(), duration)) {
+                adRenditionCache.release(hash, streamId);
+                return false;
+            }
+            sharedAds.put(startSegment, new AdBreak(List.of(hash), List.of(), lastSegment(startSegment, duration)));
+        }
+        // Every creative committed to a break becomes eligible for session playlists
+        adDecisionService.addCandidate(streamId, startSegment, candidate);
+        return true;
+    }
+
+    // One creative into many streams: transcoded and uploaded once per distinct stream quality,
+    // then committed to every playlist in parallel
+    public List<AdBroadcastResult> broadcastAdvertisement(MultipartFile file, AdvertisementRequest.Type type,
+                                                          int duration, List<AdBroadcastTarget> targets) {
+        long startTime = System.currentTimeMillis();
+        AdBroadcastResult[] results = new AdBroadcastResult[targets.size()];
+        Map<VideoQuality, List<Integer>> targetsByQuality = new HashMap<>();
+
+        for (int i = 0; i < targets.size(); i++) {
+            AdBroadcastTarget target = targets.get(i);
+            String rejection = validateInsert(target.getStreamId(), target.getStartSegment());
+            if (rejection != null) {
+                results[i] = new AdBroadcastResult(target.getStreamId(), target.getStartSegment(),
+                        AdBroadcastResult.Status.REJECTED, rejection);
+            } else {
+                targetsByQuality.computeIfAbsent(resolveQuality(target.getStreamId()), k -> new ArrayList<>()).add(i);
+            }
+        }
+        if (targetsByQuality.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile("ad-", getExtension(file.getOriginalFilename()));
+            file.transferTo(tempFile.toFile());
+
+            List<CompletableFuture<Void>> commits = new ArrayList<>();
+            // Staging pins, one per rendition, released once every commit is done
+            Map<String, String> staged = new HashMap<>();
+            for (Map.Entry<VideoQuality, List<Integer>> group : targetsByQuality.entrySet()) {
+                VideoQuality quality = group.getKey();
+                List<Integer> indices = group.getValue();
+                Path source = tempFile;
+
+                AdRenditionCache.Rendition rendition;
+                String stagingStream = targets.get(indices.get(0)).getStreamId();
+                try {
+                    rendition = adRenditionCache.resolve(source, type, duration, quality, stagingStream,
+                            outputPath -> transcode(type, source, outputPath, duration, quality));
+                    staged.put(rendition.hash(), stagingStream);
+                } catch (IOException e) {
+                    log.error("Failed to prepare advertisement rendition for quality {}", quality, e);
+                    for (int i : indices) {
+                        results[i] = new AdBroadcastResult(targets.get(i).getStreamId(), targets.get(i).getStartSegment(),
+                                AdBroadcastResult.Status.FAILED, "Transcoding failed: " + e.getMessage());
+                    }
+                    continue;
+                }
+
+                // Every backend used by any stream in the group receives the rendition once
+                Set<StorageService> backends = new LinkedHashSet<>();
+                for (int i : indices) {
+                    backends.addAll(storageManager.getStoragesForStream(targets.get(i).getStreamId()));
+                }
+                try {
+                    adRenditionCache.ensureUploaded(rendition, new ArrayList<>(backends));
+                } catch (Exception e) {
+                    log.error("Failed to upload advertisement rendition for quality {}", quality, e);
+                    for (int i : indices) {
+                        results[i] = new AdBroadcastResult(targets.get(i).getStreamId(), targets.get(i).getStartSegment(),
+                                AdBroadcastResult.Status.FAILED, "Upload failed: " + e.getMessage());
+                    }
+                    continue;
+                }
+
+                for (int i : indices) {
+                    AdBroadcastTarget target = targets.get(i);
+                    commits.add(CompletableFuture.runAsync(() -> {
+                        boolean committed = commitSharedAdvertisement(target.getStreamId(), target.getStartSegment(),
+                                rendition, duration);
+                        results[i] = committed
+                                ? new AdBroadcastResult(target.getStreamId(), target.getStartSegment(),
+                                        AdBroadcastResult.Status.INSERTED, "Advertisement inserted successfully")
+                                : new AdBroadcastResult(target.getStreamId(), target.getStartSegment(),
+                                        AdBroadcastResult.Status.REJECTED, "Live edge passed the break while staging");
+                    }).exceptionally(e -> {
+                        results[i] = new AdBroadcastResult(target.getStreamId(), target.getStartSegment(),
+                                AdBroadcastResult.Status.FAILED, e.getMessage());
+                        return null;
+                    }));
+                }
+            }
+            CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[0])).join();
+            staged.forEach(adRenditionCache::release);
+        } catch (IOException e) {
+            log.error("Failed to receive broadcast advertisement", e);
+            throw new RuntimeException("Advertisement broadcast failed", e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    log.warn("Failed to delete advertisement upload {}: {}", tempFile, e.getMessage());
+                }
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        log.info("Advertisement broadcast to {} streams in {} renditions completed in {} ms",
+                targets.size(), targetsByQuality.size(), elapsed);
+        return Arrays.asList(results);
+    }
+
+    private void transcode(AdvertisementRequest.Type type, Path source, Path outputPath, int duration,
+                           VideoQuality quality) throws Exception {
+        switch (type) {
+            case IMAGE -> ffmpegService.convertImageToVideo(source, outputPath, duration, 0, quality);
+            case VIDEO -> ffmpegService.convertVideoToSegments(source, outputPath, 0, duration, quality);
+            case TS_FILE -> Files.copy(source, outputPath, StandardCopyOption.REPLACE_EXISTING);
+            default -> throw new IllegalArgumentException("Unsupported advertisement type");
+        }
+    }
+
+    private VideoQuality resolveQuality(String streamId) {
+        StreamContext context = streamService.activeStreams.get(streamId);
+        if (context != null) {
+            return context.getQuality();
+        }
+        ScheduledStream stream = streamSchedulerService.getScheduledStreamsById(streamId);
+        return stream != null ? stream.getVideoQuality() : null;
+    }
+
     private boolean checkStreamActive(String streamId) {
         return streamService.activeStreams.get(streamId) != null;
     }
@@ -94,39 +413,72 @@ public class AdvertisementService {
         return false;
     }
 
-    private void uploadAdvertisementToStorages(String streamId, Path adDir, int segmentNumber) {
+    // Returns the local segment files of the break, which live next to the stream's own segments.
+    // Throws when any backend is missing a segment, so the caller never registers the break.
+    private List<Path> uploadAdvertisementToStorages(String streamId, Path adDir, int segmentNumber) {
         List<StorageService> services = storageManager.getStoragesForStream(streamId);
 
-        // Birden fazla segment olabilir
-        File[] adSegments = adDir.toFile().listFiles((dir, name) ->
-                name.startsWith(ADVERTISEMENT_PREFIX + "_" + segmentNumber) && name.endsWith(".ts"));
+        List<Path> segmentPaths = findAdSegments(adDir, segmentNumber);
+        if (segmentPaths.isEmpty()) {
+            throw new IllegalStateException("No advertisement segments found in: " + adDir);
+        }
 
-        if (adSegments == null || adSegments.length == 0) {
-            log.warn("No advertisement segments found in: {}", adDir);
-            return;
+        List<StorageService> remoteServices = services.stream()
+                .filter(service -> !(service instanceof LocalStorageService))
+                .toList();
+        try {
+            // Registration waits for every segment on every backend
+            storageManager.uploadAll(segmentPaths, streamId, remoteServices).join();
+            log.info("{} advertisement segments uploaded to {} storages", segmentPaths.size(), remoteServices.size());
+        } catch (Exception e) {
+            log.error("Failed to upload advertisement segments: {}", e.getMessage());
+            throw new IllegalStateException("Advertisement upload failed for stream " + streamId, e);
         }
+        return segmentPaths;
+    }
+
+    // Birden fazla segment olabilir: advertisement_N.ts or advertisement_N_i.ts
+    private static List<Path> findAdSegments(Path adDir, int segmentNumber) {
+        String single = ADVERTISEMENT_PREFIX + "_" + segmentNumber + ".ts";
+        String chunked = ADVERTISEMENT_PREFIX + "_" + segmentNumber + "_";
+        File[] adSegments = adDir.toFile().listFiles((dir, name) ->
+                name.equals(single) || (name.startsWith(chunked) && name.endsWith(".ts")));
+        return adSegments == null ? List.of() : Arrays.stream(adSegments).map(File::toPath).toList();
+    }
 
-        for (File segment : adSegments) {
-            for (StorageService service : services) {
-                if (!(service instanceof LocalStorageService)) {
-                    try {
-                        service.uploadSegment(segment.toPath(), streamId).get();
-                        log.info("Advertisement segment {} uploaded to storage: {}",
-                                segment.getName(), service.getStorageType());
-                    } catch (Exception e) {
-                        log.error("Failed to upload advertisement to storage {}: {}",
-                                service.getStorageType(), e.getMessage());
+    // Rebuilds the break registry of a stream restored from the journal, re-pinning shared renditions,
+    // so restored breaks expire, can be removed and keep their renditions out of eviction
+    public void restoreAdvertisements(String streamId, List<StreamJournal.JournaledAd> ads) {
+        for (StreamJournal.JournaledAd ad : ads) {
+            int start = ad.segmentNumber();
+            int last = lastSegment(start, ad.duration());
+            if (ad.storagePrefix() != null) {
+                String hash = ad.storagePrefix().substring(ad.storagePrefix().lastIndexOf('/') + 1);
+                IntObjectMap<AdBreak> sharedAds = sharedAdvertisements.computeIfAbsent(streamId, k -> new IntObjectMap<>());
+                synchronized (sharedAds) {
+                    if (sharedAds.containsKey(start)) {
+                        continue;
                     }
+                    adRenditionCache.retain(hash, streamId);
+                    sharedAds.put(start, new AdBreak(List.of(hash), List.of(), last));
+                }
+                adDecisionService.addCandidate(streamId, start,
+                        new AdDecisionService.AdCandidate(hash, ad.storagePrefix(), ad.duration()));
+            } else {
+                IntObjectMap<AdBreak> streamAds = streamAdvertisements.computeIfAbsent(streamId, k -> new IntObjectMap<>());
+                synchronized (streamAds) {
+                    streamAds.put(start, new AdBreak(List.of(), findAdSegments(Path.of(ad.segmentPath()), start), last));
                 }
             }
         }
     }
 
     private CompletableFuture<Void> processImage(Path imagePath, Path outputPath,
-                                                 AdvertisementRequest request) {
+                                                 AdvertisementRequest request, VideoQuality quality) {
         return CompletableFuture.runAsync(() -> {
             try {
-                ffmpegService.convertImageToVideo(imagePath, outputPath, request.getDuration(), request.getStartSegment());
+                ffmpegService.convertImageToVideo(imagePath, outputPath, request.getDuration(),
+                        request.getStartSegment(), quality);
             } catch (Exception e) {
                 log.error("Failed to process image advertisement", e);
                 throw new RuntimeException(e);
@@ -135,11 +487,11 @@ public class AdvertisementService {
     }
 
     private CompletableFuture<Void> processVideo(Path videoPath, Path outputPath,
-                                                 AdvertisementRequest request) {
+                                                 AdvertisementRequest request, VideoQuality quality) {
         return CompletableFuture.runAsync(() -> {
             try {
                 ffmpegService.convertVideoToSegments(videoPath, outputPath,
-                        request.getStartSegment(), request.getDuration());
+                        request.getStartSegment(), request.getDuration(), quality);
             } catch (Exception e) {
                 log.error("Failed to process video advertisement", e);
                 throw new RuntimeException(e);
@@ -159,42 +511,124 @@ public class AdvertisementService {
         });
     }
 
-    private void registerAdvertisement(String streamId, int segmentNumber, String path, int duration) {
-        m3u8Service.registerAdvertisement(streamId, segmentNumber, path, duration);
-        streamAdvertisements.computeIfAbsent(streamId, k -> new ConcurrentHashMap<>())
-                .put(segmentNumber, path);
+    private void registerAdvertisement(String streamId, int segmentNumber, String path, List<Path> segments,
+                                       int duration) {
+        if (!m3u8Service.registerAdvertisement(streamId, segmentNumber, path, duration)) {
+            return;
+        }
+        IntObjectMap<AdBreak> streamAds = streamAdvertisements.computeIfAbsent(streamId, k -> new IntObjectMap<>());
+        synchronized (streamAds) {
+            streamAds.put(segmentNumber, new AdBreak(List.of(), segments, lastSegment(segmentNumber, duration)));
+        }
+    }
+
+    private static int lastSegment(int startSegment, int duration) {
+        return startSegment + Math.max(1, (int) Math.ceil(duration / (double) M3u8Service.SEGMENT_DURATION)) - 1;
+    }
+
+    // Breaks that ended before the playlist window can no longer be played or removed by anyone
+    @EventListener
+    public void onSegmentPublished(SegmentPublishedEvent event) {
+        String streamId = event.streamId();
+        int windowStart = event.sequence() - M3u8Service.MAX_SEGMENTS + 1;
+
+        IntObjectMap<AdBreak> sharedAds = sharedAdvertisements.get(streamId);
+        if (sharedAds != null) {
+            Map<Integer, List<String>> expired = new HashMap<>();
+            synchronized (sharedAds) {
+                sharedAds.removeIf((start, adBreak) -> adBreak.lastSegment() < windowStart
+                        && expired.put(start, adBreak.renditions()) == null);
+            }
+            expired.forEach((start, renditions) -> {
+                adDecisionService.removeBreak(streamId, start);
+                renditions.forEach(hash -> adRenditionCache.release(hash, streamId));
+            });
+        }
+
+        IntObjectMap<AdBreak> streamAds = streamAdvertisements.get(streamId);
+        if (streamAds != null) {
+            List<Path> expired = new ArrayList<>();
+            synchronized (streamAds) {
+                streamAds.removeIf((start, adBreak) -> {
+                    if (adBreak.lastSegment() >= windowStart) {
+                        return false;
+                    }
+                    expired.addAll(adBreak.files());
+                    return true;
+                });
+            }
+            // Uploaded copies stay in storage for players still behind the live edge
+            for (Path file : expired) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (Exception e) {
+                    log.debug("Could not delete expired advertisement file {}", file);
+                }
+            }
+        }
+    }
+
+    @EventListener
+    public void onStreamStopped(StreamStoppedEvent event) {
+        streamAdvertisements.remove(event.streamId());
+        sharedAdvertisements.remove(event.streamId());
     }
 
     public void removeAdvertisement(String streamId, int startSegment, int endSegment) {
-        ConcurrentHashMap<Integer, String> streamAds = streamAdvertisements.get(streamId);
+        IntObjectMap<AdBreak> sharedAds = sharedAdvertisements.get(streamId);
+        if (sharedAds != null) {
+            for (int i = startSegment; i <= endSegment; i++) {
+                adDecisionService.removeBreak(streamId, i);
+                AdBreak removed;
+                synchronized (sharedAds) {
+                    removed = sharedAds.remove(i);
+                }
+                if (removed != null) {
+                    // Other breaks and streams may still play the shared copy; the cache evicts it once unpinned
+                    removed.renditions().forEach(hash -> adRenditionCache.release(hash, streamId));
+                }
+            }
+        }
+
+        IntObjectMap<AdBreak> streamAds = streamAdvertisements.get(streamId);
         if (streamAds != null) {
             List<StorageService> services = storageManager.getStoragesForStream(streamId);
 
             for (int i = startSegment; i <= endSegment; i++) {
-                String path = streamAds.remove(i);
-                if (path != null) {
+                AdBreak removed;
+                synchronized (streamAds) {
+                    removed = streamAds.remove(i);
+                }
+                if (removed != null) {
                     // Remove from all storages
                     for (StorageService service : services) {
-                        try {
-                            String adSegmentName = ADVERTISEMENT_PREFIX + "_" + i + ".ts";
-                            service.deleteSegment(streamId, adSegmentName);
-                        } catch (Exception e) {
-                            log.error("Failed to delete advertisement from storage {}: {}",
-                                    service.getStorageType(), e.getMessage());
+                        for (Path file : removed.files()) {
+                            try {
+                                service.deleteSegment(streamId, file.getFileName().toString());
+                            } catch (Exception e) {
+                                log.error("Failed to delete advertisement from storage {}: {}",
+                                        service.getStorageType(), e.getMessage());
+                            }
                         }
                     }
 
-                    // Remove local file
-                    try {
-                        Files.deleteIfExists(Path.of(path));
-                    } catch (Exception e) {
-                        log.error("Failed to delete local advertisement file", e);
+                    // Remove local files
+                    for (Path file : removed.files()) {
+                        try {
+                            Files.deleteIfExists(file);
+                        } catch (Exception e) {
+                            log.error("Failed to delete local advertisement file", e);
+                        }
                     }
                 }
             }
         }
     }
 
+    // renditions are the pinned creatives of a shared break, the committed one first; files are the
+    // segments of a per-stream break, which share their directory with the live segments
+    private record AdBreak(List<String> renditions, List<Path> files, int lastSegment) {}
+
     private String getExtension(String filename) {
         return filename != null && filename.contains(".") ?
                 filename.substring(filename.lastIndexOf(".")) : "";
@@ -1,11 +1,24 @@
 package com.streamsegmenter.service;
 
+import com.streamsegmenter.config.ThumbnailConfig;
+import com.streamsegmenter.jfr.AdTranscodeEvent;
+import com.streamsegmenter.jfr.FFmpegExitedEvent;
+import com.streamsegmenter.jfr.FFmpegSpawnedEvent;
 import com.streamsegmenter.model.StreamRequest;
 import org.springframework.stereotype.Service;
 import com.streamsegmenter.model.VideoQuality;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.extern.slf4j.Slf4j;
 import java.util.ArrayList;
 import java.util.List;
@@ -18,17 +31,33 @@ public class FFmpegService {
     private static final Logger performanceLogger = LoggerFactory.getLogger("com.streamsegmenter.performance");
     private final ConcurrentHashMap<String, Process> activeProcesses = new ConcurrentHashMap<>();
     private final String ffmpegPath;
+    private final ThumbnailConfig thumbnailConfig;
     private static final int STANDARD_SEGMENT_DURATION = 5;
+    // Live and ad renditions share these so a splice does not force a decoder or bitrate change
+    private static final int FRAME_RATE = 25;
+    private static final int AUDIO_SAMPLE_RATE = 48000;
+    private static final int AUDIO_CHANNELS = 2;
+    // Ads at least this many segments long are cut into chunks and encoded side by side
+    private static final int PARALLEL_MIN_SEGMENTS = 4;
+    private static final int CHUNK_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private final ExecutorService chunkPool = Executors.newFixedThreadPool(CHUNK_WORKERS, r -> {
+        Thread thread = new Thread(r, "ffmpeg-chunk");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    public FFmpegService() {
+    public FFmpegService(ThumbnailConfig thumbnailConfig) {
+        this.thumbnailConfig = thumbnailConfig;
         this.ffmpegPath = System.getProperty("os.name").toLowerCase().contains("win")
                 ? "C:\\ffmpeg-master-latest-win64-gpl\\bin\\ffmpeg"
                 : "ffmpeg";
     }
 
+    // spritePattern, when set, adds a tiled thumbnail output fed by the same decode as the live rendition
     public CompletableFuture<Void> startStreamProcessing(String streamId, String streamUrl,
                                                          Path outputPattern, VideoQuality quality,
-                                                         StreamRequest.Watermark watermark) {
+                                                         StreamRequest.Watermark watermark,
+                                                         int startNumber, Path spritePattern) {
         long startTime = System.currentTimeMillis();
         return CompletableFuture.runAsync(() -> {
             try {
@@ -37,36 +66,41 @@ public class FFmpegService {
                 command.add("-i");
                 command.add(streamUrl);
 
+                String videoChain = "[0:v]" + scaleFilter(quality);
                 if (watermark != null) {
                     if (watermark.getImagePath() != null) {
                         command.add("-i");
                         command.add(watermark.getImagePath());
-                        command.add("-filter_complex");
-                        command.add(String.format(
+                        videoChain = String.format(
                                 "[1:v]scale=-1:%d,format=rgba,colorchannelmixer=aa=%f[watermark];" +
-                                        "[0:v][watermark]overlay=%d:%d",
+                                        "[0:v][watermark]overlay=%d:%d,%s",
                                 watermark.getSize(), watermark.getOpacity(),
-                                watermark.getX(), watermark.getY()
-                        ));
+                                watermark.getX(), watermark.getY(), scaleFilter(quality)
+                        );
                     } else if (watermark.getText() != null) {
-                        command.add("-vf");
-                        command.add(String.format(
-                                "drawtext=text='%s':fontsize=%d:fontcolor=%s@%f:x=%d:y=%d",
+                        videoChain = String.format(
+                                "[0:v]drawtext=text='%s':fontsize=%d:fontcolor=%s@%f:x=%d:y=%d,%s",
                                 watermark.getText(), watermark.getSize(), watermark.getColor(),
-                                watermark.getOpacity(), watermark.getX(), watermark.getY()
-                        ));
+                                watermark.getOpacity(), watermark.getX(), watermark.getY(), scaleFilter(quality)
+                        );
                     }
                 }
+                if (spritePattern != null) {
+                    // Frames are split off after scaling, so thumbnails cost a downscale and a JPEG every few seconds
+                    videoChain += String.format(",split=2[live][thumbs];[thumbs]fps=1/%d,scale=%d:%d,tile=%dx%d[sprite]",
+                            thumbnailConfig.getIntervalSeconds(), thumbnailConfig.getWidth(),
+                            thumbnailConfig.heightFor(quality), thumbnailConfig.getColumns(), thumbnailConfig.getRows());
+                } else {
+                    videoChain += "[live]";
+                }
+                command.add("-filter_complex");
+                command.add(videoChain);
 
-                command.add("-c:v");
-                command.add("libx264");
-                command.add("-b:v");
-                command.add(quality.getVideoBitrateKbps() + "k");
-
-                command.add("-c:a");
-                command.add("aac");
-                command.add("-b:a");
-                command.add(quality.getAudioBitrateKbps() + "k");
+                command.add("-map");
+                command.add("[live]");
+                command.add("-map");
+                command.add("0:a?");
+                addEncodingArgs(command, quality);
 
                 command.add("-f");
                 command.add("segment");
@@ -78,17 +112,31 @@ public class FFmpegService {
                 command.add("0");
                 command.add("-segment_list_flags");
                 command.add("+live");
-                command.add("-map");
-                command.add("0");
+                command.add("-segment_start_number");
+                command.add(String.valueOf(startNumber));
                 command.add(outputPattern.toString());
 
+                if (spritePattern != null) {
+                    command.add("-map");
+                    command.add("[sprite]");
+                    command.add("-c:v");
+                    command.add("mjpeg");
+                    command.add("-q:v");
+                    command.add("5");
+                    command.add("-f");
+                    command.add("image2");
+                    // Written under a temporary name and renamed, so a listed sprite is always complete
+                    command.add("-atomic_writing");
+                    command.add("1");
+                    command.add("-start_number");
+                    command.add("0");
+                    command.add(spritePattern.toString());
+                }
+
                 log.debug("Starting FFmpeg process with command: {}", String.join(" ", command));
                 ProcessBuilder pb = new ProcessBuilder(command);
                 pb.inheritIO();
-                Process process = pb.start();
-                activeProcesses.put(streamId, process);
-
-                int exitCode = process.waitFor();
+                int exitCode = run(pb, streamId, "live", process -> activeProcesses.put(streamId, process));
                 long duration = System.currentTimeMillis() - startTime;
                 performanceLogger.info("FFmpeg process completed in {} ms for streamId: {}", duration, streamId);
 
@@ -106,8 +154,10 @@ public class FFmpegService {
         });
     }
 
-    public void convertImageToVideo(Path imagePath, Path outputPath, int durationSeconds, int startSegment) {
+    public void convertImageToVideo(Path imagePath, Path outputPath, int durationSeconds, int startSegment,
+                                    VideoQuality quality) {
         long startTime = System.currentTimeMillis();
+        AdTranscodeEvent event = beginTranscode(outputPath, "image", startSegment, durationSeconds, quality);
         try {
             List<String> command = new ArrayList<>();
             command.add(ffmpegPath);
@@ -115,8 +165,23 @@ public class FFmpegService {
             command.add("1");
             command.add("-i");
             command.add(imagePath.toString());
-            command.add("-vf");
-            command.add("scale=trunc(iw/2)*2:trunc(ih/2)*2");
+            if (quality != null) {
+                // Silent track so the break keeps the same stream layout as the live segments
+                command.add("-f");
+                command.add("lavfi");
+                command.add("-i");
+                command.add(String.format("anullsrc=channel_layout=stereo:sample_rate=%d", AUDIO_SAMPLE_RATE));
+                command.add("-map");
+                command.add("0:v");
+                command.add("-map");
+                command.add("1:a");
+                command.add("-vf");
+                command.add(scaleFilter(quality));
+                addEncodingArgs(command, quality);
+            } else {
+                command.add("-vf");
+                command.add("scale=trunc(iw/2)*2:trunc(ih/2)*2");
+            }
             command.add("-t");
             command.add(String.valueOf(durationSeconds));
             command.add("-pix_fmt");
@@ -138,15 +203,12 @@ public class FFmpegService {
             }
 
             log.debug("Starting image conversion with command: {}", String.join(" ", command));
-            Process process = new ProcessBuilder(command)
-                    .inheritIO()
-                    .start();
-
-            int exitCode = process.waitFor();
+            int exitCode = run(new ProcessBuilder(command).inheritIO(), event.streamId, "ad-image", process -> {});
             long duration = System.currentTimeMillis() - startTime;
 
             if (exitCode == 0) {
                 performanceLogger.info("Image conversion completed in {} ms", duration);
+                event.succeeded = true;
             } else {
                 throw new RuntimeException("FFmpeg image conversion failed with exit code: " + exitCode);
             }
@@ -154,22 +216,59 @@ public class FFmpegService {
             long duration = System.currentTimeMillis() - startTime;
             performanceLogger.error("Image conversion failed in {} ms: {}", duration, e.getMessage());
             throw new RuntimeException("Failed to convert image to video", e);
+        } finally {
+            event.commit();
+        }
+    }
+
+    public void convertVideoToSegments(Path videoPath, Path outputPath, int startSegment, int durationSeconds,
+                                       VideoQuality quality) {
+        AdTranscodeEvent event = beginTranscode(outputPath, "video", startSegment, durationSeconds, quality);
+        try {
+            if (quality != null && durationSeconds >= PARALLEL_MIN_SEGMENTS * STANDARD_SEGMENT_DURATION) {
+                convertVideoInChunks(videoPath, outputPath, startSegment, durationSeconds, quality);
+            } else {
+                convertVideo(videoPath.toString(), null, outputPath, startSegment, durationSeconds, quality);
+            }
+            event.succeeded = true;
+        } finally {
+            event.commit();
         }
     }
 
-    public void convertVideoToSegments(Path videoPath, Path outputPath, int startSegment, int durationSeconds) {
+    // Encodes while the upload is still arriving; the input must be a streamable container
+    // (MPEG-TS, WebM, fragmented or faststart MP4) since a pipe cannot be seeked
+    public void convertVideoStream(InputStream input, Path outputPath, int startSegment, int durationSeconds,
+                                   VideoQuality quality) {
+        AdTranscodeEvent event = beginTranscode(outputPath, "stream", startSegment, durationSeconds, quality);
+        try {
+            convertVideo("pipe:0", input, outputPath, startSegment, durationSeconds, quality);
+            event.succeeded = true;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private void convertVideo(String inputArg, InputStream input, Path outputPath, int startSegment,
+                              int durationSeconds, VideoQuality quality) {
         long startTime = System.currentTimeMillis();
         try {
             List<String> command = new ArrayList<>();
             command.add(ffmpegPath);
             command.add("-i");
-            command.add(videoPath.toString());
+            command.add(inputArg);
 
             // Video kodek ayarları
-            command.add("-c:v");
-            command.add("libx264");
-            command.add("-c:a");
-            command.add("aac");
+            if (quality != null) {
+                command.add("-vf");
+                command.add(scaleFilter(quality));
+                addEncodingArgs(command, quality);
+            } else {
+                command.add("-c:v");
+                command.add("libx264");
+                command.add("-c:a");
+                command.add("aac");
+            }
 
             if (durationSeconds > 0) {
                 command.add("-t");
@@ -194,11 +293,15 @@ public class FFmpegService {
             }
 
             log.debug("Starting video conversion with command: {}", String.join(" ", command));
-            Process process = new ProcessBuilder(command)
-                    .inheritIO()
-                    .start();
-
-            int exitCode = process.waitFor();
+            ProcessBuilder pb = new ProcessBuilder(command).inheritIO();
+            if (input != null) {
+                pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+            }
+            int exitCode = run(pb, adTarget(outputPath), "ad-video", process -> {
+                if (input != null) {
+                    feed(input, process);
+                }
+            });
             long duration = System.currentTimeMillis() - startTime;
 
             if (exitCode == 0) {
@@ -213,6 +316,237 @@ public class FFmpegService {
         }
     }
 
+    // Chunks start on segment boundaries, which the fixed GOP turns into keyframes, so each chunk is
+    // encoded independently and -output_ts_offset keeps timestamps continuous across the joins
+    private void convertVideoInChunks(Path videoPath, Path outputPath, int startSegment, int durationSeconds,
+                                      VideoQuality quality) {
+        long startTime = System.currentTimeMillis();
+        int totalSegments = (int) Math.ceil(durationSeconds / (double) STANDARD_SEGMENT_DURATION);
+        int segmentsPerChunk = (int) Math.ceil(totalSegments / (double) CHUNK_WORKERS);
+        int threadsPerChunk = Math.max(1, Runtime.getRuntime().availableProcessors() / CHUNK_WORKERS);
+        String segmentPattern = outputPath.getParent()
+                .resolve(String.format("advertisement_%d_%%d.ts", startSegment)).toString();
+        String target = adTarget(outputPath);
+        // One failed chunk kills its siblings; cancelling the futures alone would leave FFmpeg running
+        Set<Process> running = ConcurrentHashMap.newKeySet();
+        AtomicBoolean aborted = new AtomicBoolean();
+        Runnable abort = () -> {
+            if (aborted.compareAndSet(false, true)) {
+                running.forEach(Process::destroyForcibly);
+            }
+        };
+
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int firstSegment = 0; firstSegment < totalSegments; firstSegment += segmentsPerChunk) {
+            int chunkStart = firstSegment * STANDARD_SEGMENT_DURATION;
+            int chunkDuration = Math.min(segmentsPerChunk * STANDARD_SEGMENT_DURATION, durationSeconds - chunkStart);
+
+            List<String> command = new ArrayList<>();
+            command.add(ffmpegPath);
+            command.add("-ss");
+            command.add(String.valueOf(chunkStart));
+            command.add("-i");
+            command.add(videoPath.toString());
+            command.add("-t");
+            command.add(String.valueOf(chunkDuration));
+            command.add("-vf");
+            command.add(scaleFilter(quality));
+            addEncodingArgs(command, quality);
+            command.add("-threads");
+            command.add(String.valueOf(threadsPerChunk));
+            command.add("-output_ts_offset");
+            command.add(String.valueOf(chunkStart));
+            command.add("-f");
+            command.add("segment");
+            command.add("-segment_time");
+            command.add(String.valueOf(STANDARD_SEGMENT_DURATION));
+            command.add("-segment_format");
+            command.add("mpegts");
+            command.add("-segment_start_number");
+            command.add(String.valueOf(firstSegment));
+            command.add(segmentPattern);
+
+            chunks.add(CompletableFuture.runAsync(() -> runChunk(command, target, running, aborted), chunkPool)
+                    .whenComplete((ignored, e) -> {
+                        if (e != null) {
+                            abort.run();
+                        }
+                    }));
+        }
+
+        try {
+            // allOf settles only once every chunk has exited, so nothing is still writing on failure
+            CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).join();
+            long duration = System.currentTimeMillis() - startTime;
+            performanceLogger.info("Chunked video conversion of {} segments in {} chunks completed in {} ms",
+                    totalSegments, chunks.size(), duration);
+        } catch (Exception e) {
+            deleteChunkOutputs(outputPath.getParent(), startSegment);
+            long duration = System.currentTimeMillis() - startTime;
+            performanceLogger.error("Chunked video conversion failed in {} ms: {}", duration, e.getMessage());
+            throw new RuntimeException("Failed to convert video to segments", e);
+        }
+    }
+
+    // FFmpeg stops reading once -t is reached; the rest of the body is still consumed so callers
+    // that digest the stream see all of it
+    private void feed(InputStream input, Process process) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        OutputStream stdin = process.getOutputStream();
+        boolean accepting = true;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            if (!accepting) {
+                continue;
+            }
+            try {
+                stdin.write(buffer, 0, read);
+            } catch (IOException e) {
+                accepting = false;
+            }
+        }
+        try {
+            stdin.close();
+        } catch (IOException e) {
+            log.debug("FFmpeg closed its input early: {}", e.getMessage());
+        }
+    }
+
+    private void runChunk(List<String> command, String target, Set<Process> running, AtomicBoolean aborted) {
+        if (aborted.get()) {
+            throw new IllegalStateException("Chunk conversion skipped after a sibling chunk failed");
+        }
+        Process[] started = new Process[1];
+        try {
+            log.debug("Starting video chunk conversion with command: {}", String.join(" ", command));
+            int exitCode = run(new ProcessBuilder(command).inheritIO(), target, "ad-chunk", process -> {
+                started[0] = process;
+                running.add(process);
+                // The abort may have swept the set just before this process was added
+                if (aborted.get()) {
+                    process.destroyForcibly();
+                }
+            });
+            if (exitCode != 0) {
+                throw new RuntimeException("FFmpeg chunk conversion failed with exit code: " + exitCode);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Chunk conversion interrupted", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to start FFmpeg chunk conversion", e);
+        } finally {
+            if (started[0] != null) {
+                running.remove(started[0]);
+            }
+        }
+    }
+
+    private void deleteChunkOutputs(Path dir, int startSegment) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                String.format("advertisement_%d_*.ts", startSegment))) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete partial advertisement chunks in {}: {}", dir, e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface ProcessHook {
+        void started(Process process) throws IOException;
+    }
+
+    // Every FFmpeg launch goes through here so spawn and exit show up in flight recordings
+    private int run(ProcessBuilder pb, String streamId, String purpose, ProcessHook onStart)
+            throws IOException, InterruptedException {
+        FFmpegExitedEvent exited = new FFmpegExitedEvent();
+        exited.begin();
+        Process process = pb.start();
+
+        FFmpegSpawnedEvent spawned = new FFmpegSpawnedEvent();
+        if (spawned.isEnabled()) {
+            spawned.streamId = streamId;
+            spawned.purpose = purpose;
+            spawned.pid = process.pid();
+            spawned.commit();
+        }
+
+        int exitCode = -1;
+        try {
+            onStart.started(process);
+            exitCode = process.waitFor();
+            return exitCode;
+        } finally {
+            if (exited.shouldCommit()) {
+                exited.streamId = streamId;
+                exited.purpose = purpose;
+                exited.pid = process.pid();
+                exited.exitCode = exitCode;
+                exited.commit();
+            }
+        }
+    }
+
+    private AdTranscodeEvent beginTranscode(Path outputPath, String sourceType, int startSegment,
+                                            int durationSeconds, VideoQuality quality) {
+        AdTranscodeEvent event = new AdTranscodeEvent();
+        if (event.isEnabled()) {
+            event.streamId = adTarget(outputPath);
+            event.sourceType = sourceType;
+            event.startSegment = startSegment;
+            event.durationSeconds = durationSeconds;
+            event.quality = quality != null ? quality.name() : null;
+        }
+        event.begin();
+        return event;
+    }
+
+    // Ads are written into the stream's directory, or a rendition's when they are shared
+    private static String adTarget(Path outputPath) {
+        Path directory = outputPath.getParent();
+        return directory != null && directory.getFileName() != null ? directory.getFileName().toString() : null;
+    }
+
+    // Letterboxes into the quality's frame so every rendition of a stream has the same resolution
+    private String scaleFilter(VideoQuality quality) {
+        return String.format("scale=%d:%d:force_original_aspect_ratio=decrease,pad=%d:%d:(ow-iw)/2:(oh-ih)/2,setsar=1",
+                quality.getWidth(), quality.getHeight(), quality.getWidth(), quality.getHeight());
+    }
+
+    // Fixed frame rate and a closed GOP of exactly one segment, so every segment starts on a keyframe
+    private void addEncodingArgs(List<String> command, VideoQuality quality) {
+        int gopSize = FRAME_RATE * STANDARD_SEGMENT_DURATION;
+        command.add("-c:v");
+        command.add("libx264");
+        command.add("-b:v");
+        command.add(quality.getVideoBitrateKbps() + "k");
+        command.add("-maxrate");
+        command.add(quality.getVideoBitrateKbps() + "k");
+        command.add("-bufsize");
+        command.add(quality.getVideoBitrateKbps() * 2 + "k");
+        command.add("-r");
+        command.add(String.valueOf(FRAME_RATE));
+        command.add("-g");
+        command.add(String.valueOf(gopSize));
+        command.add("-keyint_min");
+        command.add(String.valueOf(gopSize));
+        command.add("-sc_threshold");
+        command.add("0");
+        command.add("-force_key_frames");
+        command.add(String.format("expr:gte(t,n_forced*%d)", STANDARD_SEGMENT_DURATION));
+
+        command.add("-c:a");
+        command.add("aac");
+        command.add("-b:a");
+        command.add(quality.getAudioBitrateKbps() + "k");
+        command.add("-ar");
+        command.add(String.valueOf(AUDIO_SAMPLE_RATE));
+        command.add("-ac");
+        command.add(String.valueOf(AUDIO_CHANNELS));
+    }
+
     public void stopProcess(String streamId) {
         Process process = activeProcesses.remove(streamId);
         if (process != null && process.isAlive()) {
@@ -0,0 +1,157 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.model.StreamRequest;
+import com.streamsegmenter.model.VideoQuality;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Running encodes on this node by what they produce. The first stream of an ingest owns the FFmpeg
+// process and the segment prefix; streams started later with the same source and output settings
+// attach as aliases and publish their own playlists over the owner's segments.
+@Component
+public class IngestRegistry {
+    private final Map<String, Ingest> byKey = new HashMap<>();
+    private final Map<String, Ingest> byStream = new HashMap<>();
+
+    public enum ReleaseKind {
+        // Not shared: stop the encode as usual
+        LAST,
+        // The owner left while aliases still use the encode; keep it running
+        DETACHED,
+        // An alias left; the encode stays with its owner
+        ALIAS
+    }
+
+    // ingestIdle: the released alias was the last user of an encode whose owner already left
+    public record Release(ReleaseKind kind, String ownerId, boolean ingestIdle) {}
+
+    // Registers streamId and returns the owner it should alias, or null if it starts its own encode
+    public synchronized String attach(String key, String streamId) {
+        Ingest ingest = byKey.get(key);
+        if (ingest == null) {
+            ingest = new Ingest(key, streamId);
+            byKey.put(key, ingest);
+            byStream.put(streamId, ingest);
+            return null;
+        }
+        ingest.aliases.add(streamId);
+        byStream.put(streamId, ingest);
+        return ingest.ownerId;
+    }
+
+    public synchronized Release release(String streamId) {
+        Ingest ingest = byStream.remove(streamId);
+        if (ingest == null) {
+            return new Release(ReleaseKind.LAST, streamId, false);
+        }
+        if (!ingest.ownerId.equals(streamId)) {
+            ingest.aliases.remove(streamId);
+            boolean idle = !ingest.ownerAttached && ingest.aliases.isEmpty();
+            if (idle) {
+                byKey.remove(ingest.key);
+                byStream.remove(ingest.ownerId);
+            }
+            return new Release(ReleaseKind.ALIAS, ingest.ownerId, idle);
+        }
+        if (ingest.aliases.isEmpty()) {
+            byKey.remove(ingest.key);
+            return new Release(ReleaseKind.LAST, streamId, false);
+        }
+        ingest.ownerAttached = false;
+        // Keeps the owner id resolvable so the encode can still be stopped by it
+        byStream.put(streamId, ingest);
+        return new Release(ReleaseKind.DETACHED, streamId, false);
+    }
+
+    // Drops the whole ingest, e.g. when its encode died; returns the aliases that were attached
+    public synchronized List<String> remove(String ownerId) {
+        Ingest ingest = byStream.get(ownerId);
+        if (ingest == null || !ingest.ownerId.equals(ownerId)) {
+            return List.of();
+        }
+        byKey.remove(ingest.key);
+        byStream.remove(ownerId);
+        List<String> aliases = new ArrayList<>(ingest.aliases);
+        aliases.forEach(byStream::remove);
+        return aliases;
+    }
+
+    public synchronized List<String> getAliases(String ownerId) {
+        Ingest ingest = byStream.get(ownerId);
+        return ingest != null && ingest.ownerId.equals(ownerId) ? new ArrayList<>(ingest.aliases) : List.of();
+    }
+
+    // The stream whose encode and segment prefix streamId uses; itself when it is not an alias
+    public synchronized String getOwner(String streamId) {
+        Ingest ingest = byStream.get(streamId);
+        return ingest != null ? ingest.ownerId : streamId;
+    }
+
+    public synchronized boolean isOwnerAttached(String streamId) {
+        Ingest ingest = byStream.get(streamId);
+        return ingest == null || !ingest.ownerId.equals(streamId) || ingest.ownerAttached;
+    }
+
+    // Storage types are part of the key because aliases reference the owner's uploaded segments
+    public static String key(String streamUrl, VideoQuality quality, StreamRequest.Watermark watermark,
+                             List<String> storageTypes) {
+        StringBuilder key = new StringBuilder(normalizeUrl(streamUrl)).append('|').append(quality);
+        if (watermark != null && (watermark.getImagePath() != null || watermark.getText() != null)) {
+            key.append("|wm:").append(watermark.getImagePath()).append(':').append(watermark.getText())
+                    .append(':').append(watermark.getX()).append(':').append(watermark.getY())
+                    .append(':').append(watermark.getSize()).append(':').append(watermark.getColor())
+                    .append(':').append(watermark.getOpacity());
+        }
+        Set<String> types = new TreeSet<>();
+        if (storageTypes != null) {
+            storageTypes.forEach(type -> types.add(type.toUpperCase(Locale.ROOT)));
+        }
+        return key.append('|').append(types).toString();
+    }
+
+    private static String normalizeUrl(String streamUrl) {
+        try {
+            URI uri = new URI(streamUrl.trim()).normalize();
+            String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.ROOT) : null;
+            String host = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ROOT) : null;
+            int port = uri.getPort() == defaultPort(scheme) ? -1 : uri.getPort();
+            return new URI(scheme, uri.getUserInfo(), host, port, uri.getPath(), uri.getQuery(), null).toString();
+        } catch (Exception e) {
+            return streamUrl.trim();
+        }
+    }
+
+    private static int defaultPort(String scheme) {
+        if (scheme == null) {
+            return -1;
+        }
+        return switch (scheme) {
+            case "http" -> 80;
+            case "https" -> 443;
+            case "rtmp" -> 1935;
+            case "rtsp" -> 554;
+            default -> -1;
+        };
+    }
+
+    private static final class Ingest {
+        private final String key;
+        private final String ownerId;
+        private final Set<String> aliases = new LinkedHashSet<>();
+        private boolean ownerAttached = true;
+
+        private Ingest(String key, String ownerId) {
+            this.key = key;
+            this.ownerId = ownerId;
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.streamsegmenter.service;
 
+import com.streamsegmenter.cluster.PlaylistReplicator;
+import com.streamsegmenter.jfr.PlaylistRenderedEvent;
 import com.streamsegmenter.model.AdvertisementInfo;
+import com.streamsegmenter.model.PlaylistChange;
+import com.streamsegmenter.model.SegmentInfo;
+import com.streamsegmenter.util.IntObjectMap;
 import org.springframework.stereotype.Service;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.CacheEvict;
@@ -19,12 +24,30 @@ import java.nio.file.Files;
 public class M3u8Service {
     private static final Logger performanceLogger = LoggerFactory.getLogger("com.streamsegmenter.performance");
     private final StorageManager storageManager;
+    private final PlaylistReplicator playlistReplicator;
+    private final PlaylistPushService playlistPushService;
+    private final AdDecisionService adDecisionService;
+    private final StreamJournal streamJournal;
     private final Map<String, TreeSet<Integer>> streamSequences = new ConcurrentHashMap<>();
     private final Map<String, Map<String, String>> playlistContents = new ConcurrentHashMap<>();
-    private final Map<String, Map<Integer, AdvertisementInfo>> advertisementSegments = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, PlaylistTemplate>> playlistTemplates = new ConcurrentHashMap<>();
+    // Keyed by segment sequence and pruned with the window; guarded by the stream lock
+    private final Map<String, IntObjectMap<AdvertisementInfo>> advertisementSegments = new ConcurrentHashMap<>();
+    // Measured duration and bitrate of each live segment still in the window
+    private final Map<String, Map<Integer, SegmentInfo>> segmentInfos = new ConcurrentHashMap<>();
+    // I-frames that have slid out of the window, i.e. the I-frame playlist's media sequence
+    private final Map<String, Integer> iFrameSequences = new ConcurrentHashMap<>();
+    // Streams whose live segments are uploaded under another stream's prefix (a shared ingest)
+    private final Map<String, String> segmentPrefixes = new ConcurrentHashMap<>();
+    // First sequence of a resumed encode, where timestamps restart
+    private final Map<String, Set<Integer>> resumePoints = new ConcurrentHashMap<>();
+    // Playlist state is per stream, so streams are locked independently and rebuild in parallel
+    private final Map<String, Object> streamLocks = new ConcurrentHashMap<>();
 
-    private static final int SEGMENT_DURATION = 5;
-    private static final int MAX_SEGMENTS = 6;
+    static final int SEGMENT_DURATION = 5;
+    static final int MAX_SEGMENTS = 6;
+    private static final String IFRAMES_SUFFIX = ":iframes";
+    private static final String MASTER_SUFFIX = ":master";
 
     @Cacheable(value = "m3u8Urls", key = "#streamId", unless = "#result == null")
     public List<String> getM3u8Urls(String streamId) {
@@ -48,13 +71,55 @@ public class M3u8Service {
         }
     }
 
-    public void registerAdvertisement(String streamId, int segmentNumber, String segmentPath, int duration) {
+    public boolean registerAdvertisement(String streamId, int segmentNumber, String segmentPath, int duration) {
+        return registerAdvertisement(streamId, segmentNumber, segmentPath, duration, null, segmentNumber);
+    }
+
+    // Shared renditions are cut once with index 0 and referenced from every stream under storagePrefix
+    public boolean registerSharedAdvertisement(String streamId, int segmentNumber, String storagePrefix,
+                                               String segmentPath, int duration) {
+        return registerAdvertisement(streamId, segmentNumber, segmentPath, duration, storagePrefix, 0);
+    }
+
+    // Highest live sequence already in the playlist, or -1 before the first segment
+    public int getLatestSequence(String streamId) {
+        synchronized (lockFor(streamId)) {
+            TreeSet<Integer> sequences = streamSequences.get(streamId);
+            return sequences == null || sequences.isEmpty() ? -1 : sequences.last();
+        }
+    }
+
+    // Commits the break only while its first segment is still ahead of the live edge; callers stage
+    // and upload everything first so a committed break never points at missing segments
+    private boolean registerAdvertisement(String streamId, int segmentNumber, String segmentPath,
+                                          int duration, String storagePrefix, int nameIndex) {
+        synchronized (lockFor(streamId)) {
+            int latestSequence = getLatestSequence(streamId);
+            if (segmentNumber <= latestSequence) {
+                log.warn("Advertisement for stream {} at segment {} missed the break, live edge is already at {}",
+                        streamId, segmentNumber, latestSequence);
+                return false;
+            }
+
+            putAdvertisement(streamId, segmentNumber, segmentPath, duration, storagePrefix, nameIndex);
+            streamJournal.advertisementRegistered(streamId,
+                    new StreamJournal.JournaledAd(segmentNumber, segmentPath, duration, storagePrefix));
+
+            updatePlaylist(streamId);
+            log.info("Registered advertisement for stream {} starting at segment {}, total duration: {}s",
+                    streamId, segmentNumber, duration);
+            return true;
+        }
+    }
+
+    private void putAdvertisement(String streamId, int segmentNumber, String segmentPath,
+                                  int duration, String storagePrefix, int nameIndex) {
         int totalSegments = (int) Math.ceil(duration / (double) SEGMENT_DURATION);
-        Map<Integer, AdvertisementInfo> streamAds = advertisementSegments.computeIfAbsent(streamId, k -> new ConcurrentHashMap<>());
+        IntObjectMap<AdvertisementInfo> streamAds = advertisementSegments.computeIfAbsent(streamId, k -> new IntObjectMap<>());
 
         if (duration <= SEGMENT_DURATION) {
-            String adSegmentName = String.format("advertisement_%d.ts", segmentNumber);
-            streamAds.put(segmentNumber, new AdvertisementInfo(segmentPath, duration, adSegmentName, false));
+            String adSegmentName = String.format("advertisement_%d.ts", nameIndex);
+            streamAds.put(segmentNumber, new AdvertisementInfo(segmentPath, duration, adSegmentName, false, storagePrefix, segmentNumber));
         } else {
             for (int i = 0; i < totalSegments; i++) {
                 int currentSegment = segmentNumber + i;
@@ -62,25 +127,46 @@ public class M3u8Service {
                         ? duration - (i * SEGMENT_DURATION)
                         : SEGMENT_DURATION;
 
-                String adSegmentName = String.format("advertisement_%d_%d.ts", segmentNumber, i);
-                streamAds.put(currentSegment, new AdvertisementInfo(segmentPath, segmentDuration, adSegmentName, false));
+                String adSegmentName = String.format("advertisement_%d_%d.ts", nameIndex, i);
+                streamAds.put(currentSegment, new AdvertisementInfo(segmentPath, segmentDuration, adSegmentName, false, storagePrefix, segmentNumber));
             }
         }
+    }
 
-        updatePlaylist(streamId);
-        log.info("Registered advertisement for stream {} starting at segment {}, total duration: {}s",
-                streamId, segmentNumber, duration);
+    // Rebuilds a stream's playlist window from the journal after a restart. Ingest resumes right
+    // after the last restored segment, which is marked as a discontinuity.
+    public void restoreStream(String streamId, NavigableMap<Integer, SegmentInfo> segments,
+                              List<StreamJournal.JournaledAd> advertisements) {
+        synchronized (lockFor(streamId)) {
+            for (StreamJournal.JournaledAd ad : advertisements) {
+                putAdvertisement(streamId, ad.segmentNumber(), ad.segmentPath(), ad.duration(), ad.storagePrefix(),
+                        ad.storagePrefix() != null ? 0 : ad.segmentNumber());
+            }
+            if (segments.isEmpty()) {
+                return;
+            }
+            TreeSet<Integer> sequences = streamSequences.computeIfAbsent(streamId, k -> new TreeSet<>());
+            Map<Integer, SegmentInfo> infos = segmentInfos.computeIfAbsent(streamId, k -> new HashMap<>());
+            sequences.addAll(segments.keySet());
+            infos.putAll(segments);
+            markResumePoint(streamId, segments.lastKey() + 1);
+            updatePlaylist(streamId);
+        }
+    }
+
+    // The segment where a new encoder picks the stream up is preceded by a discontinuity
+    public void markResumePoint(String streamId, int sequence) {
+        resumePoints.computeIfAbsent(streamId, k -> ConcurrentHashMap.newKeySet()).add(sequence);
+    }
+
+    public void setSegmentPrefix(String streamId, String segmentPrefix) {
+        segmentPrefixes.put(streamId, segmentPrefix);
     }
 
     public String getPlaylistContent(String streamId, String storageType) {
         long startTime = System.currentTimeMillis();
         try {
-            Map<String, String> streamPlaylists = playlistContents.get(streamId);
-            if (streamPlaylists == null) {
-                return generateEmptyPlaylist(0);
-            }
-
-            String content = streamPlaylists.get(storageType.toLowerCase());
+            String content = findPlaylist(streamId, storageType.toLowerCase());
             if (content == null) {
                 return generateEmptyPlaylist(0);
             }
@@ -97,28 +183,114 @@ public class M3u8Service {
         }
     }
 
-    @CacheEvict(value = "segments", key = "#streamId")
-    public synchronized void addSegment(String streamId, String segmentName) {
-        long startTime = System.currentTimeMillis();
-        try {
-            int sequence = extractSequenceNumber(segmentName);
-            TreeSet<Integer> sequences = streamSequences.computeIfAbsent(streamId, k -> new TreeSet<>());
-            sequences.add(sequence);
+    // Keyframe-only playlist addressing byte ranges of the live segments, for scrubbing and trick play
+    public String getIFramePlaylistContent(String streamId, String storageType) {
+        String content = findPlaylist(streamId, storageType.toLowerCase() + IFRAMES_SUFFIX);
+        return content != null ? content : generateEmptyPlaylist(0);
+    }
+
+    // Null until the first segment has been measured
+    public String getMasterPlaylistContent(String streamId, String storageType) {
+        return findPlaylist(streamId, storageType.toLowerCase() + MASTER_SUFFIX);
+    }
 
-            while (sequences.size() > MAX_SEGMENTS) {
-                sequences.pollFirst();
+    private String findPlaylist(String streamId, String key) {
+        Map<String, String> streamPlaylists = playlistContents.get(streamId);
+        String content = streamPlaylists != null ? streamPlaylists.get(key) : null;
+        if (content == null) {
+            // Streams ingested on another node are served from the replicated copy
+            content = playlistReplicator.getPlaylist(streamId, key);
+        }
+        return content;
+    }
+
+    // Per-viewer playlist: the shared template with each ad break filled by the session's decision.
+    // Returns null when this node holds no template for the stream, e.g. it is ingested elsewhere
+    public byte[] renderSessionPlaylist(String streamId, String storageType, String sessionId) {
+        Map<String, PlaylistTemplate> templates = playlistTemplates.get(streamId);
+        PlaylistTemplate template = templates != null ? templates.get(storageType.toLowerCase()) : null;
+        if (template == null) {
+            return null;
+        }
+        return template.render(slot -> {
+            AdDecisionService.AdCandidate candidate =
+                    adDecisionService.decide(streamId, sessionId, slot.getBreakStart());
+            return candidate == null
+                    ? slot.getDefaultFragment()
+                    : slot.fragmentFor(candidate.id(), s -> renderCandidate(s, candidate));
+        });
+    }
+
+    private String renderCandidate(PlaylistTemplate.Slot slot, AdDecisionService.AdCandidate candidate) {
+        StringBuilder fragment = new StringBuilder();
+        int duration = candidate.duration();
+        int totalSegments = (int) Math.ceil(duration / (double) SEGMENT_DURATION);
+        for (int i = slot.getFirstIndex(); i <= slot.getLastIndex(); i++) {
+            String segmentName;
+            int segmentDuration;
+            if (duration <= SEGMENT_DURATION) {
+                segmentName = "advertisement_0.ts";
+                segmentDuration = duration;
+            } else {
+                segmentName = String.format("advertisement_0_%d.ts", i);
+                segmentDuration = (i == totalSegments - 1) ? duration - (i * SEGMENT_DURATION) : SEGMENT_DURATION;
             }
+            fragment.append("#EXTINF:").append(segmentDuration).append(".0,\n");
+            fragment.append(slot.getService().getSegmentUrl(candidate.storagePrefix(), segmentName)).append("\n");
+        }
+        return fragment.toString();
+    }
 
-            updatePlaylist(streamId);
+    @CacheEvict(value = "segments", key = "#streamId")
+    public void addSegment(String streamId, String segmentName) {
+        addSegment(streamId, segmentName, null);
+    }
 
-            long duration = System.currentTimeMillis() - startTime;
-            performanceLogger.info("Segment added in {} ms for streamId: {}, segment: {}",
-                    duration, streamId, segmentName);
-        } catch (Exception e) {
-            long duration = System.currentTimeMillis() - startTime;
-            performanceLogger.error("Failed to add segment in {} ms for streamId: {}, segment: {}",
-                    duration, streamId, segmentName);
-            throw e;
+    @CacheEvict(value = "segments", key = "#streamId")
+    public void addSegment(String streamId, String segmentName, SegmentInfo segmentInfo) {
+        synchronized (lockFor(streamId)) {
+            long startTime = System.currentTimeMillis();
+            try {
+                int sequence = extractSequenceNumber(segmentName);
+                TreeSet<Integer> sequences = streamSequences.computeIfAbsent(streamId, k -> new TreeSet<>());
+                sequences.add(sequence);
+                Map<Integer, SegmentInfo> infos = segmentInfos.computeIfAbsent(streamId, k -> new HashMap<>());
+                if (segmentInfo != null) {
+                    infos.put(sequence, segmentInfo);
+                }
+                streamJournal.segmentPublished(streamId, sequence, segmentInfo);
+
+                Set<Integer> resumes = resumePoints.get(streamId);
+                IntObjectMap<AdvertisementInfo> advertisements = advertisementSegments.get(streamId);
+                while (sequences.size() > MAX_SEGMENTS) {
+                    int oldest = sequences.pollFirst();
+                    if (resumes != null) {
+                        resumes.remove(oldest);
+                    }
+                    SegmentInfo dropped = infos.remove(oldest);
+                    // Ad slots were never listed in the I-frame playlist, so they do not advance its sequence
+                    boolean adSlot = advertisements != null && advertisements.containsKey(oldest);
+                    if (!adSlot && dropped != null && dropped.getKeyframeOffsets().length > 0) {
+                        iFrameSequences.merge(streamId, dropped.getKeyframeOffsets().length, Integer::sum);
+                    }
+                }
+                // Ad slots behind the window are never rendered again; breaks still ahead are kept
+                if (advertisements != null) {
+                    int windowStart = sequences.first();
+                    advertisements.removeIf((adSequence, ad) -> adSequence < windowStart);
+                }
+
+                updatePlaylist(streamId);
+
+                long duration = System.currentTimeMillis() - startTime;
+                performanceLogger.info("Segment added in {} ms for streamId: {}, segment: {}",
+                        duration, streamId, segmentName);
+            } catch (Exception e) {
+                long duration = System.currentTimeMillis() - startTime;
+                performanceLogger.error("Failed to add segment in {} ms for streamId: {}, segment: {}",
+                        duration, streamId, segmentName);
+                throw e;
+            }
         }
     }
 
@@ -129,16 +301,34 @@ public class M3u8Service {
         }
 
         int mediaSequence = sequences.first();
+        int latestSequence = sequences.last();
         List<StorageService> services = storageManager.getStoragesForStream(streamId);
         Map<String, String> playlists = playlistContents.computeIfAbsent(streamId, k -> new ConcurrentHashMap<>());
-        Map<Integer, AdvertisementInfo> advertisements = advertisementSegments.getOrDefault(streamId, new ConcurrentHashMap<>());
+        Map<String, PlaylistTemplate> templates = playlistTemplates.computeIfAbsent(streamId, k -> new ConcurrentHashMap<>());
+        IntObjectMap<AdvertisementInfo> advertisements = advertisementSegments.getOrDefault(streamId, new IntObjectMap<>());
+        Map<Integer, SegmentInfo> infos = segmentInfos.getOrDefault(streamId, Map.of());
+        String segmentPrefix = segmentPrefixes.getOrDefault(streamId, streamId);
+        Set<Integer> resumes = resumePoints.getOrDefault(streamId, Set.of());
 
         int maxDuration = SEGMENT_DURATION;
         for (AdvertisementInfo adInfo : advertisements.values()) {
             maxDuration = Math.max(maxDuration, adInfo.getDuration());
         }
+        for (SegmentInfo info : infos.values()) {
+            // EXTINF rounded to the nearest integer must not exceed the target duration
+            maxDuration = Math.max(maxDuration, (int) Math.round(info.getDurationSeconds()));
+        }
+
+        Map<String, String> latestSegmentUrls = new HashMap<>();
+        List<String> playlistPaths = new ArrayList<>();
 
         for (StorageService service : services) {
+            if (!service.isReady()) {
+                // Rendered once the backend is up; rendering here must not wait on it under the stream lock
+                continue;
+            }
+            PlaylistRenderedEvent rendered = new PlaylistRenderedEvent();
+            rendered.begin();
             StringBuilder playlist = new StringBuilder();
             playlist.append("#EXTM3U\n");
             playlist.append("#EXT-X-VERSION:3\n");
@@ -147,6 +337,8 @@ public class M3u8Service {
             playlist.append("#EXT-X-DISCONTINUITY-SEQUENCE:0\n");
 
             boolean wasAdvertisement = false;
+            String segmentUrl = null;
+            PlaylistTemplate.Builder template = new PlaylistTemplate.Builder(service);
             for (Integer sequence : sequences) {
                 AdvertisementInfo adInfo = advertisements.get(sequence);
 
@@ -154,29 +346,158 @@ public class M3u8Service {
                     if (!wasAdvertisement) {
                         playlist.append("#EXT-X-DISCONTINUITY\n");
                     }
+                    template.adSegment(playlist.length(), adInfo.getBreakStart(), sequence - adInfo.getBreakStart());
+                    String adPrefix = adInfo.getStoragePrefix() != null ? adInfo.getStoragePrefix() : streamId;
+                    segmentUrl = service.getSegmentUrl(adPrefix, adInfo.getSegmentName());
                     playlist.append("#EXTINF:").append(adInfo.getDuration()).append(".0,\n");
-                    playlist.append(service.getSegmentUrl(streamId, adInfo.getSegmentName())).append("\n");
+                    playlist.append(segmentUrl).append("\n");
                     wasAdvertisement = true;
                 } else {
-                    if (wasAdvertisement) {
+                    template.close(playlist.length());
+                    if (wasAdvertisement || resumes.contains(sequence)) {
                         playlist.append("#EXT-X-DISCONTINUITY\n");
                     }
                     String segmentName = String.format("segment_%d.ts", sequence);
-                    playlist.append("#EXTINF:").append(SEGMENT_DURATION).append(".0,\n");
-                    playlist.append(service.getSegmentUrl(streamId, segmentName)).append("\n");
+                    segmentUrl = service.getSegmentUrl(segmentPrefix, segmentName);
+                    appendLiveSegmentInfo(playlist, infos.get(sequence));
+                    playlist.append(segmentUrl).append("\n");
                     wasAdvertisement = false;
                 }
             }
 
-            playlists.put(service.getStorageType().toLowerCase(), playlist.toString());
+            String storageType = service.getStorageType().toLowerCase();
+            String content = playlist.toString();
+            playlists.put(storageType, content);
+            templates.put(storageType, template.build(content));
+            latestSegmentUrls.put(storageType, segmentUrl);
+            playlistPaths.add(String.format("/api/stream/%s/%s/playlist.m3u8", streamId, storageType));
+            if (!infos.isEmpty()) {
+                playlists.put(storageType + IFRAMES_SUFFIX,
+                        buildIFramePlaylist(streamId, segmentPrefix, service, sequences, advertisements, infos));
+                playlists.put(storageType + MASTER_SUFFIX, buildMasterPlaylist(infos));
+                playlistPaths.add(String.format("/api/stream/%s/%s/iframes.m3u8", streamId, storageType));
+            }
+            rendered.end();
+            if (rendered.shouldCommit()) {
+                rendered.streamId = streamId;
+                rendered.storageType = storageType;
+                rendered.mediaSequence = mediaSequence;
+                rendered.latestSequence = latestSequence;
+                rendered.sizeBytes = content.length();
+                rendered.commit();
+            }
+        }
+        PlaylistChange change = new PlaylistChange(streamId, mediaSequence, latestSequence,
+                latestSegmentUrls, System.currentTimeMillis());
+        playlistReplicator.publish(streamId, playlists, change);
+        playlistPushService.publish(change, playlistPaths);
+    }
+
+    private String buildIFramePlaylist(String streamId, String segmentPrefix, StorageService service,
+                                       TreeSet<Integer> sequences,
+                                       IntObjectMap<AdvertisementInfo> advertisements,
+                                       Map<Integer, SegmentInfo> infos) {
+        int targetDuration = SEGMENT_DURATION;
+        for (SegmentInfo info : infos.values()) {
+            targetDuration = Math.max(targetDuration, (int) Math.round(info.getDurationSeconds()));
+        }
+
+        StringBuilder playlist = new StringBuilder();
+        playlist.append("#EXTM3U\n");
+        playlist.append("#EXT-X-VERSION:5\n");
+        playlist.append("#EXT-X-TARGETDURATION:").append(targetDuration).append("\n");
+        playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(iFrameSequences.getOrDefault(streamId, 0)).append("\n");
+        playlist.append("#EXT-X-I-FRAMES-ONLY\n");
+
+        boolean gap = false;
+        for (Integer sequence : sequences) {
+            SegmentInfo info = infos.get(sequence);
+            long[] offsets = info != null ? info.getKeyframeOffsets() : null;
+            // Ad segments are not parsed, so a break shows up as a jump between I-frames
+            if (advertisements.containsKey(sequence) || offsets == null || offsets.length == 0) {
+                gap = true;
+                continue;
+            }
+            if (gap) {
+                playlist.append("#EXT-X-DISCONTINUITY\n");
+                gap = false;
+            }
+            String segmentUrl = service.getSegmentUrl(segmentPrefix, String.format("segment_%d.ts", sequence));
+            // PAT and PMT sit at the head of each segment and are all a decoder needs besides the I-frame
+            playlist.append("#EXT-X-MAP:URI=\"").append(segmentUrl).append("\",BYTERANGE=\"")
+                    .append(info.getInitSectionLength()).append("@0\"\n");
+            double[] times = info.getKeyframeTimes();
+            for (int i = 0; i < offsets.length; i++) {
+                double end = i + 1 < offsets.length ? times[i + 1] : info.getDurationSeconds();
+                playlist.append("#EXTINF:").append(String.format(Locale.ROOT, "%.3f", end - times[i])).append(",\n");
+                playlist.append("#EXT-X-BYTERANGE:").append(info.getKeyframeLengths()[i])
+                        .append("@").append(offsets[i]).append("\n");
+                playlist.append(segmentUrl).append("\n");
+            }
+        }
+        return playlist.toString();
+    }
+
+    // Relative URIs so the master resolves against whichever playlist path the player fetched it from
+    private String buildMasterPlaylist(Map<Integer, SegmentInfo> infos) {
+        long bandwidth = 0;
+        long iFrameBandwidth = 0;
+        for (SegmentInfo info : infos.values()) {
+            bandwidth = Math.max(bandwidth, info.getBitrate());
+            double[] times = info.getKeyframeTimes();
+            long[] lengths = info.getKeyframeLengths();
+            for (int i = 0; i < lengths.length; i++) {
+                double end = i + 1 < times.length ? times[i + 1] : info.getDurationSeconds();
+                if (end > times[i]) {
+                    iFrameBandwidth = Math.max(iFrameBandwidth, (long) (lengths[i] * 8 / (end - times[i])));
+                }
+            }
+        }
+        StringBuilder playlist = new StringBuilder();
+        playlist.append("#EXTM3U\n");
+        playlist.append("#EXT-X-VERSION:5\n");
+        playlist.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(Math.max(1, bandwidth)).append("\n");
+        playlist.append("playlist.m3u8\n");
+        if (iFrameBandwidth > 0) {
+            playlist.append("#EXT-X-I-FRAME-STREAM-INF:BANDWIDTH=").append(iFrameBandwidth)
+                    .append(",URI=\"iframes.m3u8\"\n");
+        }
+        return playlist.toString();
+    }
+
+    private void appendLiveSegmentInfo(StringBuilder playlist, SegmentInfo info) {
+        if (info == null || info.getDurationSeconds() <= 0) {
+            playlist.append("#EXTINF:").append(SEGMENT_DURATION).append(".0,\n");
+            return;
         }
+        if (info.getBitrate() > 0) {
+            playlist.append("#EXT-X-BITRATE:").append(Math.max(1, Math.round(info.getBitrate() / 1000.0))).append("\n");
+        }
+        playlist.append("#EXTINF:").append(String.format(Locale.ROOT, "%.3f", info.getDurationSeconds())).append(",\n");
     }
 
     @CacheEvict(value = {"segments", "m3u8Urls"}, key = "#streamId")
     public void clearStreamCache(String streamId) {
+        dropLocalPlaylists(streamId);
+        playlistReplicator.remove(streamId);
+        playlistPushService.close(streamId);
+    }
+
+    // Leaves the replicated copy alone, e.g. when another node now publishes this stream
+    public void dropLocalPlaylists(String streamId) {
         streamSequences.remove(streamId);
         playlistContents.remove(streamId);
+        playlistTemplates.remove(streamId);
         advertisementSegments.remove(streamId);
+        segmentInfos.remove(streamId);
+        iFrameSequences.remove(streamId);
+        segmentPrefixes.remove(streamId);
+        resumePoints.remove(streamId);
+        streamLocks.remove(streamId);
+    }
+
+    private Object lockFor(String streamId) {
+        return streamLocks.computeIfAbsent(streamId, k -> new Object());
     }
 
     private String generateEmptyPlaylist(int mediaSequence) {
@@ -46,7 +46,12 @@ public class NotificationService {
         }
 
         LocalDateTime now = LocalDateTime.now();
-        schedulerService.getAllScheduledStreams().forEach(stream -> {
+        long maxLeadMinutes = config.getNotifyBeforeMinutes().stream()
+                .mapToLong(Long::parseLong)
+                .max()
+                .orElse(0);
+        // Only streams whose start falls inside the notification window are loaded
+        schedulerService.getPendingStreamsStartingBetween(now, now.plusMinutes(maxLeadMinutes + 1)).forEach(stream -> {
             if (stream.isProcessed()) {
                 return;
             }
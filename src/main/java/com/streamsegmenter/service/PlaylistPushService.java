@@ -0,0 +1,177 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.config.PushConfig;
+import com.streamsegmenter.model.PlaylistChange;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+@Service
+public class PlaylistPushService {
+    private static final String EVENT_NAME = "playlist";
+
+    private final PushConfig pushConfig;
+    private final SseEmitterRegistry emitters;
+    private final RestTemplate restTemplate;
+    // SSE writes leave the playlist lock and the replication listener; the queue holds at most one task per stream
+    private final ThreadPoolExecutor notifier;
+    private final Map<String, PlaylistChange> pendingNotifications = new ConcurrentHashMap<>();
+    // Purge requests leave the segment pipeline immediately and go out from this single sender thread
+    private final ExecutorService purgeSender = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "edge-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Queue<String> pendingPurges = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger droppedPurges = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    public PlaylistPushService(PushConfig pushConfig) {
+        this.pushConfig = pushConfig;
+        this.emitters = new SseEmitterRegistry(pushConfig.getSseTimeoutMs());
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(pushConfig.getEdgePurge().getConnectTimeoutMs());
+        requestFactory.setReadTimeout(pushConfig.getEdgePurge().getReadTimeoutMs());
+        this.restTemplate = new RestTemplate(requestFactory);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.notifier = new ThreadPoolExecutor(pushConfig.getNotifyThreads(), pushConfig.getNotifyThreads(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(pushConfig.getNotifyQueueCapacity()), r -> {
+                    Thread thread = new Thread(r, "playlist-push-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public SseEmitter subscribe(String streamId) {
+        return emitters.register(streamId);
+    }
+
+    // Called by the node that rebuilt the playlists: tells local players and asks edges to drop their copies
+    public void publish(PlaylistChange change, Collection<String> playlistPaths) {
+        notifySubscribers(change);
+        if (pushConfig.getEdgePurge().isEnabled()) {
+            enqueuePurge(playlistPaths);
+        }
+    }
+
+    public void notifySubscribers(PlaylistChange change) {
+        String streamId = change.getStreamId();
+        if (!emitters.hasSubscribers(streamId)) {
+            return;
+        }
+        // A change still waiting to be sent is replaced by the newer one instead of queueing another write
+        if (pendingNotifications.put(streamId, change) != null) {
+            return;
+        }
+        try {
+            notifier.execute(() -> {
+                PlaylistChange latest = pendingNotifications.remove(streamId);
+                if (latest != null) {
+                    emitters.send(streamId, EVENT_NAME, latest);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Players keep polling, so a skipped push only costs one refresh interval
+            pendingNotifications.remove(streamId);
+            log.warn("Playlist push queue full, skipped notification for stream {}", streamId);
+        }
+    }
+
+    public void close(String streamId) {
+        emitters.complete(streamId);
+    }
+
+    @Scheduled(fixedDelayString = "${push.edge-purge.flush-interval-ms:500}")
+    public void flushPurges() {
+        if (pendingCount.get() > 0) {
+            scheduleFlush();
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        notifier.shutdown();
+        purgeSender.shutdown();
+    }
+
+    private void enqueuePurge(Collection<String> paths) {
+        int maxPending = pushConfig.getEdgePurge().getMaxPending();
+        for (String path : paths) {
+            // Unreachable edges must not grow the backlog without limit; dropped paths expire by TTL
+            if (pendingCount.get() >= maxPending) {
+                droppedPurges.incrementAndGet();
+                continue;
+            }
+            pendingPurges.offer(path);
+            pendingCount.incrementAndGet();
+        }
+        if (pendingCount.get() >= pushConfig.getEdgePurge().getBatchSize()) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            purgeSender.execute(this::drainPurges);
+        }
+    }
+
+    private void drainPurges() {
+        flushScheduled.set(false);
+        int dropped = droppedPurges.getAndSet(0);
+        if (dropped > 0) {
+            log.warn("Edge purge backlog full, dropped {} paths", dropped);
+        }
+        int batchSize = pushConfig.getEdgePurge().getBatchSize();
+        while (pendingCount.get() > 0) {
+            // Several updates of the same playlist inside one window collapse into a single purge
+            Set<String> batch = new LinkedHashSet<>();
+            String path;
+            while (batch.size() < batchSize && (path = pendingPurges.poll()) != null) {
+                pendingCount.decrementAndGet();
+                batch.add(path);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            sendPurge(new ArrayList<>(batch));
+        }
+    }
+
+    private void sendPurge(List<String> paths) {
+        for (String webhookUrl : pushConfig.getEdgePurge().getWebhookUrls()) {
+            try {
+                restTemplate.postForEntity(webhookUrl, Map.of("paths", paths), Void.class);
+            } catch (Exception e) {
+                // Edges fall back to their normal TTL, so a lost purge only delays freshness
+                log.warn("Edge purge webhook {} failed for {} paths: {}", webhookUrl, paths.size(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.streamsegmenter.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// A rendered playlist cut into pre-encoded static fragments and ad slots. Session playlists are
+// produced by copying the fragments and splicing one chosen fragment into each slot.
+final class PlaylistTemplate {
+    private final Object[] parts; // byte[] or Slot
+
+    private PlaylistTemplate(Object[] parts) {
+        this.parts = parts;
+    }
+
+    byte[] render(Function<Slot, byte[]> slotRenderer) {
+        byte[][] chunks = new byte[parts.length][];
+        int length = 0;
+        for (int i = 0; i < parts.length; i++) {
+            chunks[i] = parts[i] instanceof Slot slot ? slotRenderer.apply(slot) : (byte[]) parts[i];
+            length += chunks[i].length;
+        }
+
+        byte[] out = new byte[length];
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+            System.arraycopy(chunk, 0, out, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return out;
+    }
+
+    static final class Slot {
+        private final int breakStart;
+        private final int firstIndex;
+        private final int lastIndex;
+        private final byte[] defaultFragment;
+        private final StorageService service;
+        // Rendered once per candidate for the lifetime of this template
+        private final Map<String, byte[]> fragments = new ConcurrentHashMap<>();
+
+        private Slot(int breakStart, int firstIndex, int lastIndex, byte[] defaultFragment, StorageService service) {
+            this.breakStart = breakStart;
+            this.firstIndex = firstIndex;
+            this.lastIndex = lastIndex;
+            this.defaultFragment = defaultFragment;
+            this.service = service;
+        }
+
+        int getBreakStart() {
+            return breakStart;
+        }
+
+        int getFirstIndex() {
+            return firstIndex;
+        }
+
+        int getLastIndex() {
+            return lastIndex;
+        }
+
+        StorageService getService() {
+            return service;
+        }
+
+        byte[] getDefaultFragment() {
+            return defaultFragment;
+        }
+
+        byte[] fragmentFor(String candidateId, Function<Slot, String> renderer) {
+            return fragments.computeIfAbsent(candidateId, id -> renderer.apply(this).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Collects slot positions while the full playlist text is being appended
+    static final class Builder {
+        private final StorageService service;
+        private final List<int[]> marks = new ArrayList<>(); // {startOffset, endOffset, breakStart, first, last}
+        private int[] open;
+
+        Builder(StorageService service) {
+            this.service = service;
+        }
+
+        void adSegment(int offset, int breakStart, int index) {
+            if (open != null && open[2] != breakStart) {
+                close(offset);
+            }
+            if (open == null) {
+                open = new int[]{offset, -1, breakStart, index, index};
+            }
+            open[4] = index;
+        }
+
+        void close(int offset) {
+            if (open != null) {
+                open[1] = offset;
+                marks.add(open);
+                open = null;
+            }
+        }
+
+        PlaylistTemplate build(String playlist) {
+            close(playlist.length());
+            List<Object> parts = new ArrayList<>(marks.size() * 2 + 1);
+            int position = 0;
+            for (int[] mark : marks) {
+                parts.add(playlist.substring(position, mark[0]).getBytes(StandardCharsets.UTF_8));
+                byte[] defaultFragment = playlist.substring(mark[0], mark[1]).getBytes(StandardCharsets.UTF_8);
+                parts.add(new Slot(mark[2], mark[3], mark[4], defaultFragment, service));
+                position = mark[1];
+            }
+            parts.add(playlist.substring(position).getBytes(StandardCharsets.UTF_8));
+            return new PlaylistTemplate(parts.toArray());
+        }
+    }
+}
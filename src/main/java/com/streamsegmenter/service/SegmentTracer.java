@@ -0,0 +1,154 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.config.TracingConfiguration;
+import com.streamsegmenter.event.StreamStartedEvent;
+import com.streamsegmenter.event.StreamStoppedEvent;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// One trace per stream plus one trace per segment, linked to its stream. The stream trace only holds
+// short spans for the start and the stop, so nothing stays open for the life of a stream or is lost
+// when the node dies. A segment trace has the parse, per-backend upload and publish spans, and a late
+// span for the first playlist fetch after it, so a slow segment can be pinned on FFmpeg, the watcher,
+// a backend or the playlist.
+@Component
+public class SegmentTracer {
+    private final Tracer tracer;
+    private final Map<String, SpanContext> streamSpans = new ConcurrentHashMap<>();
+    // Latest published segment of each stream that no player has fetched a playlist for yet
+    private final Map<String, PendingServe> pendingServes = new ConcurrentHashMap<>();
+
+    private record PendingServe(int sequence, SpanContext segment, long publishedAtNanos) {}
+
+    public SegmentTracer(OpenTelemetry openTelemetry) {
+        this.tracer = openTelemetry.getTracer("com.streamsegmenter");
+    }
+
+    @EventListener
+    public void onStreamStarted(StreamStartedEvent event) {
+        Span span = tracer.spanBuilder(TracingConfiguration.STREAM_SPAN)
+                .setNoParent()
+                .setAttribute("stream.id", event.streamId())
+                .setAttribute("stream.quality", String.valueOf(event.quality()))
+                .setAttribute("stream.start_sequence", event.startSequence())
+                .startSpan();
+        span.end();
+        streamSpans.put(event.streamId(), span.getSpanContext());
+    }
+
+    @EventListener
+    public void onStreamStopped(StreamStoppedEvent event) {
+        SpanContext stream = streamSpans.remove(event.streamId());
+        if (stream != null) {
+            tracer.spanBuilder("stream.stop")
+                    .setParent(Context.root().with(Span.wrap(stream)))
+                    .setAttribute("stream.id", event.streamId())
+                    .startSpan()
+                    .end();
+        }
+        pendingServes.remove(event.streamId());
+    }
+
+    // Starts the segment's own trace when the segmenter picks the file up
+    public Span segmentDetected(String streamId, String segmentName, int sequence, Path segmentPath) {
+        var builder = tracer.spanBuilder("segment")
+                .setNoParent()
+                .setAttribute("stream.id", streamId)
+                .setAttribute("segment.name", segmentName)
+                .setAttribute("segment.sequence", sequence);
+        SpanContext stream = streamSpans.get(streamId);
+        if (stream != null) {
+            builder.addLink(stream);
+        }
+        Span span = builder.startSpan();
+        if (span.isRecording()) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(segmentPath, BasicFileAttributes.class);
+                long modified = attributes.lastModifiedTime().toMillis();
+                span.setAttribute("segment.size", attributes.size());
+                // Time FFmpeg spent writing the file, then how long it sat before being noticed
+                span.setAttribute("segment.write_ms", Math.max(0, modified - attributes.creationTime().toMillis()));
+                span.setAttribute("segment.detect_lag_ms", Math.max(0, System.currentTimeMillis() - modified));
+            } catch (IOException e) {
+                span.setAttribute("segment.size", -1L);
+            }
+        }
+        return span;
+    }
+
+    public Span startChild(Span parent, String name) {
+        return tracer.spanBuilder(name).setParent(Context.current().with(parent)).startSpan();
+    }
+
+    // Runs work with span current, e.g. so the uploads it starts become children of the segment span
+    public <T> T within(Span span, Supplier<T> work) {
+        return Context.current().with(span).wrapSupplier(work).get();
+    }
+
+    // Child of the current span, i.e. only for uploads made while a segment span is current
+    public Span uploadStarted(Path file, String backend) {
+        if (!Span.current().getSpanContext().isValid()) {
+            return Span.getInvalid();
+        }
+        return tracer.spanBuilder("segment.upload")
+                .setAttribute("storage.backend", backend)
+                .setAttribute("file.name", file.getFileName().toString())
+                .setAttribute("file.size", file.toFile().length())
+                .startSpan();
+    }
+
+    public void uploadFinished(Span span, Throwable error) {
+        if (error != null) {
+            span.recordException(error);
+            span.setStatus(StatusCode.ERROR);
+        }
+        span.end();
+    }
+
+    public void failed(Span span, String reason) {
+        span.setStatus(StatusCode.ERROR, reason);
+        span.end();
+    }
+
+    // The first playlist fetch for streamId from now on is the first that can include the segment
+    public void published(String streamId, int sequence, Span span) {
+        if (span.getSpanContext().isSampled()) {
+            pendingServes.put(streamId, new PendingServe(sequence, span.getSpanContext(), now()));
+        }
+    }
+
+    public void playlistServed(String streamId) {
+        PendingServe pending = pendingServes.remove(streamId);
+        if (pending == null) {
+            return;
+        }
+        tracer.spanBuilder("segment.first_served")
+                .setParent(Context.root().with(Span.wrap(pending.segment())))
+                .setAttribute("stream.id", streamId)
+                .setAttribute("segment.sequence", pending.sequence())
+                .setStartTimestamp(pending.publishedAtNanos(), TimeUnit.NANOSECONDS)
+                .startSpan()
+                .end();
+    }
+
+    private static long now() {
+        Instant instant = Instant.now();
+        return TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano();
+    }
+}
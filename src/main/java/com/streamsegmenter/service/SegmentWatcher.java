@@ -0,0 +1,143 @@
+package com.streamsegmenter.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One WatchService and one thread for every segment directory on the node. Events are handed to a
+// small shared pool, serialized per directory, so a slow stream never holds up the others.
+@Slf4j
+@Component
+public class SegmentWatcher {
+    private static final int DISPATCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    private final Map<WatchKey, Registration> registrations = new ConcurrentHashMap<>();
+    private final ExecutorService dispatchPool = Executors.newFixedThreadPool(DISPATCH_THREADS, r -> {
+        Thread thread = new Thread(r, "segment-dispatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private WatchService watchService;
+    private Thread watcherThread;
+
+    public interface Handler {
+        void created(Path file);
+
+        // Events may have been missed: the kernel queue overflowed, or files appeared before registration
+        void rescan();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        watcherThread = new Thread(this::watch, "segment-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    public Registration register(Path directory, Handler handler) throws IOException {
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        Registration registration = new Registration(key, directory, handler);
+        registrations.put(key, registration);
+        // Covers files created before the key was mapped, whose events the watcher thread skipped
+        registration.dispatch(handler::rescan);
+        return registration;
+    }
+
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Registration registration = registrations.get(key);
+            if (registration != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        log.warn("Watch events overflowed for {}, rescanning", registration.directory);
+                        registration.dispatch(registration.handler::rescan);
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        Path file = registration.directory.resolve((Path) event.context());
+                        registration.dispatch(() -> registration.handler.created(file));
+                    }
+                }
+            } else {
+                key.pollEvents();
+            }
+            if (!key.reset()) {
+                // Directory deleted or registration cancelled
+                registrations.remove(key);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        watcherThread.interrupt();
+        watchService.close();
+        dispatchPool.shutdownNow();
+    }
+
+    public final class Registration implements AutoCloseable {
+        private final WatchKey key;
+        private final Path directory;
+        private final Handler handler;
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private Registration(WatchKey key, Path directory, Handler handler) {
+            this.key = key;
+            this.directory = directory;
+            this.handler = handler;
+        }
+
+        // Handlers of one directory run one at a time and in event order
+        private void dispatch(Runnable task) {
+            pending.add(task);
+            if (draining.compareAndSet(false, true)) {
+                dispatchPool.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Runnable task;
+                while ((task = pending.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        log.error("Segment handler failed for {}: {}", directory, e.getMessage());
+                    }
+                }
+                draining.set(false);
+                // A task queued between the last poll and the reset would otherwise be stranded
+            } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+        }
+
+        @Override
+        public void close() {
+            key.cancel();
+            registrations.remove(key);
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.streamsegmenter.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+public class SseEmitterRegistry {
+    private final Map<String, Set<SseEmitter>> emitters = new ConcurrentHashMap<>();
+    private final long timeoutMs;
+
+    public SseEmitterRegistry(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public SseEmitter register(String key) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        emitters.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(emitter);
+        emitter.onCompletion(() -> remove(key, emitter));
+        emitter.onTimeout(() -> remove(key, emitter));
+        emitter.onError(e -> remove(key, emitter));
+        return emitter;
+    }
+
+    public boolean hasSubscribers(String key) {
+        Set<SseEmitter> subscribers = emitters.get(key);
+        return subscribers != null && !subscribers.isEmpty();
+    }
+
+    public void send(String key, String eventName, Object data) {
+        Set<SseEmitter> subscribers = emitters.get(key);
+        if (subscribers == null) {
+            return;
+        }
+        for (SseEmitter emitter : subscribers) {
+            send(emitter, eventName, data);
+        }
+    }
+
+    public boolean send(SseEmitter emitter, String eventName, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(eventName).data(data));
+            return true;
+        } catch (Exception e) {
+            // Client went away; the completion callback removes it
+            log.debug("Dropping SSE subscriber: {}", e.getMessage());
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    public void complete(String key) {
+        Set<SseEmitter> subscribers = emitters.remove(key);
+        if (subscribers != null) {
+            subscribers.forEach(SseEmitter::complete);
+        }
+    }
+
+    private void remove(String key, SseEmitter emitter) {
+        emitters.computeIfPresent(key, (k, set) -> {
+            set.remove(emitter);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
@@ -1,15 +1,23 @@
 package com.streamsegmenter.service;
 
+import com.streamsegmenter.jfr.SegmentUploadEvent;
+import com.streamsegmenter.jfr.SegmentUploadStartedEvent;
+import io.opentelemetry.api.trace.Span;
 import org.springframework.stereotype.Service;
 import lombok.RequiredArgsConstructor;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @RequiredArgsConstructor
 public class StorageManager {
     private final List<StorageService> storageServices;
+    private final SegmentTracer segmentTracer;
     private final Map<String, List<StorageService>> streamStorages = new ConcurrentHashMap<>();
 
     public void registerStreamStorages(String streamId, List<String> types) {
@@ -28,6 +36,44 @@ public class StorageManager {
         ));
     }
 
+    // Puts every file x backend pair in flight at once; completes when all of them are stored
+    public CompletableFuture<Void> uploadAll(Collection<Path> files, String prefix, List<StorageService> services) {
+        List<CompletableFuture<String>> uploads = new ArrayList<>(files.size() * services.size());
+        for (Path file : files) {
+            for (StorageService service : services) {
+                uploads.add(recordUpload(file, prefix, service));
+            }
+        }
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private CompletableFuture<String> recordUpload(Path file, String prefix, StorageService service) {
+        SegmentUploadStartedEvent started = new SegmentUploadStartedEvent();
+        if (started.isEnabled()) {
+            started.streamId = prefix;
+            started.segment = file.getFileName().toString();
+            started.backend = service.getStorageType();
+            started.commit();
+        }
+        SegmentUploadEvent upload = new SegmentUploadEvent();
+        // Sized up front: local copies may be gone once every backend has the file
+        long size = upload.isEnabled() ? file.toFile().length() : 0;
+        upload.begin();
+        Span span = segmentTracer.uploadStarted(file, service.getStorageType());
+        return service.uploadSegment(file, prefix).whenComplete((url, error) -> {
+            segmentTracer.uploadFinished(span, error);
+            upload.end();
+            if (upload.shouldCommit()) {
+                upload.streamId = prefix;
+                upload.segment = file.getFileName().toString();
+                upload.backend = service.getStorageType();
+                upload.sizeBytes = size;
+                upload.succeeded = error == null;
+                upload.commit();
+            }
+        });
+    }
+
     public void removeStreamStorages(String streamId) {
         streamStorages.remove(streamId);
     }
@@ -9,6 +9,10 @@ public interface StorageService {
     void deleteStream(String streamId);
     String getSegmentUrl(String streamId, String segmentName);
     String getAdvertisementUrl(String streamId, String segmentName);
+    // False while the backend cannot answer synchronous calls, e.g. a client still being built
+    default boolean isReady() {
+        return true;
+    }
     default String getStorageType() {
         return this.getClass().getSimpleName().replace("StorageService", "").toUpperCase();
     }
@@ -0,0 +1,448 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.config.InstanceIdentity;
+import com.streamsegmenter.config.JournalConfig;
+import com.streamsegmenter.config.StorageConfig;
+import com.streamsegmenter.event.StreamStartedEvent;
+import com.streamsegmenter.event.StreamStoppedEvent;
+import com.streamsegmenter.model.SegmentInfo;
+import com.streamsegmenter.model.StreamRequest;
+import com.streamsegmenter.model.VideoQuality;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// Append-only record of what each local stream has published, so a restarted node can rebuild its
+// playlists and resume ingest at the next segment. Two memory-mapped files alternate: records are
+// appended to the active one, and compaction rewrites the live state into the other and flips over
+// by bumping its generation header last, so a crash at any point leaves one intact file.
+//
+// Record layout: [int length][int crc32][payload], followed by a zero length that terminates replay.
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StreamJournal {
+    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streamsegmenter.performance");
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int RECORD_OVERHEAD = 2 * Integer.BYTES;
+    private static final byte STREAM_STARTED = 1;
+    private static final byte SEGMENT_PUBLISHED = 2;
+    private static final byte ADVERTISEMENT_REGISTERED = 3;
+    private static final byte STREAM_STOPPED = 4;
+
+    private final JournalConfig journalConfig;
+    private final StorageConfig storageConfig;
+    private final InstanceIdentity instanceIdentity;
+
+    private final MappedByteBuffer[] files = new MappedByteBuffer[2];
+    private final Map<String, JournaledStream> streams = new LinkedHashMap<>();
+    private int active;
+    private long generation;
+    private int position;
+    private boolean available;
+
+    @PostConstruct
+    synchronized void open() {
+        if (!journalConfig.isEnabled()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            Path directory = storageConfig.resolvePath("journal");
+            Files.createDirectories(directory);
+            for (int i = 0; i < files.length; i++) {
+                try (FileChannel channel = FileChannel.open(directory.resolve("streams-" + i + ".journal"),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    files[i] = channel.map(FileChannel.MapMode.READ_WRITE, 0, journalConfig.getSizeBytes());
+                }
+            }
+            active = files[1].getLong(0) > files[0].getLong(0) ? 1 : 0;
+            generation = files[active].getLong(0);
+            int records = replay(files[active]);
+            available = true;
+            // Start from a compact file so the replayed history is not carried forward
+            compact();
+            performanceLogger.info("Journal replayed {} records for {} streams in {} ms",
+                    records, streams.size(), System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("Stream journal unavailable, streams will not survive a restart: {}", e.getMessage());
+            available = false;
+        }
+    }
+
+    // Streams that were running when the node went down, in the order they were started
+    public synchronized List<JournaledStream> getRecoverableStreams() {
+        return new ArrayList<>(streams.values());
+    }
+
+    @EventListener
+    public synchronized void onStreamStarted(StreamStartedEvent event) {
+        JournaledStream stream = streams.get(event.streamId());
+        if (stream == null) {
+            stream = new JournaledStream(event.streamId());
+            streams.put(event.streamId(), stream);
+        }
+        stream.streamUrl = event.streamUrl();
+        stream.storageTypes = event.storageTypes() != null ? List.copyOf(event.storageTypes()) : List.of();
+        stream.quality = event.quality();
+        stream.watermark = event.watermark();
+        stream.instanceId = instanceIdentity.getInstanceId();
+        append(stream, STREAM_STARTED, this::writeStarted);
+    }
+
+    // Forgets a stream this node will not resume, e.g. because another instance runs it now
+    public synchronized void discard(String streamId) {
+        if (streams.remove(streamId) != null) {
+            append(new JournaledStream(streamId), STREAM_STOPPED, (stream, out) -> {});
+        }
+    }
+
+    @EventListener
+    public synchronized void onStreamStopped(StreamStoppedEvent event) {
+        if (streams.remove(event.streamId()) != null) {
+            append(new JournaledStream(event.streamId()), STREAM_STOPPED, (stream, out) -> {});
+        }
+    }
+
+    public synchronized void segmentPublished(String streamId, int sequence, SegmentInfo info) {
+        JournaledStream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        SegmentInfo recorded = info != null ? info : new SegmentInfo();
+        stream.addSegment(sequence, recorded);
+        append(stream, SEGMENT_PUBLISHED, (s, out) -> writeSegment(out, sequence, recorded));
+    }
+
+    public synchronized void advertisementRegistered(String streamId, JournaledAd ad) {
+        JournaledStream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        stream.ads.put(ad.segmentNumber(), ad);
+        append(stream, ADVERTISEMENT_REGISTERED, (s, out) -> writeAd(out, ad));
+    }
+
+    @Scheduled(fixedDelayString = "${journal.compaction-interval-ms:60000}")
+    public synchronized void compactIfNeeded() {
+        if (available && position > journalConfig.getSizeBytes() * journalConfig.getCompactionThreshold()) {
+            compact();
+        }
+    }
+
+    private void append(JournaledStream stream, byte type, RecordWriter writer) {
+        if (!available) {
+            return;
+        }
+        try {
+            byte[] payload = encode(stream, type, writer);
+            if (!fits(payload.length)) {
+                compact();
+                if (!fits(payload.length)) {
+                    log.error("Journal full after compaction, dropping {} record for stream {}", type, stream.streamId);
+                    return;
+                }
+            }
+            write(files[active], payload);
+        } catch (IOException e) {
+            log.warn("Failed to journal record for stream {}: {}", stream.streamId, e.getMessage());
+        }
+    }
+
+    private void compact() {
+        long startTime = System.currentTimeMillis();
+        int target = 1 - active;
+        MappedByteBuffer file = files[target];
+        int previousPosition = position;
+        position = HEADER_SIZE;
+        file.putInt(position, 0);
+        try {
+            for (JournaledStream stream : streams.values()) {
+                write(file, encode(stream, STREAM_STARTED, this::writeStarted));
+                for (JournaledAd ad : stream.ads.values()) {
+                    write(file, encode(stream, ADVERTISEMENT_REGISTERED, (s, out) -> writeAd(out, ad)));
+                }
+                for (Map.Entry<Integer, SegmentInfo> segment : stream.segments.entrySet()) {
+                    write(file, encode(stream, SEGMENT_PUBLISHED,
+                            (s, out) -> writeSegment(out, segment.getKey(), segment.getValue())));
+                }
+            }
+            file.force();
+            // The header goes last: until it lands the previous file still has the newest generation
+            file.putLong(0, ++generation);
+            file.force();
+            active = target;
+            performanceLogger.info("Journal compacted from {} to {} bytes in {} ms",
+                    previousPosition, position, System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("Journal compaction failed, disabling the journal: {}", e.getMessage());
+            available = false;
+        }
+    }
+
+    private boolean fits(int payloadLength) {
+        return position + RECORD_OVERHEAD + payloadLength + Integer.BYTES <= journalConfig.getSizeBytes();
+    }
+
+    private void write(MappedByteBuffer file, byte[] payload) {
+        if (!fits(payload.length)) {
+            throw new IllegalStateException("journal file is too small for the live state");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        file.putInt(position + Integer.BYTES, (int) crc.getValue());
+        file.put(position + RECORD_OVERHEAD, payload);
+        int next = position + RECORD_OVERHEAD + payload.length;
+        file.putInt(next, 0);
+        // The length is what makes a record visible to replay, so it is written after its body
+        file.putInt(position, payload.length);
+        position = next;
+    }
+
+    private int replay(MappedByteBuffer file) throws IOException {
+        position = HEADER_SIZE;
+        int records = 0;
+        while (position + RECORD_OVERHEAD <= journalConfig.getSizeBytes()) {
+            int length = file.getInt(position);
+            if (length <= 0 || position + RECORD_OVERHEAD + length > journalConfig.getSizeBytes()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            file.get(position + RECORD_OVERHEAD, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != file.getInt(position + Integer.BYTES)) {
+                log.warn("Journal record at byte {} is torn, replay stops there", position);
+                break;
+            }
+            apply(payload);
+            position += RECORD_OVERHEAD + length;
+            records++;
+        }
+        return records;
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String streamId = in.readUTF();
+        switch (type) {
+            case STREAM_STARTED -> {
+                JournaledStream stream = streams.computeIfAbsent(streamId, JournaledStream::new);
+                stream.streamUrl = in.readUTF();
+                int typeCount = in.readInt();
+                List<String> storageTypes = new ArrayList<>(typeCount);
+                for (int i = 0; i < typeCount; i++) {
+                    storageTypes.add(in.readUTF());
+                }
+                stream.storageTypes = storageTypes;
+                String quality = readNullable(in);
+                stream.quality = quality != null ? VideoQuality.valueOf(quality) : null;
+                if (in.readBoolean()) {
+                    StreamRequest.Watermark watermark = new StreamRequest.Watermark();
+                    watermark.setText(readNullable(in));
+                    watermark.setImagePath(readNullable(in));
+                    watermark.setX(in.readInt());
+                    watermark.setY(in.readInt());
+                    watermark.setSize(in.readInt());
+                    watermark.setColor(readNullable(in));
+                    watermark.setOpacity(in.readFloat());
+                    stream.watermark = watermark;
+                }
+                // Records written before the instance id was journaled end here
+                stream.instanceId = in.available() > 0 ? readNullable(in) : null;
+            }
+            case SEGMENT_PUBLISHED -> {
+                JournaledStream stream = streams.get(streamId);
+                int sequence = in.readInt();
+                SegmentInfo info = new SegmentInfo();
+                info.setValid(true);
+                info.setDurationSeconds(in.readDouble());
+                info.setBitrate(in.readLong());
+                info.setSizeBytes(in.readLong());
+                info.setInitSectionLength(in.readInt());
+                int keyframes = in.readInt();
+                long[] offsets = new long[keyframes];
+                long[] lengths = new long[keyframes];
+                double[] times = new double[keyframes];
+                for (int i = 0; i < keyframes; i++) {
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readLong();
+                    times[i] = in.readDouble();
+                }
+                info.setKeyframeOffsets(offsets);
+                info.setKeyframeLengths(lengths);
+                info.setKeyframeTimes(times);
+                if (stream != null) {
+                    stream.addSegment(sequence, info);
+                }
+            }
+            case ADVERTISEMENT_REGISTERED -> {
+                JournaledStream stream = streams.get(streamId);
+                JournaledAd ad = new JournaledAd(in.readInt(), in.readUTF(), in.readInt(), readNullable(in));
+                if (stream != null) {
+                    stream.ads.put(ad.segmentNumber(), ad);
+                }
+            }
+            case STREAM_STOPPED -> streams.remove(streamId);
+            default -> log.warn("Skipping unknown journal record type {}", type);
+        }
+    }
+
+    private byte[] encode(JournaledStream stream, byte type, RecordWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeUTF(stream.streamId);
+        writer.write(stream, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeStarted(JournaledStream stream, DataOutputStream out) throws IOException {
+        out.writeUTF(stream.streamUrl);
+        out.writeInt(stream.storageTypes.size());
+        for (String type : stream.storageTypes) {
+            out.writeUTF(type);
+        }
+        writeNullable(out, stream.quality != null ? stream.quality.name() : null);
+        StreamRequest.Watermark watermark = stream.watermark;
+        out.writeBoolean(watermark != null);
+        if (watermark != null) {
+            writeNullable(out, watermark.getText());
+            writeNullable(out, watermark.getImagePath());
+            out.writeInt(watermark.getX());
+            out.writeInt(watermark.getY());
+            out.writeInt(watermark.getSize());
+            writeNullable(out, watermark.getColor());
+            out.writeFloat(watermark.getOpacity());
+        }
+        writeNullable(out, stream.instanceId);
+    }
+
+    private static void writeSegment(DataOutputStream out, int sequence, SegmentInfo info) throws IOException {
+        out.writeInt(sequence);
+        out.writeDouble(info.getDurationSeconds());
+        out.writeLong(info.getBitrate());
+        out.writeLong(info.getSizeBytes());
+        out.writeInt(info.getInitSectionLength());
+        long[] offsets = info.getKeyframeOffsets();
+        long[] lengths = info.getKeyframeLengths();
+        double[] times = info.getKeyframeTimes();
+        int keyframes = Math.min(offsets.length, Math.min(lengths.length, times.length));
+        out.writeInt(keyframes);
+        for (int i = 0; i < keyframes; i++) {
+            out.writeLong(offsets[i]);
+            out.writeLong(lengths[i]);
+            out.writeDouble(times[i]);
+        }
+    }
+
+    private static void writeAd(DataOutputStream out, JournaledAd ad) throws IOException {
+        out.writeInt(ad.segmentNumber());
+        out.writeUTF(ad.segmentPath());
+        out.writeInt(ad.duration());
+        writeNullable(out, ad.storagePrefix());
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(JournaledStream stream, DataOutputStream out) throws IOException;
+    }
+
+    // storagePrefix is set for shared renditions, which are always cut with name index 0
+    public record JournaledAd(int segmentNumber, String segmentPath, int duration, String storagePrefix) {}
+
+    public static final class JournaledStream {
+        private final String streamId;
+        private String streamUrl;
+        private List<String> storageTypes = List.of();
+        private VideoQuality quality;
+        private StreamRequest.Watermark watermark;
+        // Instance that ran the stream, i.e. the holder of any lease left over from before the restart
+        private String instanceId;
+        // Only the playlist window is kept; older segments are not needed to rebuild it
+        private final TreeMap<Integer, SegmentInfo> segments = new TreeMap<>();
+        private final TreeMap<Integer, JournaledAd> ads = new TreeMap<>();
+
+        private JournaledStream(String streamId) {
+            this.streamId = streamId;
+        }
+
+        private void addSegment(int sequence, SegmentInfo info) {
+            segments.put(sequence, info);
+            while (segments.size() > M3u8Service.MAX_SEGMENTS) {
+                segments.pollFirstEntry();
+            }
+            int windowStart = segments.firstKey();
+            // A break is dropped once its last segment has left the window
+            ads.values().removeIf(ad ->
+                    ad.segmentNumber() + Math.max(1, (int) Math.ceil(ad.duration() / (double) M3u8Service.SEGMENT_DURATION)) <= windowStart);
+        }
+
+        public String getStreamId() {
+            return streamId;
+        }
+
+        public String getStreamUrl() {
+            return streamUrl;
+        }
+
+        public List<String> getStorageTypes() {
+            return storageTypes;
+        }
+
+        public VideoQuality getQuality() {
+            return quality;
+        }
+
+        public StreamRequest.Watermark getWatermark() {
+            return watermark;
+        }
+
+        public String getInstanceId() {
+            return instanceId;
+        }
+
+        public TreeMap<Integer, SegmentInfo> getSegments() {
+            return new TreeMap<>(segments);
+        }
+
+        public List<JournaledAd> getAds() {
+            return new ArrayList<>(ads.values());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.model.StreamLifecycleEvent;
+import com.streamsegmenter.model.StreamStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Service
+public class StreamLifecycleService {
+    private static final int MAX_HISTORY = 32;
+    private static final Duration STOPPED_RETENTION = Duration.ofMinutes(10);
+    private static final String EVENT_NAME = "lifecycle";
+
+    private final Map<String, Deque<StreamLifecycleEvent>> histories = new ConcurrentHashMap<>();
+    private final SseEmitterRegistry emitters = new SseEmitterRegistry(TimeUnit.MINUTES.toMillis(30));
+
+    public void record(String streamId, StreamStatus status) {
+        record(streamId, status, null);
+    }
+
+    public void record(String streamId, StreamStatus status, String detail) {
+        StreamLifecycleEvent event = new StreamLifecycleEvent(streamId, status, Instant.now(), detail);
+        Deque<StreamLifecycleEvent> history = histories.computeIfAbsent(streamId, k -> new ArrayDeque<>());
+        // Sent under the history lock so a subscriber sees the replay and live transitions in one order
+        synchronized (history) {
+            StreamLifecycleEvent last = history.peekLast();
+            if (last != null && last.getStatus() == StreamStatus.STOPPED && status == StreamStatus.PROBING) {
+                // Same id started again (retry or failover): begin a fresh lifecycle
+                history.clear();
+            } else if (last != null && (last.getStatus() == StreamStatus.STOPPED || last.getStatus() == status)) {
+                return;
+            }
+            history.addLast(event);
+            if (history.size() > MAX_HISTORY) {
+                history.pollFirst();
+            }
+
+            log.debug("Stream {} is now {}", streamId, status);
+            emitters.send(streamId, EVENT_NAME, event);
+            if (status == StreamStatus.STOPPED) {
+                emitters.complete(streamId);
+            }
+        }
+    }
+
+    public StreamLifecycleEvent getStatus(String streamId) {
+        Deque<StreamLifecycleEvent> history = histories.get(streamId);
+        if (history == null) {
+            return null;
+        }
+        synchronized (history) {
+            return history.peekLast();
+        }
+    }
+
+    public List<StreamLifecycleEvent> getHistory(String streamId) {
+        Deque<StreamLifecycleEvent> history = histories.get(streamId);
+        if (history == null) {
+            return List.of();
+        }
+        synchronized (history) {
+            return new ArrayList<>(history);
+        }
+    }
+
+    // Replays what happened so far, then streams new transitions until the stream stops. The replay
+    // and the registration share the lock record() sends under, so no transition is doubled or reordered
+    public SseEmitter subscribe(String streamId) {
+        Deque<StreamLifecycleEvent> history = histories.computeIfAbsent(streamId, k -> new ArrayDeque<>());
+        synchronized (history) {
+            SseEmitter emitter = emitters.register(streamId);
+            for (StreamLifecycleEvent event : history) {
+                if (!emitters.send(emitter, EVENT_NAME, event)) {
+                    return emitter;
+                }
+            }
+            StreamLifecycleEvent last = history.peekLast();
+            if (last != null && last.getStatus() == StreamStatus.STOPPED) {
+                emitter.complete();
+            }
+            return emitter;
+        }
+    }
+
+    @Scheduled(fixedRate = 1, timeUnit = TimeUnit.MINUTES)
+    public void evictStoppedStreams() {
+        Instant cutoff = Instant.now().minus(STOPPED_RETENTION);
+        histories.entrySet().removeIf(entry -> {
+            StreamLifecycleEvent last = getStatus(entry.getKey());
+            if (last == null) {
+                // Left behind by a subscriber waiting on a stream that never started
+                return !emitters.hasSubscribers(entry.getKey());
+            }
+            return last.getStatus() == StreamStatus.STOPPED && last.getTimestamp().isBefore(cutoff);
+        });
+    }
+}
@@ -0,0 +1,77 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.config.ClusterConfig;
+import com.streamsegmenter.model.SegmentInfo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.NavigableMap;
+
+// Brings back the streams this node was running before a restart: playlists and ad breaks are served
+// from the journal straight away and ingest resumes at the next segment number. In cluster mode the
+// journal is not replayed; streams come back only through lease failover on another node.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StreamRecovery {
+    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streamsegmenter.performance");
+
+    private final StreamJournal streamJournal;
+    private final StreamService streamService;
+    private final M3u8Service m3u8Service;
+    private final AdvertisementService advertisementService;
+    private final StreamSchedulerService schedulerService;
+    private final ClusterConfig clusterConfig;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        List<StreamJournal.JournaledStream> streams = streamJournal.getRecoverableStreams();
+        if (streams.isEmpty()) {
+            return;
+        }
+        if (clusterConfig.isEnabled()) {
+            // Leases decide who runs a stream; failover already resumes at the replicated sequence.
+            // The entries are dropped so compaction does not carry them forward forever
+            log.info("Cluster mode: leaving {} journaled streams to lease failover", streams.size());
+            streams.forEach(stream -> streamJournal.discard(stream.getStreamId()));
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        for (StreamJournal.JournaledStream stream : streams) {
+            String streamId = stream.getStreamId();
+            if (stream.getStreamUrl() == null || streamService.activeStreams.containsKey(streamId)) {
+                continue;
+            }
+            try {
+                if (!schedulerService.reclaimLease(streamId, stream.getInstanceId())) {
+                    log.info("Scheduled stream {} was taken over by another instance, not recovering it", streamId);
+                    streamJournal.discard(streamId);
+                    continue;
+                }
+                NavigableMap<Integer, SegmentInfo> segments = stream.getSegments();
+                m3u8Service.restoreStream(streamId, segments, stream.getAds());
+                advertisementService.restoreAdvertisements(streamId, stream.getAds());
+                int nextSequence = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+                streamService.startStream(stream.getStreamUrl(), stream.getStorageTypes(), stream.getQuality(),
+                                null, stream.getWatermark(), streamId, nextSequence)
+                        .exceptionally(e -> {
+                            log.error("Recovered stream {} did not resume: {}", streamId, e.getMessage());
+                            return null;
+                        });
+                log.info("Recovered stream {} with {} segments, resuming at segment {}",
+                        streamId, segments.size(), nextSequence);
+            } catch (Exception e) {
+                log.error("Failed to recover stream {}: {}", streamId, e.getMessage());
+            }
+        }
+        performanceLogger.info("Recovered {} streams from the journal in {} ms",
+                streams.size(), System.currentTimeMillis() - startTime);
+    }
+}
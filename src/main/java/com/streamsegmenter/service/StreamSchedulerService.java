@@ -1,53 +1,119 @@
 package com.streamsegmenter.service;
 
+import com.streamsegmenter.cluster.ClusterCoordinator;
+import com.streamsegmenter.config.InstanceIdentity;
+import com.streamsegmenter.config.SchedulerConfig;
+import com.streamsegmenter.model.CursorPage;
 import com.streamsegmenter.model.ScheduledStream;
+import com.streamsegmenter.model.ScheduledStreamStatus;
 import com.streamsegmenter.model.StreamRequest;
 import com.streamsegmenter.model.StreamUpdateRequest;
-import org.springframework.data.redis.core.RedisTemplate;
+import com.streamsegmenter.repository.ScheduledStreamRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import java.net.InetAddress;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class StreamSchedulerService {
-    private final RedisTemplate<String, ScheduledStream> redisTemplate;
+    private final ScheduledStreamRepository repository;
     private final StreamService streamService;
-    private final M3u8Service m3u8Service;
-    private static final String SCHEDULED_STREAMS_KEY = "scheduled_streams";
-    private final String instanceId = generateInstanceId();
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SchedulerConfig schedulerConfig;
+    private final InstanceIdentity instanceIdentity;
+    // Pending streams scored by start time (epoch ms)
+    private static final String DUE_KEY = "scheduled_streams:due";
+    // Claimed streams scored by lease expiry (epoch ms)
+    private static final String LEASES_KEY = "scheduled_streams:leases";
+    private static final String LEASE_KEY_PREFIX = "scheduled_streams:lease:";
+    private final Set<String> ownedLeases = ConcurrentHashMap.newKeySet();
 
-    private String generateInstanceId() {
-        try {
-            return InetAddress.getLocalHost().getHostName() + "-" + UUID.randomUUID().toString();
-        } catch (Exception e) {
-            return "instance-" + UUID.randomUUID().toString();
-        }
-    }
+    // KEYS: due, leases, lease  ARGV: id, now, instance, ttl
+    private static final RedisScript<Long> CLAIM_SCRIPT = new DefaultRedisScript<>("""
+            local score = redis.call('ZSCORE', KEYS[1], ARGV[1])
+            if not score or tonumber(score) > tonumber(ARGV[2]) then return 0 end
+            if not redis.call('SET', KEYS[3], ARGV[3], 'NX', 'PX', ARGV[4]) then return 0 end
+            redis.call('ZREM', KEYS[1], ARGV[1])
+            redis.call('ZADD', KEYS[2], tonumber(ARGV[2]) + tonumber(ARGV[4]), ARGV[1])
+            return 1
+            """, Long.class);
+
+    // KEYS: due  ARGV: id, score. Only moves entries that have not been claimed yet.
+    private static final RedisScript<Long> RESCHEDULE_SCRIPT = new DefaultRedisScript<>("""
+            if not redis.call('ZSCORE', KEYS[1], ARGV[1]) then return 0 end
+            redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // KEYS: lease, leases  ARGV: instance, ttl, expiry, id
+    private static final RedisScript<Long> HEARTBEAT_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            redis.call('ZADD', KEYS[2], ARGV[3], ARGV[4])
+            return 1
+            """, Long.class);
+
+    // KEYS: lease, leases  ARGV: instance, id. A lease another instance holds is left alone.
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+            local owner = redis.call('GET', KEYS[1])
+            if owner and owner ~= ARGV[1] then return 0 end
+            redis.call('DEL', KEYS[1])
+            redis.call('ZREM', KEYS[2], ARGV[2])
+            return 1
+            """, Long.class);
 
-    public Map<String, Object> getActiveAndScheduledStreams() {
-        Map<String, Object> result = new HashMap<>();
+    // KEYS: lease, leases, due  ARGV: instance, previous instance, ttl, expiry, id. Takes over a lease
+    // that is free or still held by this node's previous incarnation, and withdraws any requeue.
+    private static final RedisScript<Long> RECLAIM_SCRIPT = new DefaultRedisScript<>("""
+            local owner = redis.call('GET', KEYS[1])
+            if owner and owner ~= ARGV[1] and owner ~= ARGV[2] then return 0 end
+            redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[3])
+            redis.call('ZADD', KEYS[2], ARGV[4], ARGV[5])
+            redis.call('ZREM', KEYS[3], ARGV[5])
+            return 1
+            """, Long.class);
+
+    // KEYS: leases, due, lease, hash, cluster streams  ARGV: id, now. A stream the cluster replicates is
+    // restarted by cluster failover, so the scheduler lets go of it instead of queueing a second start.
+    private static final RedisScript<Long> REQUEUE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[3]) == 1 then return 0 end
+            if redis.call('ZREM', KEYS[1], ARGV[1]) == 0 then return 0 end
+            if redis.call('HEXISTS', KEYS[4], ARGV[1]) == 0 then return 0 end
+            if redis.call('HEXISTS', KEYS[5], ARGV[1]) == 1 then return 2 end
+            redis.call('ZADD', KEYS[2], ARGV[2], ARGV[1])
+            return 1
+            """, Long.class);
+
+    public Map<String, Object> getActiveAndScheduledStreams(String activeCursor, String scheduledCursor,
+                                                            ScheduledStreamStatus status, int pageSize) {
+        Map<String, Object> result = new LinkedHashMap<>();
 
         // Aktif streamler
-        Map<String, List<String>> activeStreamUrls = new HashMap<>();
-        streamService.activeStreams.forEach((id, context) -> {
-            activeStreamUrls.put(id, m3u8Service.getM3u8Urls(id));
-        });
+        CursorPage<Map.Entry<String, List<String>>> active = streamService.getActiveStreamPage(activeCursor, pageSize);
+        Map<String, List<String>> activeStreamUrls = new LinkedHashMap<>();
+        active.getItems().forEach(entry -> activeStreamUrls.put(entry.getKey(), entry.getValue()));
         result.put("active", activeStreamUrls);
+        result.put("activeCursor", active.getNextCursor());
 
         // Planlanmış streamler
-        result.put("scheduled", this.getAllScheduledStreams());
+        CursorPage<ScheduledStream> scheduled = repository.findPage(status, scheduledCursor, pageSize);
+        result.put("scheduled", scheduled.getItems());
+        result.put("scheduledCursor", scheduled.getNextCursor());
 
         return result;
     }
@@ -59,28 +125,21 @@ public class StreamSchedulerService {
         stream.setProcessed(false);
         stream.setProcessingInstance(null);
 
-        redisTemplate.opsForHash().put(SCHEDULED_STREAMS_KEY, stream.getId(), stream);
+        repository.save(stream);
+        stringRedisTemplate.opsForZSet().add(DUE_KEY, stream.getId(), toEpochMillis(stream.getStartTime()));
         log.info("Stream scheduled: {}", stream.getId());
     }
 
-    public List<ScheduledStream> getAllScheduledStreams() {
-        List<ScheduledStream> streams = new ArrayList<>();
-        Map<Object, Object> entries = redisTemplate.opsForHash().entries(SCHEDULED_STREAMS_KEY);
-        entries.values().forEach(obj -> {
-            ScheduledStream scheduledStream = (ScheduledStream) obj;
-            streams.add(scheduledStream);
-        });
-        return streams;
+    public List<ScheduledStream> getPendingStreamsStartingBetween(LocalDateTime from, LocalDateTime to) {
+        return repository.findByStatusStartingBetween(ScheduledStreamStatus.PENDING, from, to);
     }
 
     public ScheduledStream getScheduledStreamsById(String id) {
-        Map<Object, Object> entries = redisTemplate.opsForHash().entries(SCHEDULED_STREAMS_KEY);
-        return (ScheduledStream) entries.get(id);
+        return repository.findById(id);
     }
 
     public boolean updateScheduledStream(String streamId, StreamUpdateRequest updateRequest) {
-        ScheduledStream stream = (ScheduledStream) redisTemplate.opsForHash()
-                .get(SCHEDULED_STREAMS_KEY, streamId);
+        ScheduledStream stream = repository.findById(streamId);
 
         if (stream == null || stream.isProcessed()) {
             return false;
@@ -96,66 +155,173 @@ public class StreamSchedulerService {
             stream.setStartTime(updateRequest.getStartTime());
         }
 
-        redisTemplate.opsForHash().put(SCHEDULED_STREAMS_KEY, streamId, stream);
+        repository.save(stream);
+        if (updateRequest.getStartTime() != null) {
+            stringRedisTemplate.execute(RESCHEDULE_SCRIPT, List.of(DUE_KEY),
+                    streamId, String.valueOf(toEpochMillis(stream.getStartTime())));
+        }
         log.info("Stream updated: {}", streamId);
         return true;
     }
 
     public boolean cancelScheduledStream(String streamId) {
-        ScheduledStream stream = (ScheduledStream) redisTemplate.opsForHash()
-                .get(SCHEDULED_STREAMS_KEY, streamId);
+        ScheduledStream stream = repository.findById(streamId);
 
         if (stream == null || stream.isProcessed()) {
             return false;
         }
 
-        redisTemplate.opsForHash().delete(SCHEDULED_STREAMS_KEY, streamId);
+        repository.delete(streamId);
+        stringRedisTemplate.opsForZSet().remove(DUE_KEY, streamId);
         log.info("Stream cancelled: {}", streamId);
         return true;
     }
 
-    @Scheduled(fixedRate = 1, timeUnit = TimeUnit.MINUTES)
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillDueIndex() {
+        // Entries written before the indexes existed are indexed once at boot
+        repository.scanAll((id, stream) -> {
+            repository.reindex(stream);
+            if (ScheduledStreamStatus.of(stream) == ScheduledStreamStatus.PENDING) {
+                stringRedisTemplate.opsForZSet().addIfAbsent(DUE_KEY, id, toEpochMillis(stream.getStartTime()));
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "#{@schedulerConfig.pollIntervalMs}")
     public void processScheduledStreams() {
-        LocalDateTime now = LocalDateTime.now();
-
-        redisTemplate.opsForHash()
-                .entries(SCHEDULED_STREAMS_KEY)
-                .forEach((id, streamObj) -> {
-                    ScheduledStream stream = (ScheduledStream) streamObj;
-
-                    if (!stream.isProcessed() &&
-                            stream.getProcessingInstance() == null &&
-                            stream.getStartTime().isBefore(now)) {
-
-                        stream.setProcessingInstance(instanceId);
-                        redisTemplate.opsForHash().put(SCHEDULED_STREAMS_KEY, id, stream);
-
-                        try {
-                            // Watermark bilgisini al
-                            StreamRequest.Watermark watermark = stream.getWatermark();
-
-                            streamService.startStream(
-                                    stream.getStreamUrl(),
-                                    stream.getStorageTypes(),
-                                    stream.getVideoQuality(),
-                                    null,
-                                    watermark,
-                                    stream.getId()
-                            );
-                            stream.setProcessed(true);
-                            redisTemplate.opsForHash().put(SCHEDULED_STREAMS_KEY, id, stream);
-                            log.info("Scheduled stream started: {}", stream.getId());
-                        } catch (Exception e) {
-                            log.error("Failed to start scheduled stream {}: {}", id, e.getMessage());
-                            stream.setProcessingInstance(null);
-                            redisTemplate.opsForHash().put(SCHEDULED_STREAMS_KEY, id, stream);
-                        }
-                    }
-                });
+        long now = System.currentTimeMillis();
+        Set<String> dueIds = stringRedisTemplate.opsForZSet()
+                .rangeByScore(DUE_KEY, Double.NEGATIVE_INFINITY, now, 0, schedulerConfig.getBatchSize());
+        if (dueIds == null || dueIds.isEmpty()) {
+            return;
+        }
+
+        for (String id : dueIds) {
+            if (claim(id, now)) {
+                startClaimedStream(id);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "#{@schedulerConfig.heartbeatIntervalMs}")
+    public void renewLeases() {
+        long now = System.currentTimeMillis();
+        long ttl = schedulerConfig.getLeaseTtlMs();
+
+        for (String id : ownedLeases) {
+            if (!streamService.activeStreams.containsKey(id)) {
+                // Stream ended on this instance; it must not be restarted elsewhere
+                releaseLease(id);
+                continue;
+            }
+            Long renewed = stringRedisTemplate.execute(HEARTBEAT_SCRIPT,
+                    List.of(LEASE_KEY_PREFIX + id, LEASES_KEY),
+                    instanceIdentity.getInstanceId(), String.valueOf(ttl), String.valueOf(now + ttl), id);
+            if (renewed == null || renewed == 0) {
+                log.warn("Lease for scheduled stream {} was lost", id);
+                ownedLeases.remove(id);
+            }
+        }
+
+        requeueExpiredLeases(now);
+    }
+
+    private void requeueExpiredLeases(long now) {
+        Set<String> expired = stringRedisTemplate.opsForZSet()
+                .rangeByScore(LEASES_KEY, Double.NEGATIVE_INFINITY, now, 0, schedulerConfig.getBatchSize());
+        if (expired == null) {
+            return;
+        }
+
+        for (String id : expired) {
+            Long requeued = stringRedisTemplate.execute(REQUEUE_SCRIPT,
+                    List.of(LEASES_KEY, DUE_KEY, LEASE_KEY_PREFIX + id, ScheduledStreamRepository.SCHEDULED_STREAMS_KEY,
+                            ClusterCoordinator.STREAMS_KEY),
+                    id, String.valueOf(now));
+            if (requeued != null && requeued == 1) {
+                log.info("Re-queued scheduled stream {} after its owner lease expired", id);
+            } else if (requeued != null && requeued == 2) {
+                log.info("Scheduled stream {} lost its owner, leaving it to cluster failover", id);
+            }
+        }
+    }
+
+    // Called for a stream recovered after a restart, whose lease nobody renews any more. False when the
+    // stream is scheduled and another instance has already taken it over.
+    public boolean reclaimLease(String id, String previousInstance) {
+        if (repository.findById(id) == null) {
+            return true;
+        }
+        long ttl = schedulerConfig.getLeaseTtlMs();
+        Long reclaimed = stringRedisTemplate.execute(RECLAIM_SCRIPT,
+                List.of(LEASE_KEY_PREFIX + id, LEASES_KEY, DUE_KEY),
+                instanceIdentity.getInstanceId(), previousInstance != null ? previousInstance : "",
+                String.valueOf(ttl), String.valueOf(System.currentTimeMillis() + ttl), id);
+        if (reclaimed == null || reclaimed == 0) {
+            return false;
+        }
+        ownedLeases.add(id);
+        return true;
+    }
+
+    private boolean claim(String id, long now) {
+        Long claimed = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                List.of(DUE_KEY, LEASES_KEY, LEASE_KEY_PREFIX + id),
+                id, String.valueOf(now), instanceIdentity.getInstanceId(), String.valueOf(schedulerConfig.getLeaseTtlMs()));
+        return claimed != null && claimed == 1;
+    }
+
+    private void startClaimedStream(String id) {
+        ScheduledStream stream = repository.findById(id);
+        if (stream == null) {
+            releaseLease(id);
+            return;
+        }
+
+        ownedLeases.add(id);
+        stream.setProcessingInstance(instanceIdentity.getInstanceId());
+        repository.save(stream);
+
+        try {
+            // Watermark bilgisini al
+            StreamRequest.Watermark watermark = stream.getWatermark();
+
+            streamService.startStream(
+                    stream.getStreamUrl(),
+                    stream.getStorageTypes(),
+                    stream.getVideoQuality(),
+                    null,
+                    watermark,
+                    stream.getId()
+            );
+            stream.setProcessed(true);
+            repository.save(stream);
+            log.info("Scheduled stream started: {}", stream.getId());
+        } catch (Exception e) {
+            log.error("Failed to start scheduled stream {}: {}", id, e.getMessage());
+            stream.setProcessingInstance(null);
+            repository.save(stream);
+            releaseLease(id);
+            stringRedisTemplate.opsForZSet().add(DUE_KEY, id,
+                    System.currentTimeMillis() + schedulerConfig.getRetryDelayMs());
+        }
+    }
+
+    private void releaseLease(String id) {
+        ownedLeases.remove(id);
+        stringRedisTemplate.execute(RELEASE_SCRIPT, List.of(LEASE_KEY_PREFIX + id, LEASES_KEY),
+                instanceIdentity.getInstanceId(), id);
+    }
+
+    private long toEpochMillis(LocalDateTime time) {
+        return ScheduledStreamRepository.toEpochMillis(time);
     }
 
     public void removeScheduledStream(String streamId) {
-        redisTemplate.opsForHash().delete(SCHEDULED_STREAMS_KEY, streamId);
+        repository.delete(streamId);
+        stringRedisTemplate.opsForZSet().remove(DUE_KEY, streamId);
+        releaseLease(streamId);
         log.info("Stream removed from scheduler: {}", streamId);
     }
 }
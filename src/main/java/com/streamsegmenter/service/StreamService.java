@@ -1,19 +1,32 @@
 package com.streamsegmenter.service;
 
 import com.streamsegmenter.config.StorageConfig;
+import com.streamsegmenter.event.SegmentPublishedEvent;
+import com.streamsegmenter.event.StreamStartedEvent;
+import com.streamsegmenter.event.StreamStoppedEvent;
+import com.streamsegmenter.jfr.SegmentDetectedEvent;
+import com.streamsegmenter.model.CursorPage;
+import com.streamsegmenter.model.SegmentInfo;
 import com.streamsegmenter.model.StreamContext;
 import com.streamsegmenter.model.StreamRequest;
+import com.streamsegmenter.model.StreamStatus;
 import com.streamsegmenter.model.VideoQuality;
+import com.streamsegmenter.util.SequenceWindow;
+import io.opentelemetry.api.trace.Span;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.scheduling.annotation.Async;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.nio.file.*;
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.concurrent.*;
 import java.util.List;
 import java.util.UUID;
@@ -37,37 +50,85 @@ public class StreamService {
     private final StorageManager storageManager;
     private final M3u8Service m3u8Service;
     private final FFmpegService ffmpegService;
-    public final ConcurrentHashMap<String, StreamContext> activeStreams = new ConcurrentHashMap<>();
+    private final ApplicationEventPublisher eventPublisher;
+    private final StreamLifecycleService lifecycleService;
+    private final TsSegmentParser segmentParser;
+    private final ThumbnailService thumbnailService;
+    private final IngestRegistry ingestRegistry;
+    private final SegmentTracer segmentTracer;
+    private final SegmentWatcher segmentWatcher;
+    // Sorted so listings can page by stream id without copying the map
+    public final ConcurrentSkipListMap<String, StreamContext> activeStreams = new ConcurrentSkipListMap<>();
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-    private final ConcurrentHashMap<String, Set<String>> processedSegments = new ConcurrentHashMap<>();
-    private static final int SEGMENT_PROCESSING_DELAY_MS = 1000;
+    // Fixed-size per stream: a bitmap over the latest sequence numbers instead of every name ever seen
+    private final ConcurrentHashMap<String, SequenceWindow> processedSegments = new ConcurrentHashMap<>();
+    // Encodes whose owning stream was stopped while aliases still publish from them
+    private final ConcurrentHashMap<String, StreamContext> detachedIngests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> pendingAliases = new ConcurrentHashMap<>();
+    // Segments FFmpeg may still be writing behind the newest file
+    private static final int SEGMENT_LAG = 4;
+    private static final Pattern SEGMENT_NUMBER = Pattern.compile("segment_(\\d+)\\.ts");
+    // Far wider than the few segments FFmpeg can have in flight at once
+    private static final int PROCESSED_WINDOW = 1024;
 
     public CompletableFuture<List<String>> startStream(String streamUrl, List<String> storageTypes,
                                                        VideoQuality quality, LocalDateTime startTime,
                                                        StreamRequest.Watermark watermark,
                                                        String providedStreamId) {
+        return startStream(streamUrl, storageTypes, quality, startTime, watermark, providedStreamId, 0);
+    }
+
+    // startSequence lets a stream resume its segment numbering, e.g. after a failover
+    public CompletableFuture<List<String>> startStream(String streamUrl, List<String> storageTypes,
+                                                       VideoQuality quality, LocalDateTime startTime,
+                                                       StreamRequest.Watermark watermark,
+                                                       String providedStreamId, int startSequence) {
         long startTimeP = System.currentTimeMillis();
         String streamId = providedStreamId != null ? providedStreamId : UUID.randomUUID().toString();
 
         try {
             StreamContext context = new StreamContext(streamUrl);
-            activeStreams.put(streamId, context);
-            processedSegments.put(streamId, ConcurrentHashMap.newKeySet());
+            context.getSequenceNumber().set(startSequence);
+            context.setQuality(quality);
+            // A second start of a running id (a requeue or failover racing recovery) must not spawn another encode
+            StreamContext running = activeStreams.putIfAbsent(streamId, context);
+            if (running != null) {
+                log.warn("Stream {} is already running, ignoring duplicate start", streamId);
+                return CompletableFuture.completedFuture(running.getPlaylistUrls() != null
+                        ? running.getPlaylistUrls() : m3u8Service.getM3u8Urls(streamId));
+            }
+            lifecycleService.record(streamId, StreamStatus.PROBING);
+            String ownerId = ingestRegistry.attach(
+                    IngestRegistry.key(streamUrl, quality, watermark, storageTypes), streamId);
 
             storageManager.registerStreamStorages(streamId, storageTypes);
+            eventPublisher.publishEvent(new StreamStartedEvent(streamId, streamUrl, storageTypes,
+                    quality, watermark, startSequence));
             CompletableFuture<List<String>> resultFuture = new CompletableFuture<>();
             CompletableFuture<Void> readySignal = new CompletableFuture<>();
 
-            processStream(streamId, streamUrl, readySignal, quality, watermark);
+            if (ownerId != null) {
+                // Same source and output as a running encode: publish its segments under this stream's playlists
+                log.info("Stream {} shares the ingest of stream {}", streamId, ownerId);
+                m3u8Service.setSegmentPrefix(streamId, ownerId);
+                pendingAliases.put(streamId, readySignal);
+                lifecycleService.record(streamId, StreamStatus.ENCODING);
+            } else {
+                processedSegments.put(streamId, new SequenceWindow(PROCESSED_WINDOW));
+                processStream(streamId, streamUrl, readySignal, quality, watermark, startSequence);
+            }
 
             readySignal.orTimeout(30, TimeUnit.SECONDS)
                     .thenApply(v -> m3u8Service.getM3u8Urls(streamId))
                     .whenComplete((urls, ex) -> {
                         if (ex != null) {
+                            lifecycleService.record(streamId, StreamStatus.DEGRADED,
+                                    "No segment published within 30 seconds");
                             stopStream(streamId);
                             resultFuture.completeExceptionally(
                                     new RuntimeException("Failed to start stream within timeout", ex));
                         } else {
+                            context.setPlaylistUrls(urls);
                             resultFuture.complete(urls);
                         }
 
@@ -84,9 +145,27 @@ public class StreamService {
         }
     }
 
+    public CursorPage<Map.Entry<String, List<String>>> getActiveStreamPage(String cursor, int size) {
+        NavigableMap<String, StreamContext> view = cursor != null
+                ? activeStreams.tailMap(cursor, false)
+                : activeStreams;
+
+        List<Map.Entry<String, List<String>>> items = new ArrayList<>(Math.min(size, 64));
+        String lastId = null;
+        for (Map.Entry<String, StreamContext> entry : view.entrySet()) {
+            if (items.size() == size) {
+                return new CursorPage<>(items, lastId);
+            }
+            items.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().getPlaylistUrls()));
+            lastId = entry.getKey();
+        }
+        return new CursorPage<>(items, null);
+    }
+
     @Async
     protected void processStream(String streamId, String streamUrl, CompletableFuture<Void> readySignal,
-                                 VideoQuality quality, StreamRequest.Watermark watermark) {
+                                 VideoQuality quality, StreamRequest.Watermark watermark,
+                                 int startSequence) {
         StreamContext context = activeStreams.get(streamId);
         Path tempDir = config.resolvePath("streams", streamId);
         AtomicBoolean isFirstSegmentCreated = new AtomicBoolean(false);
@@ -94,50 +173,27 @@ public class StreamService {
         try {
             Files.createDirectories(tempDir);
             Path segmentPattern = tempDir.resolve("segment_%d.ts");
+            Path spritePattern = thumbnailService.prepare(streamId, quality, startSequence);
 
-            CompletableFuture<Void> ffmpegFuture = ffmpegService.startStreamProcessing(
-                    streamId, streamUrl, segmentPattern, quality, watermark);
-
-            WatchService watchService = FileSystems.getDefault().newWatchService();
-            tempDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+            // Registered before FFmpeg starts so no segment can appear unwatched
+            SegmentWatcher.Registration watch = segmentWatcher.register(tempDir, new SegmentFollower(
+                    streamId, tempDir, context, startSequence, isFirstSegmentCreated, readySignal));
 
-            //burda bir geriden gitmeliyiz
-            CompletableFuture.runAsync(() -> {
-                try {
-                    while (context.isActive()) {
-                        WatchKey key = watchService.poll(1, TimeUnit.SECONDS);
-                        if (key != null) {
-                            for (WatchEvent<?> event : key.pollEvents()) {
-                                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
-                                    Path newPath = tempDir.resolve((Path) event.context());
-                                    String segmentName = newPath.getFileName().toString();
-                                    while(!Files.exists(tempDir.resolve(getNextSegment(segmentName) ))) {
-                                        Thread.sleep(SEGMENT_PROCESSING_DELAY_MS);
-                                    }
-                                    if (segmentName.endsWith(".ts")) {
-                                        // Wait for the file to be completely written
-                                        processSegment(streamId, newPath, segmentName, isFirstSegmentCreated, readySignal);
-                                    }
-                                }
-                            }
-                            key.reset();
-                        }
-                    }
-                } catch (Exception e) {
-                    log.error("Error in segment monitoring: {}", e.getMessage());
-                }
-            });
+            CompletableFuture<Void> ffmpegFuture = ffmpegService.startStreamProcessing(
+                    streamId, streamUrl, segmentPattern, quality, watermark, startSequence, spritePattern);
 
             ffmpegFuture.whenComplete((v, ex) -> {
-                if (ex != null) {
+                watch.close();
+                // An inactive context means the stream was stopped or released on purpose
+                if (ex != null && context.isActive()) {
                     log.error("FFmpeg processing failed: {}", ex.getMessage());
+                    for (String alias : ingestRegistry.remove(streamId)) {
+                        lifecycleService.record(alias, StreamStatus.DEGRADED, "Shared ingest exited: " + ex.getMessage());
+                        stopAlias(alias);
+                    }
+                    lifecycleService.record(streamId, StreamStatus.DEGRADED, "FFmpeg exited: " + ex.getMessage());
                     stopStream(streamId);
                 }
-                try {
-                    watchService.close();
-                } catch (Exception e) {
-                    log.error("Error closing watch service: {}", e.getMessage());
-                }
             });
 
         } catch (Exception e) {
@@ -149,46 +205,152 @@ public class StreamService {
         }
     }
 
-    private String getNextSegment (String path) {
-        Pattern pattern = Pattern.compile("segment_(\\d+)\\.ts");
-        Matcher matcher = pattern.matcher(path);
+    // Follows one stream's segment directory. FFmpeg may still be writing the newest segments, so
+    // segment N is only processed once segment N + SEGMENT_LAG exists.
+    private final class SegmentFollower implements SegmentWatcher.Handler {
+        private final String streamId;
+        private final Path directory;
+        private final StreamContext context;
+        private final AtomicBoolean isFirstSegmentCreated;
+        private final CompletableFuture<Void> readySignal;
+        private boolean encodingReported;
+        private int nextSequence;
 
-        if (matcher.find()) {
-            int segmentNumber = Integer.parseInt(matcher.group(1)) + 4;
-            String newSegment = "segment_" + segmentNumber + ".ts";
-            return matcher.replaceFirst(newSegment);
+        private SegmentFollower(String streamId, Path directory, StreamContext context, int startSequence,
+                                AtomicBoolean isFirstSegmentCreated, CompletableFuture<Void> readySignal) {
+            this.streamId = streamId;
+            this.directory = directory;
+            this.context = context;
+            this.nextSequence = startSequence;
+            this.isFirstSegmentCreated = isFirstSegmentCreated;
+            this.readySignal = readySignal;
+        }
+
+        @Override
+        public void created(Path file) {
+            int sequence = segmentNumber(file.getFileName().toString());
+            if (sequence >= 0) {
+                processUpTo(sequence - SEGMENT_LAG);
+            }
+        }
+
+        @Override
+        public void rescan() {
+            int latest = -1;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment_*.ts")) {
+                for (Path file : files) {
+                    latest = Math.max(latest, segmentNumber(file.getFileName().toString()));
+                }
+            } catch (IOException e) {
+                log.warn("Could not rescan segments of stream {}: {}", streamId, e.getMessage());
+                return;
+            }
+            if (latest >= 0) {
+                processUpTo(latest - SEGMENT_LAG);
+            }
+        }
+
+        // Everything up to limit is complete, including segments whose events were lost
+        private void processUpTo(int limit) {
+            if (!context.isActive()) {
+                return;
+            }
+            if (!encodingReported) {
+                // FFmpeg only writes output once probing the input has finished
+                encodingReported = true;
+                lifecycleService.record(streamId, StreamStatus.ENCODING);
+            }
+            for (; nextSequence <= limit; nextSequence++) {
+                String segmentName = "segment_" + nextSequence + ".ts";
+                Path segmentPath = directory.resolve(segmentName);
+                if (Files.exists(segmentPath)) {
+                    processSegment(streamId, segmentPath, segmentName, isFirstSegmentCreated, readySignal);
+                }
+            }
         }
-        return null;
     }
 
     private void processSegment(String streamId, Path segmentPath, String segmentName,
                                 AtomicBoolean isFirstSegmentCreated, CompletableFuture<Void> readySignal) {
-        Set<String> processed = processedSegments.get(streamId);
-        if (processed != null && !processed.contains(segmentName)) {
+        SequenceWindow processed = processedSegments.get(streamId);
+        int sequence = segmentNumber(segmentName);
+        if (processed != null && sequence >= 0 && !processed.contains(sequence)) {
             try {
                 if (!Files.exists(segmentPath) || Files.size(segmentPath) == 0) {
                     log.warn("Skipping empty or non-existent segment: {}", segmentPath);
                     return;
                 }
+                SegmentDetectedEvent detected = new SegmentDetectedEvent();
+                if (detected.isEnabled()) {
+                    detected.streamId = streamId;
+                    detected.segment = segmentName;
+                    detected.sequence = sequence;
+                    detected.sizeBytes = Files.size(segmentPath);
+                    detected.commit();
+                }
+                Span segmentSpan = segmentTracer.segmentDetected(streamId, segmentName, sequence, segmentPath);
+                long parseStart = System.nanoTime();
+                Span parseSpan = segmentTracer.startChild(segmentSpan, "segment.parse");
+                SegmentInfo segmentInfo;
+                try {
+                    segmentInfo = segmentParser.parse(segmentPath);
+                } finally {
+                    parseSpan.end();
+                }
+                performanceLogger.debug("Segment {} parsed in {} us", segmentName,
+                        (System.nanoTime() - parseStart) / 1000);
+                if (!segmentInfo.isValid()) {
+                    log.warn("Skipping malformed segment: {} ({} bytes)", segmentPath, segmentInfo.getSizeBytes());
+                    lifecycleService.record(streamId, StreamStatus.DEGRADED, "Malformed segment " + segmentName);
+                    segmentTracer.failed(segmentSpan, "Malformed segment");
+                    return;
+                }
+                if (segmentInfo.getContinuityErrors() > 0 || segmentInfo.getPcrErrors() > 0) {
+                    log.warn("Segment {} has {} continuity and {} PCR errors", segmentName,
+                            segmentInfo.getContinuityErrors(), segmentInfo.getPcrErrors());
+                }
+                if (!isFirstSegmentCreated.get()) {
+                    lifecycleService.record(streamId, StreamStatus.FIRST_SEGMENT_READY);
+                }
 
-                List<CompletableFuture<String>> uploads = new ArrayList<>();
                 List<StorageService> services = storageManager.getStoragesForStream(streamId);
 
-                for (StorageService service : services) {
-                    uploads.add(service.uploadSegment(segmentPath, streamId));
-                }
-
-                CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0]))
+                // Upload spans of every backend hang off the segment span
+                segmentTracer.within(segmentSpan,
+                                () -> storageManager.uploadAll(List.of(segmentPath), streamId, services))
                         .thenRun(() -> {
-                            processed.add(segmentName);
-                            m3u8Service.addSegment(streamId, segmentName);
+                            processed.add(sequence);
+                            Span publishSpan = segmentTracer.startChild(segmentSpan, "segment.publish");
+                            if (ingestRegistry.isOwnerAttached(streamId)) {
+                                m3u8Service.addSegment(streamId, segmentName, segmentInfo);
+                                publishSegment(streamId, segmentName);
+                                lifecycleService.record(streamId, StreamStatus.PUBLISHED);
+                            }
                             if (isFirstSegmentCreated.compareAndSet(false, true)) {
                                 readySignal.complete(null);
                             }
+                            for (String alias : ingestRegistry.getAliases(streamId)) {
+                                m3u8Service.addSegment(alias, segmentName, segmentInfo);
+                                publishSegment(alias, segmentName);
+                                lifecycleService.record(alias, StreamStatus.PUBLISHED);
+                                CompletableFuture<Void> aliasReady = pendingAliases.remove(alias);
+                                if (aliasReady != null) {
+                                    aliasReady.complete(null);
+                                }
+                                segmentTracer.published(alias, sequence, segmentSpan);
+                            }
+                            if (ingestRegistry.isOwnerAttached(streamId)) {
+                                segmentTracer.published(streamId, sequence, segmentSpan);
+                            }
+                            publishSpan.end();
+                            segmentSpan.end();
                             log.info("Successfully processed segment: {}", segmentName);
                         })
                         .exceptionally(e -> {
                             log.error("Error processing segment: {} - {}", segmentName, e.getMessage());
+                            lifecycleService.record(streamId, StreamStatus.DEGRADED,
+                                    "Upload failed for " + segmentName);
+                            segmentTracer.failed(segmentSpan, "Upload failed");
                             return null;
                         });
             } catch (Exception e) {
@@ -197,12 +359,84 @@ public class StreamService {
         }
     }
 
+    private void publishSegment(String streamId, String segmentName) {
+        int sequence = segmentNumber(segmentName);
+        if (sequence < 0) {
+            return;
+        }
+        StreamContext context = activeStreams.get(streamId);
+        if (context != null) {
+            context.getSequenceNumber().accumulateAndGet(sequence + 1, Math::max);
+        }
+        eventPublisher.publishEvent(new SegmentPublishedEvent(streamId, segmentName, sequence));
+    }
+
+    private static int segmentNumber(String segmentName) {
+        Matcher matcher = SEGMENT_NUMBER.matcher(segmentName);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
     public void stopStream(String streamId) {
+        IngestRegistry.Release release = ingestRegistry.release(streamId);
+        switch (release.kind()) {
+            case ALIAS -> {
+                stopAlias(streamId);
+                if (release.ingestIdle()) {
+                    stopIngest(release.ownerId());
+                }
+            }
+            case DETACHED -> detachIngest(streamId);
+            case LAST -> stopIngest(streamId);
+        }
+    }
+
+    // Aliases own their playlists and ads only; the segments belong to the ingest owner
+    private void stopAlias(String streamId) {
+        pendingAliases.remove(streamId);
         StreamContext context = activeStreams.remove(streamId);
         if (context != null) {
             context.setActive(false);
-            ffmpegService.stopProcess(streamId);
+            eventPublisher.publishEvent(new StreamStoppedEvent(streamId));
+            lifecycleService.record(streamId, StreamStatus.STOPPED);
+        }
+        m3u8Service.clearStreamCache(streamId);
+        for (StorageService service : storageManager.getStoragesForStream(streamId)) {
+            try {
+                service.deleteStream(streamId);
+            } catch (Exception e) {
+                log.error("Error cleaning up storage for service {}: {}",
+                        service.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+        cleanupAdvertisementDirectory(streamId);
+        storageManager.removeStreamStorages(streamId);
+    }
 
+    // The owner stops publishing but its encode, local files and uploaded segments stay for the aliases
+    private void detachIngest(String streamId) {
+        StreamContext context = activeStreams.remove(streamId);
+        if (context != null) {
+            detachedIngests.put(streamId, context);
+            eventPublisher.publishEvent(new StreamStoppedEvent(streamId));
+            lifecycleService.record(streamId, StreamStatus.STOPPED);
+        }
+        m3u8Service.clearStreamCache(streamId);
+        log.info("Stream {} stopped, its ingest keeps running for {} alias(es)",
+                streamId, ingestRegistry.getAliases(streamId).size());
+    }
+
+    private void stopIngest(String streamId) {
+        StreamContext context = activeStreams.remove(streamId);
+        if (context != null) {
+            context.setActive(false);
+            ffmpegService.stopProcess(streamId);
+            eventPublisher.publishEvent(new StreamStoppedEvent(streamId));
+            lifecycleService.record(streamId, StreamStatus.STOPPED);
+        }
+        StreamContext detached = detachedIngests.remove(streamId);
+        if (detached != null) {
+            detached.setActive(false);
+            ffmpegService.stopProcess(streamId);
         }
         m3u8Service.clearStreamCache(streamId);
         // Clean up storages
@@ -219,6 +453,29 @@ public class StreamService {
         // Clean up local files
         cleanupStreamDirectory(streamId);
         cleanupAdvertisementDirectory(streamId); // Advertisement klasörünü temizle
+        thumbnailService.release(streamId);
+        storageManager.removeStreamStorages(streamId);
+        processedSegments.remove(streamId);
+    }
+
+    // Stops local ingest but keeps uploaded segments, e.g. when another node has taken the stream over
+    public void releaseStream(String streamId) {
+        // Aliases cannot outlive a released encode; their leases lapse and they fail over on their own
+        for (String alias : ingestRegistry.remove(streamId)) {
+            releaseStream(alias);
+        }
+        ingestRegistry.release(streamId);
+        pendingAliases.remove(streamId);
+        StreamContext context = activeStreams.remove(streamId);
+        if (context != null) {
+            context.setActive(false);
+            ffmpegService.stopProcess(streamId);
+            eventPublisher.publishEvent(new StreamStoppedEvent(streamId));
+            lifecycleService.record(streamId, StreamStatus.STOPPED);
+        }
+        m3u8Service.dropLocalPlaylists(streamId);
+        cleanupStreamDirectory(streamId);
+        thumbnailService.release(streamId);
         storageManager.removeStreamStorages(streamId);
         processedSegments.remove(streamId);
     }
@@ -0,0 +1,179 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.config.StorageConfig;
+import com.streamsegmenter.config.ThumbnailConfig;
+import com.streamsegmenter.event.SegmentPublishedEvent;
+import com.streamsegmenter.model.VideoQuality;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Publishes the sprite sheets the live FFmpeg process tiles next to its segments, and the WebVTT
+// track that maps each moment of the stream to a cell of a sprite
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ThumbnailService {
+    private static final int SEGMENT_DURATION = 5;
+
+    private final ThumbnailConfig thumbnailConfig;
+    private final StorageConfig storageConfig;
+    private final StorageManager storageManager;
+    private final IngestRegistry ingestRegistry;
+    private final Map<String, SpriteTrack> tracks = new ConcurrentHashMap<>();
+
+    // Returns the image2 output pattern for the stream, or null when thumbnails are disabled
+    public Path prepare(String streamId, VideoQuality quality, int startSequence) throws IOException {
+        if (!thumbnailConfig.isEnabled() || quality == null) {
+            return null;
+        }
+        // Kept out of the segment directory so the segment watcher never sees sprites
+        Path spriteDir = storageConfig.resolvePath("thumbnails", streamId);
+        Files.createDirectories(spriteDir);
+        SpriteTrack track = new SpriteTrack(spriteDir, startSequence,
+                thumbnailConfig.getWidth(), thumbnailConfig.heightFor(quality));
+        tracks.put(streamId, track);
+        return spriteDir.resolve(track.spriteName("%d"));
+    }
+
+    // Sprites are picked up at segment cadence; a sprite only exists once FFmpeg has renamed it into place
+    @EventListener
+    public void onSegmentPublished(SegmentPublishedEvent event) {
+        // Aliases of a shared ingest keep sprites moving after the owning stream was stopped
+        String ownerId = ingestRegistry.getOwner(event.streamId());
+        SpriteTrack track = tracks.get(ownerId);
+        if (track == null) {
+            return;
+        }
+        List<Path> ready = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        synchronized (track) {
+            Path sprite;
+            while (Files.exists(sprite = track.directory.resolve(track.spriteName(String.valueOf(track.nextSprite))))) {
+                ready.add(sprite);
+                indexes.add(track.nextSprite++);
+            }
+        }
+        if (ready.isEmpty()) {
+            return;
+        }
+
+        List<StorageService> services = storageManager.getStoragesForStream(ownerId);
+        // LOCAL serves sprites straight from the sprite directory, so they stay until they leave the track
+        boolean servedLocally = services.stream().anyMatch(s -> "LOCAL".equals(s.getStorageType()));
+        storageManager.uploadAll(ready, ownerId, services)
+                .thenRun(() -> {
+                    List<Path> expired = new ArrayList<>();
+                    synchronized (track) {
+                        track.uploaded.addAll(indexes);
+                        while (track.uploaded.size() > thumbnailConfig.getMaxSprites()) {
+                            int index = track.uploaded.pollFirst();
+                            if (servedLocally) {
+                                expired.add(track.directory.resolve(track.spriteName(String.valueOf(index))));
+                            }
+                        }
+                    }
+                    for (Path sprite : servedLocally ? expired : ready) {
+                        try {
+                            Files.deleteIfExists(sprite);
+                        } catch (IOException e) {
+                            log.debug("Could not delete uploaded sprite {}", sprite);
+                        }
+                    }
+                })
+                .exceptionally(e -> {
+                    log.warn("Failed to upload thumbnails for stream {}: {}", ownerId, e.getMessage());
+                    return null;
+                });
+    }
+
+    // Null when this node is not producing thumbnails for the stream
+    public String getThumbnailTrack(String streamId, String storageType) {
+        String ownerId = ingestRegistry.getOwner(streamId);
+        SpriteTrack track = tracks.get(ownerId);
+        if (track == null) {
+            return null;
+        }
+        StorageService service = storageManager.getStoragesForStream(streamId).stream()
+                .filter(s -> s.getStorageType().equalsIgnoreCase(storageType) && s.isReady())
+                .findFirst()
+                .orElse(null);
+        if (service == null) {
+            return null;
+        }
+
+        List<Integer> sprites;
+        synchronized (track) {
+            sprites = new ArrayList<>(track.uploaded);
+        }
+        int interval = thumbnailConfig.getIntervalSeconds();
+        int columns = thumbnailConfig.getColumns();
+        int framesPerSprite = thumbnailConfig.getFramesPerSprite();
+        // Same timeline as the segments: segment N starts at N * 5 seconds
+        long origin = (long) track.startSequence * SEGMENT_DURATION;
+
+        StringBuilder vtt = new StringBuilder("WEBVTT\n");
+        for (int sprite : sprites) {
+            String url = service.getSegmentUrl(ownerId, track.spriteName(String.valueOf(sprite)));
+            for (int cell = 0; cell < framesPerSprite; cell++) {
+                long start = origin + ((long) sprite * framesPerSprite + cell) * interval;
+                vtt.append('\n')
+                        .append(timestamp(start)).append(" --> ").append(timestamp(start + interval)).append('\n')
+                        .append(url).append("#xywh=")
+                        .append((cell % columns) * track.width).append(',')
+                        .append((cell / columns) * track.height).append(',')
+                        .append(track.width).append(',').append(track.height).append('\n');
+            }
+        }
+        return vtt.toString();
+    }
+
+    // Called once the encode is gone; FFmpeg would fail on a sprite directory removed under it
+    public void release(String streamId) {
+        SpriteTrack track = tracks.remove(streamId);
+        if (track == null) {
+            return;
+        }
+        try (var files = Files.walk(track.directory)) {
+            files.sorted((a, b) -> -a.compareTo(b)).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Failed to clean up thumbnails for stream {}: {}", streamId, e.getMessage());
+        }
+    }
+
+    private static String timestamp(long seconds) {
+        return String.format(Locale.ROOT, "%02d:%02d:%02d.000", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    private static final class SpriteTrack {
+        private final Path directory;
+        private final int startSequence;
+        private final int width;
+        private final int height;
+        private final TreeSet<Integer> uploaded = new TreeSet<>();
+        private int nextSprite;
+
+        private SpriteTrack(Path directory, int startSequence, int width, int height) {
+            this.directory = directory;
+            this.startSequence = startSequence;
+            this.width = width;
+            this.height = height;
+        }
+
+        // The start sequence keeps names unique when a stream resumes on another node
+        private String spriteName(String index) {
+            return String.format("sprite_%d_%s.jpg", startSequence, index);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.model.SegmentInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Single pass over a memory-mapped MPEG-TS segment. Only headers are touched, so the cost is one
+// branchy loop over the packets and nothing is copied off the mapping.
+@Slf4j
+@Component
+public class TsSegmentParser {
+    private static final int PACKET_SIZE = 188;
+    private static final int SYNC_BYTE = 0x47;
+    private static final int PAT_PID = 0x0000;
+    private static final int NULL_PID = 0x1FFF;
+    private static final long PTS_WRAP = 1L << 33;
+    private static final long PCR_WRAP = PTS_WRAP * 300;
+    private static final long PTS_CLOCK = 90_000;
+    // ISO 13818-1 caps the PCR interval at 100 ms (27 MHz clock)
+    private static final long MAX_PCR_INTERVAL = 27_000_000L / 10;
+
+    public SegmentInfo parse(Path segmentPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            SegmentInfo info = new SegmentInfo();
+            info.setSizeBytes(size);
+            if (size == 0 || size % PACKET_SIZE != 0 || size > Integer.MAX_VALUE) {
+                // A trailing partial packet means the muxer has not finished writing
+                return info;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return parse(buffer, (int) size, info);
+        }
+    }
+
+    private SegmentInfo parse(MappedByteBuffer buffer, int size, SegmentInfo info) {
+        int[] continuity = new int[NULL_PID + 1];
+        Arrays.fill(continuity, -1);
+        int pmtPid = -1;
+        int videoPid = -1;
+        int ptsPid = -1;
+
+        long ptsReference = -1;
+        long minPts = Long.MAX_VALUE;
+        long maxPts = Long.MIN_VALUE;
+        int ptsCount = 0;
+        long lastPcr = -1;
+        int continuityErrors = 0;
+        int pcrErrors = 0;
+        int initSectionLength = 0;
+        long[] keyframes = new long[8];
+        long[] keyframeLengths = new long[8];
+        long[] keyframePts = new long[8];
+        int keyframeCount = 0;
+        int lastVideoPacketEnd = 0;
+
+        for (int offset = 0; offset < size; offset += PACKET_SIZE) {
+            if ((buffer.get(offset) & 0xFF) != SYNC_BYTE) {
+                log.debug("Lost TS sync at byte {}", offset);
+                return info;
+            }
+            int b1 = buffer.get(offset + 1) & 0xFF;
+            int b3 = buffer.get(offset + 3) & 0xFF;
+            boolean payloadStart = (b1 & 0x40) != 0;
+            int pid = ((b1 & 0x1F) << 8) | (buffer.get(offset + 2) & 0xFF);
+            int adaptationControl = (b3 >> 4) & 0x3;
+            boolean hasPayload = (adaptationControl & 0x1) != 0;
+            if (pid == NULL_PID) {
+                continue;
+            }
+
+            int payload = offset + 4;
+            boolean discontinuity = false;
+            boolean randomAccess = false;
+            if ((adaptationControl & 0x2) != 0) {
+                int adaptationLength = buffer.get(offset + 4) & 0xFF;
+                if (adaptationLength > 0) {
+                    int flags = buffer.get(offset + 5) & 0xFF;
+                    discontinuity = (flags & 0x80) != 0;
+                    randomAccess = (flags & 0x40) != 0;
+                    if ((flags & 0x10) != 0 && adaptationLength >= 7) {
+                        long pcr = readPcr(buffer, offset + 6);
+                        if (lastPcr >= 0 && !discontinuity) {
+                            long interval = Math.floorMod(pcr - lastPcr, PCR_WRAP);
+                            if (interval == 0 || interval > MAX_PCR_INTERVAL) {
+                                pcrErrors++;
+                            }
+                        }
+                        lastPcr = pcr;
+                    }
+                }
+                payload += 1 + adaptationLength;
+            }
+
+            if (pid == videoPid) {
+                // A keyframe's byte range runs until the next video PES starts
+                if (payloadStart && keyframeCount > 0 && keyframeLengths[keyframeCount - 1] == 0) {
+                    keyframeLengths[keyframeCount - 1] = offset - keyframes[keyframeCount - 1];
+                }
+                lastVideoPacketEnd = offset + PACKET_SIZE;
+            }
+            if (hasPayload) {
+                int counter = b3 & 0x0F;
+                int previous = continuity[pid];
+                // One duplicate packet is allowed by the spec
+                if (previous >= 0 && !discontinuity && counter != ((previous + 1) & 0x0F) && counter != previous) {
+                    continuityErrors++;
+                }
+                continuity[pid] = counter;
+            }
+            if (!hasPayload || !payloadStart || payload >= offset + PACKET_SIZE) {
+                continue;
+            }
+
+            int end = offset + PACKET_SIZE;
+            if (pid == PAT_PID) {
+                pmtPid = readPmtPid(buffer, payload, end);
+            } else if (pid == pmtPid) {
+                videoPid = readVideoPid(buffer, payload, end);
+                if (initSectionLength == 0) {
+                    initSectionLength = end;
+                }
+            } else if (hasPts(buffer, payload, end)) {
+                // Without a PMT the first timestamped elementary stream stands in for video
+                if (ptsPid < 0 || pid == videoPid) {
+                    ptsPid = pid;
+                }
+                if (pid != ptsPid) {
+                    continue;
+                }
+                long pts = readPts(buffer, payload + 9);
+                if (ptsReference < 0) {
+                    ptsReference = pts;
+                }
+                // Relative to the first PTS so a 33-bit wrap inside the segment stays linear
+                long relative = Math.floorMod(pts - ptsReference, PTS_WRAP);
+                if (relative > PTS_WRAP / 2) {
+                    relative -= PTS_WRAP;
+                }
+                minPts = Math.min(minPts, relative);
+                maxPts = Math.max(maxPts, relative);
+                ptsCount++;
+
+                if (randomAccess && pid == videoPid) {
+                    if (keyframeCount == keyframes.length) {
+                        keyframes = Arrays.copyOf(keyframes, keyframeCount * 2);
+                        keyframeLengths = Arrays.copyOf(keyframeLengths, keyframeCount * 2);
+                        keyframePts = Arrays.copyOf(keyframePts, keyframeCount * 2);
+                    }
+                    keyframes[keyframeCount] = offset;
+                    keyframePts[keyframeCount++] = relative;
+                }
+            }
+        }
+
+        info.setPacketCount(size / PACKET_SIZE);
+        info.setContinuityErrors(continuityErrors);
+        info.setPcrErrors(pcrErrors);
+        if (keyframeCount > 0 && keyframeLengths[keyframeCount - 1] == 0) {
+            keyframeLengths[keyframeCount - 1] = lastVideoPacketEnd - keyframes[keyframeCount - 1];
+        }
+        info.setInitSectionLength(initSectionLength);
+        info.setKeyframeOffsets(Arrays.copyOf(keyframes, keyframeCount));
+        info.setKeyframeLengths(Arrays.copyOf(keyframeLengths, keyframeCount));
+        if (ptsCount == 0) {
+            return info;
+        }
+
+        long span = maxPts - minPts;
+        // PTS marks frame starts, so the last frame's own duration is added back
+        long frameDuration = ptsCount > 1 ? span / (ptsCount - 1) : 0;
+        long durationTicks = span + frameDuration;
+        info.setFirstPts(Math.floorMod(ptsReference + minPts, PTS_WRAP));
+        info.setLastPts(Math.floorMod(ptsReference + maxPts, PTS_WRAP));
+        info.setDurationSeconds(durationTicks / (double) PTS_CLOCK);
+        double[] keyframeTimes = new double[keyframeCount];
+        for (int i = 0; i < keyframeCount; i++) {
+            keyframeTimes[i] = (keyframePts[i] - minPts) / (double) PTS_CLOCK;
+        }
+        info.setKeyframeTimes(keyframeTimes);
+        if (durationTicks > 0) {
+            info.setBitrate(info.getSizeBytes() * 8 * PTS_CLOCK / durationTicks);
+        }
+        info.setValid(durationTicks > 0);
+        return info;
+    }
+
+    private static int readPmtPid(MappedByteBuffer buffer, int payload, int end) {
+        int section = payload + 1 + (buffer.get(payload) & 0xFF);
+        if (section + 8 > end || buffer.get(section) != 0x00) {
+            return -1;
+        }
+        int sectionLength = ((buffer.get(section + 1) & 0x0F) << 8) | (buffer.get(section + 2) & 0xFF);
+        int loopEnd = Math.min(section + 3 + sectionLength - 4, end);
+        for (int entry = section + 8; entry + 4 <= loopEnd; entry += 4) {
+            int programNumber = ((buffer.get(entry) & 0xFF) << 8) | (buffer.get(entry + 1) & 0xFF);
+            if (programNumber != 0) {
+                return ((buffer.get(entry + 2) & 0x1F) << 8) | (buffer.get(entry + 3) & 0xFF);
+            }
+        }
+        return -1;
+    }
+
+    private static int readVideoPid(MappedByteBuffer buffer, int payload, int end) {
+        int section = payload + 1 + (buffer.get(payload) & 0xFF);
+        if (section + 12 > end || buffer.get(section) != 0x02) {
+            return -1;
+        }
+        int sectionLength = ((buffer.get(section + 1) & 0x0F) << 8) | (buffer.get(section + 2) & 0xFF);
+        int programInfoLength = ((buffer.get(section + 10) & 0x0F) << 8) | (buffer.get(section + 11) & 0xFF);
+        int loopEnd = Math.min(section + 3 + sectionLength - 4, end);
+        for (int entry = section + 12 + programInfoLength; entry + 5 <= loopEnd; ) {
+            int streamType = buffer.get(entry) & 0xFF;
+            int pid = ((buffer.get(entry + 1) & 0x1F) << 8) | (buffer.get(entry + 2) & 0xFF);
+            if (isVideo(streamType)) {
+                return pid;
+            }
+            entry += 5 + (((buffer.get(entry + 3) & 0x0F) << 8) | (buffer.get(entry + 4) & 0xFF));
+        }
+        return -1;
+    }
+
+    private static boolean isVideo(int streamType) {
+        return switch (streamType) {
+            case 0x01, 0x02, 0x10, 0x1B, 0x24 -> true; // MPEG-1/2, MPEG-4 part 2, H.264, HEVC
+            default -> false;
+        };
+    }
+
+    private static boolean hasPts(MappedByteBuffer buffer, int payload, int end) {
+        return payload + 14 <= end
+                && buffer.get(payload) == 0 && buffer.get(payload + 1) == 0 && buffer.get(payload + 2) == 1
+                && (buffer.get(payload + 7) & 0x80) != 0;
+    }
+
+    private static long readPts(MappedByteBuffer buffer, int at) {
+        return ((long) (buffer.get(at) & 0x0E) << 29)
+                | ((long) (buffer.get(at + 1) & 0xFF) << 22)
+                | ((long) (buffer.get(at + 2) & 0xFE) << 14)
+                | ((long) (buffer.get(at + 3) & 0xFF) << 7)
+                | ((buffer.get(at + 4) & 0xFE) >> 1);
+    }
+
+    private static long readPcr(MappedByteBuffer buffer, int at) {
+        long base = ((long) (buffer.get(at) & 0xFF) << 25)
+                | ((long) (buffer.get(at + 1) & 0xFF) << 17)
+                | ((long) (buffer.get(at + 2) & 0xFF) << 9)
+                | ((long) (buffer.get(at + 3) & 0xFF) << 1)
+                | ((buffer.get(at + 4) & 0x80) >> 7);
+        int extension = ((buffer.get(at + 4) & 0x01) << 8) | (buffer.get(at + 5) & 0xFF);
+        return base * 300 + extension;
+    }
+}
@@ -10,16 +10,19 @@ import software.amazon.awssdk.services.s3.model.*;
 import org.springframework.stereotype.Service;
 import java.nio.file.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class AwsStorageService implements StorageService {
+    private final Executor uploadExecutor;
     private final S3Client s3Client;
     private final String bucket;
     private static final int MAX_RETRIES = 3;
     private static final int WAIT_TIME_MS = 500;
 
-    public AwsStorageService(StorageConfig config) {
+    public AwsStorageService(StorageConfig config, Executor uploadExecutor) {
+        this.uploadExecutor = uploadExecutor;
         this.bucket = config.getAwsBucket();
         this.s3Client = S3Client.builder()
                 .region(Region.US_EAST_1)
@@ -71,7 +74,7 @@ public class AwsStorageService implements StorageService {
             log.error("Failed to upload after {} retries: {} - {}",
                     MAX_RETRIES, segmentPath, lastException.getMessage());
             throw new RuntimeException("Failed to upload to S3 after " + MAX_RETRIES + " retries", lastException);
-        });
+        }, uploadExecutor);
     }
 
     @Override
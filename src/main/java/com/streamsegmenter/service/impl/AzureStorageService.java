@@ -8,14 +8,17 @@ import com.streamsegmenter.service.StorageService;
 import org.springframework.stereotype.Service;
 import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class AzureStorageService implements StorageService {
+    private final Executor uploadExecutor;
     private final BlobContainerClient containerClient;
     private final String containerName;
 
-    public AzureStorageService(StorageConfig config) {
+    public AzureStorageService(StorageConfig config, Executor uploadExecutor) {
+        this.uploadExecutor = uploadExecutor;
         this.containerName = config.getAzureContainer();
         BlobServiceClient blobServiceClient = new BlobServiceClientBuilder()
             .connectionString(config.getAzureConnectionString())
@@ -36,7 +39,7 @@ public class AzureStorageService implements StorageService {
                 log.error("Error uploading to Azure: {}", e.getMessage());
                 throw new RuntimeException("Failed to upload to Azure", e);
             }
-        });
+        }, uploadExecutor);
     }
 
     @Override
@@ -20,15 +20,18 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class GcpStorageService implements StorageService {
+    private final Executor uploadExecutor;
     private final Storage storage;
     private final String bucketName;
     private final String projectId;
 
-    public GcpStorageService(StorageConfig config) {
+    public GcpStorageService(StorageConfig config, Executor uploadExecutor) {
+        this.uploadExecutor = uploadExecutor;
         this.bucketName = config.getGcpBucket();
         this.projectId = config.getGcpProjectId();
 
@@ -42,13 +45,18 @@ public class GcpStorageService implements StorageService {
                     .setCredentials(ServiceAccountCredentials.fromStream(serviceAccountStream))
                     .build()
                     .getService();
-            configureBucketCors(bucketName, "Content-Type", 3600);
-
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
 
-
+    // Two round trips to GCS, so it runs in the background after the client is up rather than on boot
+    public void configureBucket() {
+        try {
+            configureBucketCors(bucketName, "Content-Type", 3600);
+        } catch (Exception e) {
+            log.warn("Failed to configure CORS on bucket {}: {}", bucketName, e.getMessage());
+        }
     }
 
     private void configureBucketCors(String bucketName, String responseHeader, Integer maxAgeSeconds) {
@@ -95,7 +103,7 @@ public class GcpStorageService implements StorageService {
                 log.error("Error uploading to GCP: {}", e.getMessage());
                 throw new RuntimeException("Failed to upload to GCP", e);
             }
-        });
+        }, uploadExecutor);
     }
 
     @Override
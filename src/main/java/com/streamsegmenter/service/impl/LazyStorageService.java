@@ -0,0 +1,114 @@
+package com.streamsegmenter.service.impl;
+
+import com.streamsegmenter.service.StorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Builds a cloud backend off the boot path. Uploads chain onto the client once it exists; synchronous
+// calls never wait for it, since callers may hold a stream lock. Deletes issued earlier run once it is
+// ready, and URL lookups are only valid while isReady() holds.
+@Slf4j
+public class LazyStorageService implements StorageService {
+    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streamsegmenter.performance");
+
+    public enum State { INITIALIZING, READY, FAILED }
+
+    private final String storageType;
+    private final CompletableFuture<StorageService> delegate;
+    private volatile long readyAt;
+
+    public LazyStorageService(String storageType, Supplier<StorageService> factory, Executor initExecutor) {
+        this.storageType = storageType;
+        long startTime = System.currentTimeMillis();
+        this.delegate = CompletableFuture.supplyAsync(factory, initExecutor);
+        this.delegate.whenComplete((service, e) -> {
+            long duration = System.currentTimeMillis() - startTime;
+            if (e != null) {
+                log.error("Storage backend {} failed to initialize after {} ms: {}", storageType, duration, e.getMessage());
+            } else {
+                readyAt = System.currentTimeMillis();
+                performanceLogger.info("Storage backend {} ready in {} ms", storageType, duration);
+            }
+        });
+    }
+
+    public State getState() {
+        if (!delegate.isDone()) {
+            return State.INITIALIZING;
+        }
+        return delegate.isCompletedExceptionally() ? State.FAILED : State.READY;
+    }
+
+    public long getReadyAt() {
+        return readyAt;
+    }
+
+    public Throwable getFailure() {
+        return delegate.isCompletedExceptionally() ? delegate.handle((s, e) -> e).join() : null;
+    }
+
+    @Override
+    public String getStorageType() {
+        return storageType;
+    }
+
+    @Override
+    public boolean isReady() {
+        return getState() == State.READY;
+    }
+
+    @Override
+    public CompletableFuture<String> uploadSegment(Path segmentPath, String streamId) {
+        return delegate.thenCompose(service -> service.uploadSegment(segmentPath, streamId));
+    }
+
+    @Override
+    public void deleteStream(String streamId) {
+        whenReady(service -> service.deleteStream(streamId));
+    }
+
+    @Override
+    public void deleteSegment(String streamId, String segmentName) {
+        whenReady(service -> service.deleteSegment(streamId, segmentName));
+    }
+
+    @Override
+    public String getSegmentUrl(String streamId, String segmentName) {
+        return readyService().getSegmentUrl(streamId, segmentName);
+    }
+
+    @Override
+    public String getAdvertisementUrl(String streamId, String segmentName) {
+        return readyService().getAdvertisementUrl(streamId, segmentName);
+    }
+
+    private StorageService readyService() {
+        if (!isReady()) {
+            throw new IllegalStateException("Storage backend " + storageType + " is " + getState());
+        }
+        return delegate.join();
+    }
+
+    // Runs now when the client exists, later when it is still being built, and not at all when it failed
+    private void whenReady(Consumer<StorageService> action) {
+        if (delegate.isCompletedExceptionally()) {
+            log.debug("Skipping call on failed storage backend {}", storageType);
+            return;
+        }
+        if (isReady()) {
+            action.accept(delegate.join());
+            return;
+        }
+        delegate.thenAccept(action).exceptionally(e -> {
+            log.warn("Deferred call on storage backend {} failed: {}", storageType, e.getMessage());
+            return null;
+        });
+    }
+}
@@ -5,6 +5,7 @@ import com.streamsegmenter.service.StorageService;
 import org.springframework.stereotype.Service;
 import java.nio.file.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -12,6 +13,7 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 public class LocalStorageService implements StorageService {
     private final StorageConfig config;
+    private final Executor uploadExecutor;
 
     @Override
     public CompletableFuture<String> uploadSegment(Path segmentPath, String streamId) {
@@ -28,7 +30,7 @@ public class LocalStorageService implements StorageService {
                 log.error("Error uploading segment: {}", e.getMessage());
                 throw new RuntimeException("Failed to upload segment", e);
             }
-        });
+        }, uploadExecutor);
     }
 
     @Override
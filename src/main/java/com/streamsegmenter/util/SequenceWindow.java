@@ -0,0 +1,60 @@
+package com.streamsegmenter.util;
+
+// Fixed-size bitmap over the most recent sequence numbers of a stream. Memory stays at capacity/8
+// bytes however long the stream runs; anything that fell behind the window counts as seen.
+public final class SequenceWindow {
+    private final long[] bits;
+    private final int mask;
+    private int highest = -1;
+
+    // capacity is rounded up to a power of two
+    public SequenceWindow(int capacity) {
+        int size = Integer.highestOneBit((Math.max(64, capacity) - 1) << 1);
+        this.bits = new long[size >>> 6];
+        this.mask = size - 1;
+    }
+
+    public synchronized boolean contains(int sequence) {
+        if (sequence > highest) {
+            return false;
+        }
+        if (sequence <= highest - capacity()) {
+            return true;
+        }
+        int slot = sequence & mask;
+        return (bits[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    // Returns false if the sequence was already marked (or is too old to tell)
+    public synchronized boolean add(int sequence) {
+        if (sequence > highest) {
+            advanceTo(sequence);
+        } else if (sequence <= highest - capacity()) {
+            return false;
+        }
+        int slot = sequence & mask;
+        long bit = 1L << slot;
+        if ((bits[slot >>> 6] & bit) != 0) {
+            return false;
+        }
+        bits[slot >>> 6] |= bit;
+        return true;
+    }
+
+    private void advanceTo(int sequence) {
+        // Slots that now stand for newer sequences must not keep the marks of the ones they replace
+        if (highest < 0 || (long) sequence - highest >= capacity()) {
+            java.util.Arrays.fill(bits, 0L);
+        } else {
+            for (int s = highest + 1; s <= sequence; s++) {
+                int slot = s & mask;
+                bits[slot >>> 6] &= ~(1L << slot);
+            }
+        }
+        highest = sequence;
+    }
+
+    private int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,44 @@
+package com.streamsegmenter;
+
+import com.streamsegmenter.repository.ScheduledStreamRepository;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Boots the whole context with LOCAL storage only. Redis connections are opened lazily, so only the two
+// things that reach Redis during startup are stubbed: the pub/sub listener container, which subscribes
+// when it starts, and the scheduler's due-index backfill once the application is ready
+@SpringBootTest(properties = {
+        "storage.types=LOCAL",
+        "storage.localTempPath=target/startup-test",
+        "cluster.enabled=false"
+})
+class StartupTimeTest {
+    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streamsegmenter.performance");
+    // Generous on purpose: this catches a startup regression, not noise between machines
+    private static final long STARTUP_BUDGET_MS = 60_000;
+
+    @MockBean
+    private ScheduledStreamRepository scheduledStreamRepository;
+
+    @MockBean
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Test
+    void contextStartsWithinBudget() {
+        long startupMs = System.currentTimeMillis() - context.getStartupDate();
+        performanceLogger.info("Test context with LOCAL storage started in {} ms", startupMs);
+        assertTrue(startupMs < STARTUP_BUDGET_MS,
+                "Context startup took " + startupMs + " ms, budget is " + STARTUP_BUDGET_MS + " ms");
+    }
+}
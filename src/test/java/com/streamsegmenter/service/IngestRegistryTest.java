@@ -0,0 +1,83 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.model.StreamRequest;
+import com.streamsegmenter.model.VideoQuality;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestRegistryTest {
+    private static final List<String> LOCAL = List.of("LOCAL");
+
+    @Test
+    void sameSourceSpelledDifferentlySharesAKey() {
+        String key = key("rtmp://origin.example.com/live/cam1");
+
+        assertEquals(key, key("  RTMP://Origin.Example.COM:1935/live/./cam1#player  "));
+        assertEquals(key("https://cdn.example.com/a/b.m3u8"), key("https://CDN.example.com:443/a/x/../b.m3u8"));
+    }
+
+    @Test
+    void pathQueryAndNonDefaultPortKeepSourcesApart() {
+        String key = key("rtmp://origin.example.com/live/cam1");
+
+        assertNotEquals(key, key("rtmp://origin.example.com/live/CAM1"));
+        assertNotEquals(key, key("rtmp://origin.example.com:1936/live/cam1"));
+        assertNotEquals(key("http://origin.example.com/s.m3u8?v=1"), key("http://origin.example.com/s.m3u8?v=2"));
+    }
+
+    @Test
+    void qualityIsPartOfTheKey() {
+        String url = "rtmp://origin.example.com/live/cam1";
+
+        assertNotEquals(IngestRegistry.key(url, VideoQuality.HIGH, null, LOCAL),
+                IngestRegistry.key(url, VideoQuality.LOW, null, LOCAL));
+        assertNotEquals(IngestRegistry.key(url, null, null, LOCAL),
+                IngestRegistry.key(url, VideoQuality.LOW, null, LOCAL));
+    }
+
+    @Test
+    void onlyAVisibleWatermarkChangesTheKey() {
+        String url = "rtmp://origin.example.com/live/cam1";
+        StreamRequest.Watermark empty = new StreamRequest.Watermark();
+        StreamRequest.Watermark text = new StreamRequest.Watermark();
+        text.setText("LIVE");
+        StreamRequest.Watermark moved = new StreamRequest.Watermark();
+        moved.setText("LIVE");
+        moved.setX(200);
+
+        String plain = IngestRegistry.key(url, VideoQuality.HIGH, null, LOCAL);
+        assertEquals(plain, IngestRegistry.key(url, VideoQuality.HIGH, empty, LOCAL));
+        assertNotEquals(plain, IngestRegistry.key(url, VideoQuality.HIGH, text, LOCAL));
+        assertNotEquals(IngestRegistry.key(url, VideoQuality.HIGH, text, LOCAL),
+                IngestRegistry.key(url, VideoQuality.HIGH, moved, LOCAL));
+    }
+
+    @Test
+    void storageTypesAreASetIgnoringOrderAndCase() {
+        String url = "rtmp://origin.example.com/live/cam1";
+
+        assertEquals(IngestRegistry.key(url, VideoQuality.HIGH, null, List.of("LOCAL", "AWS")),
+                IngestRegistry.key(url, VideoQuality.HIGH, null, List.of("aws", "local", "LOCAL")));
+        assertEquals(IngestRegistry.key(url, VideoQuality.HIGH, null, null),
+                IngestRegistry.key(url, VideoQuality.HIGH, null, List.of()));
+        assertNotEquals(IngestRegistry.key(url, VideoQuality.HIGH, null, List.of("LOCAL")),
+                IngestRegistry.key(url, VideoQuality.HIGH, null, List.of("LOCAL", "GCP")));
+    }
+
+    @Test
+    void unparseableUrlFallsBackToTheTrimmedText() {
+        String key = key("  rtmp://origin.example.com/live cam  ");
+
+        assertTrue(key.startsWith("rtmp://origin.example.com/live cam|"), key);
+        assertEquals(key, key("rtmp://origin.example.com/live cam"));
+    }
+
+    private static String key(String url) {
+        return IngestRegistry.key(url, VideoQuality.HIGH, null, LOCAL);
+    }
+}
@@ -0,0 +1,136 @@
+package com.streamsegmenter.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PlaylistTemplateTest {
+    private static final String HEADER = "#EXTM3U\n#EXT-X-MEDIA-SEQUENCE:10\n";
+
+    @Test
+    void rendersTheOriginalPlaylistWithDefaultFragments() {
+        Playlist playlist = new Playlist().live(10).ad(11, 11).ad(12, 11).live(13);
+        PlaylistTemplate template = playlist.build();
+
+        byte[] rendered = template.render(PlaylistTemplate.Slot::getDefaultFragment);
+
+        assertEquals(playlist.text.toString(), text(rendered));
+    }
+
+    @Test
+    void splicesTheChosenFragmentIntoEachSlot() {
+        PlaylistTemplate template = new Playlist().live(10).ad(11, 11).ad(12, 11).live(13).build();
+
+        byte[] rendered = template.render(slot -> bytes("#EXTINF:5.0,\nchosen_" + slot.getBreakStart() + ".ts\n"));
+
+        assertEquals(HEADER
+                + "#EXTINF:5.0,\nsegment_10.ts\n"
+                + "#EXTINF:5.0,\nchosen_11.ts\n"
+                + "#EXTINF:5.0,\nsegment_13.ts\n", text(rendered));
+    }
+
+    @Test
+    void adjacentBreaksGetSeparateSlots() {
+        PlaylistTemplate template = new Playlist().ad(10, 10).ad(11, 10).ad(12, 12).live(13).build();
+        List<PlaylistTemplate.Slot> slots = new ArrayList<>();
+
+        template.render(slot -> {
+            slots.add(slot);
+            return slot.getDefaultFragment();
+        });
+
+        assertEquals(2, slots.size());
+        assertEquals(10, slots.get(0).getBreakStart());
+        assertEquals(0, slots.get(0).getFirstIndex());
+        assertEquals(1, slots.get(0).getLastIndex());
+        assertEquals("#EXTINF:5.0,\nadvertisement_10_0.ts\n#EXTINF:5.0,\nadvertisement_10_1.ts\n",
+                text(slots.get(0).getDefaultFragment()));
+        assertEquals(12, slots.get(1).getBreakStart());
+        assertEquals(0, slots.get(1).getFirstIndex());
+        assertEquals(0, slots.get(1).getLastIndex());
+    }
+
+    @Test
+    void slotStillOpenAtTheEndIsClosedByBuild() {
+        Playlist playlist = new Playlist().live(10).ad(11, 11);
+        PlaylistTemplate template = playlist.build();
+
+        byte[] rendered = template.render(slot -> bytes("X"));
+
+        assertEquals(HEADER + "#EXTINF:5.0,\nsegment_10.ts\nX", text(rendered));
+    }
+
+    @Test
+    void playlistWithoutAdsRendersUnchanged() {
+        Playlist playlist = new Playlist().live(10).live(11);
+        AtomicInteger slots = new AtomicInteger();
+
+        byte[] rendered = playlist.build().render(slot -> {
+            slots.incrementAndGet();
+            return slot.getDefaultFragment();
+        });
+
+        assertEquals(0, slots.get());
+        assertEquals(playlist.text.toString(), text(rendered));
+    }
+
+    @Test
+    void candidateFragmentIsRenderedOncePerSlot() {
+        PlaylistTemplate template = new Playlist().live(10).ad(11, 11).build();
+        AtomicInteger renders = new AtomicInteger();
+        List<byte[]> fragments = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            template.render(slot -> {
+                byte[] fragment = slot.fragmentFor("creative-a", s -> {
+                    renders.incrementAndGet();
+                    return "#EXTINF:5.0,\ncreative-a.ts\n";
+                });
+                fragments.add(fragment);
+                return fragment;
+            });
+        }
+
+        assertEquals(1, renders.get());
+        assertSame(fragments.get(0), fragments.get(2));
+        assertArrayEquals(bytes("#EXTINF:5.0,\ncreative-a.ts\n"), fragments.get(1));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Appends entries the way M3u8Service does, marking ad entries on the builder as it goes
+    private static final class Playlist {
+        private final StringBuilder text = new StringBuilder(HEADER);
+        private final PlaylistTemplate.Builder builder = new PlaylistTemplate.Builder(null);
+
+        Playlist live(int sequence) {
+            builder.close(text.length());
+            text.append("#EXTINF:5.0,\nsegment_").append(sequence).append(".ts\n");
+            return this;
+        }
+
+        Playlist ad(int sequence, int breakStart) {
+            builder.adSegment(text.length(), breakStart, sequence - breakStart);
+            text.append("#EXTINF:5.0,\nadvertisement_").append(breakStart).append('_')
+                    .append(sequence - breakStart).append(".ts\n");
+            return this;
+        }
+
+        PlaylistTemplate build() {
+            return builder.build(text.toString());
+        }
+    }
+}
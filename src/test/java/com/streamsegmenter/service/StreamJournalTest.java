@@ -0,0 +1,235 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.config.InstanceIdentity;
+import com.streamsegmenter.config.JournalConfig;
+import com.streamsegmenter.config.StorageConfig;
+import com.streamsegmenter.event.StreamStartedEvent;
+import com.streamsegmenter.event.StreamStoppedEvent;
+import com.streamsegmenter.model.SegmentInfo;
+import com.streamsegmenter.model.StreamRequest;
+import com.streamsegmenter.model.VideoQuality;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StreamJournalTest {
+    private static final int SIZE_BYTES = 64 * 1024;
+    private static final int HEADER_SIZE = Long.BYTES;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysStreamStateAfterRestart() {
+        InstanceIdentity identity = new InstanceIdentity();
+        StreamJournal journal = open(identity);
+        StreamRequest.Watermark watermark = new StreamRequest.Watermark();
+        watermark.setText("live");
+        watermark.setOpacity(0.5f);
+        journal.onStreamStarted(new StreamStartedEvent("s1", "rtmp://origin/s1", List.of("LOCAL", "AWS"),
+                VideoQuality.HIGH, watermark, 0));
+        for (int sequence = 1; sequence <= M3u8Service.MAX_SEGMENTS + 2; sequence++) {
+            journal.segmentPublished("s1", sequence, segment(sequence));
+        }
+        journal.advertisementRegistered("s1", new StreamJournal.JournaledAd(20, "/ads/s1", 10, null));
+
+        List<StreamJournal.JournaledStream> streams = open(new InstanceIdentity()).getRecoverableStreams();
+
+        assertEquals(1, streams.size());
+        StreamJournal.JournaledStream stream = streams.get(0);
+        assertEquals("rtmp://origin/s1", stream.getStreamUrl());
+        assertEquals(List.of("LOCAL", "AWS"), stream.getStorageTypes());
+        assertEquals(VideoQuality.HIGH, stream.getQuality());
+        assertEquals("live", stream.getWatermark().getText());
+        assertEquals(0.5f, stream.getWatermark().getOpacity());
+        assertEquals(identity.getInstanceId(), stream.getInstanceId());
+        // Only the playlist window survives
+        assertEquals(3, (int) stream.getSegments().firstKey());
+        assertEquals(M3u8Service.MAX_SEGMENTS + 2, (int) stream.getSegments().lastKey());
+        SegmentInfo last = stream.getSegments().lastEntry().getValue();
+        assertEquals(5.0 + 0.01 * (M3u8Service.MAX_SEGMENTS + 2), last.getDurationSeconds(), 1e-9);
+        assertArrayEquals(new long[]{376, 5000}, last.getKeyframeOffsets());
+        assertEquals(List.of(new StreamJournal.JournaledAd(20, "/ads/s1", 10, null)), stream.getAds());
+    }
+
+    @Test
+    void stoppedAndDiscardedStreamsAreNotReplayed() {
+        StreamJournal journal = open(new InstanceIdentity());
+        start(journal, "stopped");
+        start(journal, "discarded");
+        start(journal, "running");
+        journal.onStreamStopped(new StreamStoppedEvent("stopped"));
+        journal.discard("discarded");
+
+        List<StreamJournal.JournaledStream> streams = open(new InstanceIdentity()).getRecoverableStreams();
+
+        assertEquals(List.of("running"), streams.stream().map(StreamJournal.JournaledStream::getStreamId).toList());
+    }
+
+    @Test
+    void replayStopsAtATornRecord() throws IOException {
+        StreamJournal journal = open(new InstanceIdentity());
+        start(journal, "s1");
+        journal.segmentPublished("s1", 1, segment(1));
+        journal.segmentPublished("s1", 2, segment(2));
+
+        // Flip one payload byte of the newest record so its CRC no longer matches
+        Path file = activeFile();
+        int last = lastRecordOffset(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, last + 2 * Integer.BYTES + 1);
+            value.put(0, (byte) (value.get(0) ^ 0xFF)).rewind();
+            channel.write(value, last + 2 * Integer.BYTES + 1);
+        }
+
+        StreamJournal.JournaledStream stream = open(new InstanceIdentity()).getRecoverableStreams().get(0);
+
+        assertEquals(List.of(1), List.copyOf(stream.getSegments().keySet()));
+    }
+
+    @Test
+    void generationHeaderDecidesWhichFileIsReplayed() throws IOException {
+        start(open(new InstanceIdentity()), "a");
+        // The restart compacts into the other file and bumps its generation; b only lands there
+        start(open(new InstanceIdentity()), "b");
+        Path newest = activeFile();
+
+        // As if the crash hit before the compacted file's header was written
+        writeLong(newest, 0, 0);
+
+        List<StreamJournal.JournaledStream> streams = open(new InstanceIdentity()).getRecoverableStreams();
+
+        assertEquals(List.of("a"), streams.stream().map(StreamJournal.JournaledStream::getStreamId).toList());
+    }
+
+    @Test
+    void replaysStartRecordsWrittenBeforeTheInstanceIdWasJournaled() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1); // STREAM_STARTED
+        out.writeUTF("legacy");
+        out.writeUTF("rtmp://origin/legacy");
+        out.writeInt(1);
+        out.writeUTF("LOCAL");
+        out.writeBoolean(false); // no quality
+        out.writeBoolean(false); // no watermark
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        Path file = journalDir().resolve("streams-0.journal");
+        Files.createDirectories(file.getParent());
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 2 * Integer.BYTES + payload.length + Integer.BYTES);
+        record.putLong(1).putInt(payload.length).putInt((int) crc.getValue()).put(payload).putInt(0).flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(record);
+        }
+
+        List<StreamJournal.JournaledStream> streams = open(new InstanceIdentity()).getRecoverableStreams();
+
+        assertEquals(1, streams.size());
+        assertEquals("rtmp://origin/legacy", streams.get(0).getStreamUrl());
+        assertNull(streams.get(0).getQuality());
+        assertNull(streams.get(0).getInstanceId());
+    }
+
+    @Test
+    void disabledJournalWritesNothing() {
+        JournalConfig config = new JournalConfig();
+        config.setEnabled(false);
+        StreamJournal journal = new StreamJournal(config, storageConfig(), new InstanceIdentity());
+        journal.open();
+        start(journal, "s1");
+
+        assertFalse(Files.exists(journalDir()));
+    }
+
+    private StreamJournal open(InstanceIdentity identity) {
+        JournalConfig config = new JournalConfig();
+        config.setSizeBytes(SIZE_BYTES);
+        StreamJournal journal = new StreamJournal(config, storageConfig(), identity);
+        journal.open();
+        return journal;
+    }
+
+    private StorageConfig storageConfig() {
+        StorageConfig storageConfig = new StorageConfig();
+        storageConfig.setLocalTempPath(dir.toString());
+        return storageConfig;
+    }
+
+    private Path journalDir() {
+        return dir.resolve("journal");
+    }
+
+    private static void start(StreamJournal journal, String streamId) {
+        journal.onStreamStarted(new StreamStartedEvent(streamId, "rtmp://origin/" + streamId, List.of("LOCAL"),
+                VideoQuality.MEDIUM, null, 0));
+    }
+
+    private static SegmentInfo segment(int sequence) {
+        SegmentInfo info = new SegmentInfo();
+        info.setDurationSeconds(5.0 + 0.01 * sequence);
+        info.setBitrate(2_000_000);
+        info.setSizeBytes(1_250_000);
+        info.setInitSectionLength(376);
+        info.setKeyframeOffsets(new long[]{376, 5000});
+        info.setKeyframeLengths(new long[]{1880, 940});
+        info.setKeyframeTimes(new double[]{0, 2.5});
+        return info;
+    }
+
+    private Path activeFile() throws IOException {
+        Path first = journalDir().resolve("streams-0.journal");
+        Path second = journalDir().resolve("streams-1.journal");
+        return readLong(second, 0) > readLong(first, 0) ? second : first;
+    }
+
+    private static int lastRecordOffset(Path file) throws IOException {
+        int position = HEADER_SIZE;
+        int last = -1;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            while (true) {
+                length.clear();
+                channel.read(length, position);
+                int value = length.getInt(0);
+                if (value <= 0) {
+                    return last;
+                }
+                last = position;
+                position += 2 * Integer.BYTES + value;
+            }
+        }
+    }
+
+    private static long readLong(Path file, long at) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer value = ByteBuffer.allocate(Long.BYTES);
+            channel.read(value, at);
+            return value.getLong(0);
+        }
+    }
+
+    private static void writeLong(Path file, long at, long value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, value), at);
+        }
+    }
+}
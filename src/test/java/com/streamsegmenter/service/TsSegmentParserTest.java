@@ -0,0 +1,219 @@
+package com.streamsegmenter.service;
+
+import com.streamsegmenter.model.SegmentInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TsSegmentParserTest {
+    private static final int PACKET = 188;
+    private static final int PMT_PID = 0x1000;
+    private static final int VIDEO_PID = 0x100;
+    private static final long FRAME = 3600; // 25 fps in 90 kHz ticks
+    private static final long PTS_WRAP = 1L << 33;
+
+    private final TsSegmentParser parser = new TsSegmentParser();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsDurationKeyframesAndInitSection() throws IOException {
+        Ts ts = new Ts().pat().pmt();
+        for (int i = 0; i < 4; i++) {
+            ts.video(900_000 + i * FRAME, i % 2 == 0, -1);
+        }
+
+        SegmentInfo info = parse(ts);
+
+        assertTrue(info.isValid());
+        assertEquals(6, info.getPacketCount());
+        assertEquals(2 * PACKET, info.getInitSectionLength());
+        assertEquals(0.16, info.getDurationSeconds(), 1e-9);
+        assertEquals(900_000, info.getFirstPts());
+        assertEquals(900_000 + 3 * FRAME, info.getLastPts());
+        assertEquals(6L * PACKET * 8 * 90_000 / (4 * FRAME), info.getBitrate());
+        assertArrayEquals(new long[]{2 * PACKET, 4 * PACKET}, info.getKeyframeOffsets());
+        assertArrayEquals(new long[]{PACKET, PACKET}, info.getKeyframeLengths());
+        assertArrayEquals(new double[]{0, 0.08}, info.getKeyframeTimes(), 1e-9);
+        assertEquals(0, info.getContinuityErrors());
+        assertEquals(0, info.getPcrErrors());
+    }
+
+    @Test
+    void keepsDurationLinearAcrossPtsWrap() throws IOException {
+        Ts ts = new Ts().pat().pmt();
+        for (int i = 0; i < 4; i++) {
+            ts.video(Math.floorMod(PTS_WRAP - FRAME + i * FRAME, PTS_WRAP), i == 0, -1);
+        }
+
+        SegmentInfo info = parse(ts);
+
+        assertTrue(info.isValid());
+        assertEquals(0.16, info.getDurationSeconds(), 1e-9);
+        assertEquals(PTS_WRAP - FRAME, info.getFirstPts());
+        assertEquals(2 * FRAME, info.getLastPts());
+    }
+
+    @Test
+    void countsContinuityGapsButAllowsOneDuplicate() throws IOException {
+        Ts ts = new Ts().pat().pmt();
+        ts.video(0, true, -1);
+        ts.videoCounter--; // duplicate packet, allowed
+        ts.video(FRAME, false, -1);
+        ts.videoCounter++; // one packet lost
+        ts.video(2 * FRAME, false, -1);
+
+        assertEquals(1, parse(ts).getContinuityErrors());
+    }
+
+    @Test
+    void flagsPcrIntervalsAboveOneHundredMilliseconds() throws IOException {
+        long pcr = 27_000_000L;
+        Ts ts = new Ts().pat().pmt();
+        ts.video(0, true, pcr);
+        ts.video(FRAME, false, pcr + 27_000_000L / 25);
+        ts.video(2 * FRAME, false, pcr + 27_000_000L / 25 + 27_000_000L / 5);
+
+        assertEquals(1, parse(ts).getPcrErrors());
+    }
+
+    @Test
+    void rejectsTrailingPartialPacket() throws IOException {
+        Ts ts = new Ts().pat().pmt();
+        ts.video(0, true, -1);
+        byte[] bytes = Arrays.copyOf(ts.bytes(), 3 * PACKET + 10);
+
+        SegmentInfo info = parse(bytes);
+
+        assertFalse(info.isValid());
+        assertEquals(3 * PACKET + 10, info.getSizeBytes());
+        assertEquals(0, info.getPacketCount());
+    }
+
+    @Test
+    void stopsAtLostSync() throws IOException {
+        Ts ts = new Ts().pat().pmt();
+        ts.video(0, true, -1);
+        ts.video(FRAME, false, -1);
+        byte[] bytes = ts.bytes();
+        bytes[3 * PACKET] = 0;
+
+        assertFalse(parse(bytes).isValid());
+    }
+
+    @Test
+    void fallsBackToFirstTimestampedStreamWithoutPmt() throws IOException {
+        Ts ts = new Ts().pat();
+        ts.video(0, true, -1);
+        ts.video(FRAME, false, -1);
+
+        SegmentInfo info = parse(ts);
+
+        assertTrue(info.isValid());
+        assertEquals(0.08, info.getDurationSeconds(), 1e-9);
+        // Keyframes are only tracked once the PMT names the video PID
+        assertEquals(0, info.getKeyframeOffsets().length);
+    }
+
+    private SegmentInfo parse(Ts ts) throws IOException {
+        return parse(ts.bytes());
+    }
+
+    private SegmentInfo parse(byte[] bytes) throws IOException {
+        Path segment = dir.resolve("segment.ts");
+        Files.write(segment, bytes);
+        return parser.parse(segment);
+    }
+
+    // Minimal muxer: one PAT, one PMT naming an H.264 stream, one packet per video frame
+    private static final class Ts {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int videoCounter;
+
+        Ts pat() {
+            int[] section = {
+                    0x00, 0xB0, 13, 0x00, 0x01, 0xC1, 0x00, 0x00,
+                    0x00, 0x01, 0xE0 | (PMT_PID >> 8), PMT_PID & 0xFF,
+                    0, 0, 0, 0
+            };
+            packet(0, 0, psi(section), null);
+            return this;
+        }
+
+        Ts pmt() {
+            int[] section = {
+                    0x02, 0xB0, 18, 0x00, 0x01, 0xC1, 0x00, 0x00,
+                    0xE0 | (VIDEO_PID >> 8), VIDEO_PID & 0xFF, 0xF0, 0x00,
+                    0x1B, 0xE0 | (VIDEO_PID >> 8), VIDEO_PID & 0xFF, 0xF0, 0x00,
+                    0, 0, 0, 0
+            };
+            packet(PMT_PID, 0, psi(section), null);
+            return this;
+        }
+
+        Ts video(long pts, boolean keyframe, long pcr) {
+            byte[] pes = {
+                    0x00, 0x00, 0x01, (byte) 0xE0, 0x00, 0x00, (byte) 0x80, (byte) 0x80, 0x05,
+                    (byte) (0x21 | ((pts >> 29) & 0x0E)), (byte) (pts >> 22),
+                    (byte) (((pts >> 14) & 0xFE) | 1), (byte) (pts >> 7), (byte) (((pts << 1) & 0xFE) | 1)
+            };
+            byte[] adaptation = null;
+            if (keyframe || pcr >= 0) {
+                adaptation = new byte[pcr >= 0 ? 7 : 1];
+                adaptation[0] = (byte) ((keyframe ? 0x40 : 0) | (pcr >= 0 ? 0x10 : 0));
+                if (pcr >= 0) {
+                    long base = pcr / 300;
+                    long extension = pcr % 300;
+                    adaptation[1] = (byte) (base >> 25);
+                    adaptation[2] = (byte) (base >> 17);
+                    adaptation[3] = (byte) (base >> 9);
+                    adaptation[4] = (byte) (base >> 1);
+                    adaptation[5] = (byte) (((base & 1) << 7) | 0x7E | (extension >> 8));
+                    adaptation[6] = (byte) extension;
+                }
+            }
+            packet(VIDEO_PID, videoCounter++ & 0x0F, pes, adaptation);
+            return this;
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+
+        private static byte[] psi(int[] section) {
+            byte[] payload = new byte[section.length + 1]; // leading pointer_field of 0
+            for (int i = 0; i < section.length; i++) {
+                payload[i + 1] = (byte) section[i];
+            }
+            return payload;
+        }
+
+        private void packet(int pid, int counter, byte[] payload, byte[] adaptation) {
+            byte[] packet = new byte[PACKET];
+            Arrays.fill(packet, (byte) 0xFF);
+            packet[0] = 0x47;
+            packet[1] = (byte) (0x40 | (pid >> 8));
+            packet[2] = (byte) pid;
+            packet[3] = (byte) (((adaptation != null ? 0x3 : 0x1) << 4) | counter);
+            int offset = 4;
+            if (adaptation != null) {
+                packet[offset++] = (byte) adaptation.length;
+                System.arraycopy(adaptation, 0, packet, offset, adaptation.length);
+                offset += adaptation.length;
+            }
+            System.arraycopy(payload, 0, packet, offset, payload.length);
+            out.writeBytes(packet);
+        }
+    }
+}
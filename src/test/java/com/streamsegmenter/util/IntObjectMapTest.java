@@ -0,0 +1,135 @@
+package com.streamsegmenter.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntObjectMapTest {
+
+    @Test
+    void putReplaceAndRemove() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        assertNull(map.put(1, "a"));
+        assertEquals("a", map.put(1, "b"));
+        assertNull(map.put(-7, "c"));
+
+        assertEquals(2, map.size());
+        assertEquals("b", map.get(1));
+        assertEquals("c", map.get(-7));
+        assertEquals("b", map.remove(1));
+        assertNull(map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(1, map.size());
+        assertThrows(IllegalArgumentException.class, () -> map.put(2, null));
+    }
+
+    @Test
+    void backwardShiftKeepsCollidingKeysReachable() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        int[] colliding = keysWithHome(3, 8, 3);
+        for (int key : colliding) {
+            map.put(key, "v" + key);
+        }
+
+        // Removing the head of the probe chain must pull the others back instead of orphaning them
+        map.remove(colliding[0]);
+
+        assertNull(map.get(colliding[0]));
+        assertEquals("v" + colliding[1], map.get(colliding[1]));
+        assertEquals("v" + colliding[2], map.get(colliding[2]));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void removeIfAcrossWrapAround() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        // Two keys homed in the last slot, so the second wraps to slot 0, and one homed in slot 0
+        int[] last = keysWithHome(7, 8, 2);
+        int first = keysWithHome(0, 8, 1)[0];
+        map.put(last[0], "a");
+        map.put(last[1], "b");
+        map.put(first, "c");
+
+        int removed = map.removeIf((key, value) -> key == last[0] || key == first);
+
+        assertEquals(2, removed);
+        assertEquals(1, map.size());
+        assertEquals("b", map.get(last[1]));
+        assertNull(map.get(last[0]));
+        assertNull(map.get(first));
+    }
+
+    @Test
+    void removeIfShrinksAndKeepsSurvivors() throws Exception {
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        for (int i = 0; i < 200; i++) {
+            map.put(i, i);
+        }
+        int grown = capacity(map);
+
+        int removed = map.removeIf((key, value) -> key % 50 != 0);
+
+        assertEquals(196, removed);
+        assertEquals(4, map.size());
+        assertTrue(capacity(map) < grown);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i % 50 == 0 ? Integer.valueOf(i) : null, map.get(i));
+        }
+        assertEquals(4, map.values().size());
+    }
+
+    @Test
+    void behavesLikeHashMapUnderRandomChurn() {
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        Map<Integer, Integer> reference = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(300) - 100;
+            switch (random.nextInt(10)) {
+                case 0 -> {
+                    int bound = random.nextInt(300) - 100;
+                    assertEquals(countAbove(reference, bound), map.removeIf((k, v) -> k > bound));
+                    reference.keySet().removeIf(k -> k > bound);
+                }
+                case 1, 2, 3 -> assertEquals(reference.remove(key), map.remove(key));
+                default -> assertEquals(reference.put(key, i), map.put(key, i));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+        for (int key = -100; key < 200; key++) {
+            assertEquals(reference.get(key), map.get(key));
+        }
+    }
+
+    private static int countAbove(Map<Integer, Integer> map, int bound) {
+        return (int) map.keySet().stream().filter(k -> k > bound).count();
+    }
+
+    // Mirrors IntObjectMap's slot hash to pick keys that land on a given home slot
+    private static int[] keysWithHome(int home, int capacity, int count) {
+        int[] keys = new int[count];
+        int found = 0;
+        for (int key = 0; found < count; key++) {
+            int hash = key * 0x9E3779B9;
+            if (((hash ^ (hash >>> 16)) & (capacity - 1)) == home) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    private static int capacity(IntObjectMap<?> map) throws Exception {
+        Field keys = IntObjectMap.class.getDeclaredField("keys");
+        keys.setAccessible(true);
+        return ((int[]) keys.get(map)).length;
+    }
+}
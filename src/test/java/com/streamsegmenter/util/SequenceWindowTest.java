@@ -0,0 +1,67 @@
+package com.streamsegmenter.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SequenceWindowTest {
+
+    @Test
+    void marksEachSequenceOnce() {
+        SequenceWindow window = new SequenceWindow(64);
+        assertFalse(window.contains(3));
+        assertTrue(window.add(3));
+        assertFalse(window.add(3));
+        assertTrue(window.contains(3));
+        // Below the highest mark but inside the window and never added
+        assertFalse(window.contains(2));
+        assertTrue(window.add(2));
+    }
+
+    @Test
+    void treatsSequencesBehindTheWindowAsSeen() {
+        SequenceWindow window = new SequenceWindow(64);
+        window.add(100);
+
+        assertTrue(window.contains(36));
+        assertFalse(window.add(36));
+        assertFalse(window.contains(37));
+        assertTrue(window.add(37));
+    }
+
+    @Test
+    void roundsCapacityUpToAPowerOfTwo() {
+        SequenceWindow window = new SequenceWindow(100);
+        window.add(200);
+
+        // 128 slots: 73 is still inside the window, 72 fell behind it
+        assertFalse(window.contains(73));
+        assertTrue(window.contains(72));
+    }
+
+    @Test
+    void advancingClearsReusedSlots() {
+        SequenceWindow window = new SequenceWindow(64);
+        window.add(2);
+        window.add(10);
+
+        // 66 reuses the slot of 2; the old mark must not make it look like a duplicate
+        assertTrue(window.add(66));
+        assertFalse(window.add(66));
+        assertFalse(window.contains(65));
+    }
+
+    @Test
+    void jumpBeyondTheWindowStartsClean() {
+        SequenceWindow window = new SequenceWindow(64);
+        for (int sequence = 0; sequence < 64; sequence++) {
+            window.add(sequence);
+        }
+
+        assertTrue(window.add(1_000));
+        for (int sequence = 937; sequence < 1_000; sequence++) {
+            assertFalse(window.contains(sequence), "sequence " + sequence);
+        }
+    }
+}